@@ -0,0 +1,217 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+// [추가] 부하 테스트 봇 - 화면 없이 ChatConnection 으로 가짜 사용자 여러 명을 띄워서 서버에 메시지를 보냄
+// 사용법: java ChatBot [--host=127.0.0.1] [--port=5000] [--users=1000] [--rate=100] [--whisper=0.1]
+//                     [--image=0.01] [--image-size=65536] [--seconds=30] [--senders=2] [--caps=v2,deflate]
+//   --rate       : 전체 봇이 합쳐서 1초에 보내는 메시지 수
+//   --whisper    : 그중 귓속말 비율 / --image : 그중 이미지 비율 (나머지는 전체 채팅)
+//   --image-size : 이미지 크기 (바이트, 내용은 무작위)
+//   --caps       : 봇이 요청하는 기능 (ChatConnection 참고, "" 이면 예전 v1 클라이언트처럼)
+// - 보내는 내용(이미지는 파일 이름)에 "보내기로 한 시각"(nanoTime)을 넣고, 받은 봇이 지금 시각과의 차이를 종류별 히스토그램에 넣음
+//   (봇이 모두 한 JVM 안에 있어서 시계가 같음, 보내는 스레드가 밀려도 그만큼 지연에 포함됨)
+// - 5초마다 진행 상황, 끝나면 종류별 전달률과 p50 / p99 / p99.9 / 최대 지연을 출력
+// (서버는 따로 띄워둠, 연결 수가 많으면 ulimit -n 을 먼저 올려야 함)
+public class ChatBot {
+    private static final String PREFIX = "t=";
+    private static final long REPORT_MS = 5000;
+
+    enum Kind { TEXT, WHISPER, IMAGE }
+
+    private final Map<Kind, LatencyHistogram> latency = new EnumMap<>(Kind.class);
+    private final Map<Kind, LongAdder> sent = new EnumMap<>(Kind.class);
+    private final LongAdder sendErrors = new LongAdder();
+    private final AtomicInteger closed = new AtomicInteger();
+    private final List<ChatConnection> bots = new ArrayList<>();
+
+    ChatBot() {
+        for (Kind k : Kind.values()) {
+            latency.put(k, new LatencyHistogram());
+            sent.put(k, new LongAdder());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = "127.0.0.1";
+        int port = 5000;
+        int users = 1000;
+        int rate = 100;
+        double whisper = 0.1;
+        double image = 0.01;
+        int imageSize = 64 * 1024;
+        int seconds = 30;
+        int senders = 2;
+        String caps = "v2,deflate";
+        for (String arg : args) {
+            if (arg.startsWith("--host=")) {
+                host = arg.substring("--host=".length());
+            } else if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.startsWith("--users=")) {
+                users = Integer.parseInt(arg.substring("--users=".length()));
+            } else if (arg.startsWith("--rate=")) {
+                rate = Integer.parseInt(arg.substring("--rate=".length()));
+            } else if (arg.startsWith("--whisper=")) {
+                whisper = Double.parseDouble(arg.substring("--whisper=".length()));
+            } else if (arg.startsWith("--image=")) {
+                image = Double.parseDouble(arg.substring("--image=".length()));
+            } else if (arg.startsWith("--image-size=")) {
+                imageSize = Integer.parseInt(arg.substring("--image-size=".length()));
+            } else if (arg.startsWith("--seconds=")) {
+                seconds = Integer.parseInt(arg.substring("--seconds=".length()));
+            } else if (arg.startsWith("--senders=")) {
+                senders = Math.max(1, Integer.parseInt(arg.substring("--senders=".length())));
+            } else if (arg.startsWith("--caps=")) {
+                caps = arg.substring("--caps=".length());
+            }
+        }
+
+        ChatBot bot = new ChatBot();
+        bot.connect(host, port, users, caps);
+        // 입장 알림이 다 빠질 때까지 잠시 대기
+        Thread.sleep(2000);
+        bot.run(rate, whisper, image, imageSize, seconds, senders);
+        // 늦게 오는 것까지 받을 시간
+        Thread.sleep(3000);
+        bot.report();
+        for (ChatConnection c : bot.bots) {
+            c.close();
+        }
+    }
+
+    private void connect(String host, int port, int users, String caps) {
+        long begin = System.nanoTime();
+        for (int i = 0; i < users; i++) {
+            try {
+                ChatConnection c = new ChatConnection(host, port, "bot" + i, caps);
+                c.start(new Receiver());
+                bots.add(c);
+            } catch (IOException e) {
+                System.out.println("stopped at " + i + " bots: " + e.getMessage());
+                break;
+            }
+        }
+        System.out.printf("connected %d bots in %d ms%n", bots.size(), (System.nanoTime() - begin) / 1_000_000);
+    }
+
+    // 보내는 스레드 senders 개가 rate 를 나눠서 일정한 간격으로 보냄 (보낼 봇 / 종류는 무작위)
+    private void run(int rate, double whisper, double image, int imageSize, int seconds, int senders) throws InterruptedException {
+        byte[] data = new byte[imageSize];
+        new Random(42).nextBytes(data);
+        long interval = 1_000_000_000L * senders / Math.max(1, rate);
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int s = 0; s < senders; s++) {
+            long first = start + interval * s / senders;
+            Thread t = new Thread(() -> {
+                Random random = ThreadLocalRandom.current();
+                for (long due = first; due < end && !bots.isEmpty(); due += interval) {
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    ChatConnection from = bots.get(random.nextInt(bots.size()));
+                    double r = random.nextDouble();
+                    Kind kind = r < whisper ? Kind.WHISPER : r < whisper + image ? Kind.IMAGE : Kind.TEXT;
+                    try {
+                        switch (kind) {
+                            case WHISPER:
+                                from.sendWhisper(bots.get(random.nextInt(bots.size())).getUserName(), PREFIX + due);
+                                break;
+                            case IMAGE:
+                                from.sendImage(null, PREFIX + due + ".bin", data);
+                                break;
+                            default:
+                                from.sendText(null, PREFIX + due);
+                                break;
+                        }
+                        sent.get(kind).increment();
+                    } catch (IOException e) {
+                        sendErrors.increment();
+                    }
+                }
+            }, "sender-" + s);
+            t.start();
+            threads.add(t);
+        }
+
+        long nextReport = start + REPORT_MS * 1_000_000;
+        while (System.nanoTime() < end) {
+            Thread.sleep(100);
+            if (System.nanoTime() >= nextReport) {
+                nextReport += REPORT_MS * 1_000_000;
+                System.out.printf("%3ds sent text=%d whisper=%d image=%d, received text=%d whisper=%d image=%d, errors=%d closed=%d%n",
+                        (System.nanoTime() - start) / 1_000_000_000,
+                        sent.get(Kind.TEXT).sum(), sent.get(Kind.WHISPER).sum(), sent.get(Kind.IMAGE).sum(),
+                        latency.get(Kind.TEXT).count(), latency.get(Kind.WHISPER).count(), latency.get(Kind.IMAGE).count(),
+                        sendErrors.sum(), closed.get());
+            }
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+    }
+
+    // 전체 채팅 / 이미지는 모든 봇이 (보낸 봇 포함), 귓속말은 한 봇만 받음
+    private void report() {
+        System.out.printf("%n%-8s %10s %12s %12s %9s %9s %9s %9s %9s%n",
+                "kind", "sent", "delivered", "expected", "ratio", "p50(ms)", "p99(ms)", "p99.9(ms)", "max(ms)");
+        for (Kind k : Kind.values()) {
+            LatencyHistogram h = latency.get(k);
+            long expected = sent.get(k).sum() * (k == Kind.WHISPER ? 1 : bots.size());
+            System.out.printf("%-8s %10d %12d %12d %8.2f%% %9.2f %9.2f %9.2f %9.2f%n",
+                    k.name().toLowerCase(), sent.get(k).sum(), h.count(), expected,
+                    expected == 0 ? 0.0 : h.count() * 100.0 / expected,
+                    h.percentile(50) / 1e6, h.percentile(99) / 1e6, h.percentile(99.9) / 1e6, h.max() / 1e6);
+        }
+        System.out.printf("send errors=%d, disconnected bots=%d%n", sendErrors.sum(), closed.get());
+    }
+
+    // "t=<nanoTime>" 이면 지금까지 걸린 시간, 아니면 -1
+    private static long elapsed(String stamp) {
+        if (!stamp.startsWith(PREFIX)) {
+            return -1;
+        }
+        int end = stamp.indexOf('.');
+        try {
+            return System.nanoTime() - Long.parseLong(stamp.substring(PREFIX.length(), end < 0 ? stamp.length() : end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // 봇 하나의 수신 처리 (그 봇의 수신 스레드에서 불림)
+    private final class Receiver implements ChatConnection.Listener {
+        @Override
+        public void onChat(String room, String sender, String encryptedMsg) {
+            record(Kind.TEXT, elapsed(ChatConnection.xor(encryptedMsg)));
+        }
+
+        @Override
+        public void onWhisper(String sender, String encryptedMsg) {
+            record(Kind.WHISPER, elapsed(ChatConnection.xor(encryptedMsg)));
+        }
+
+        @Override
+        public void onImage(String room, String sender, String fileName, byte[] data, Path saved) {
+            record(Kind.IMAGE, elapsed(fileName));
+        }
+
+        @Override
+        public void onClosed(IOException cause) {
+            closed.incrementAndGet();
+        }
+
+        private void record(Kind kind, long nanos) {
+            if (nanos >= 0) {
+                latency.get(kind).record(nanos);
+            }
+        }
+    }
+}
@@ -3,29 +3,68 @@ import javax.swing.text.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 
-public class ChatClient extends JFrame {
+public class ChatClient extends JFrame implements ChatConnection.Listener {
 
     private JTextPane chatArea;
+    // [추가] 채팅창 그리기 (ChatRenderer 참고) - 채팅창에 남길 최근 메시지 수
+    static final int DEFAULT_MAX_MESSAGES = 1000;
+    private final int maxMessages;
+    private ChatRenderer renderer;
     private JTextField inputField;
     private JButton sendButton;
     private JButton imageButton;
     private JButton loadLogButton;
 
-    private Socket socket;
-    private DataInputStream in;
-    private DataOutputStream out;
+    // [변경] 소켓 / 프로토콜 처리는 ChatConnection 으로 옮김 (화면 없는 봇과 같이 씀)
+    // [변경] 끊기면 다시 연결하면서 바뀌므로 volatile
+    private volatile ChatConnection connection;
+    // [추가] 자동 재연결 - 같은 서버로, 같은 세션(ResumeState)을 이어받도록 다시 붙음
+    // 기다리는 시간은 RECONNECT_MIN_MILLIS 부터 실패할 때마다 두 배 (최대 RECONNECT_MAX_MILLIS), 그 절반~전부 사이에서 무작위
+    // (서버가 다시 켜질 때 모든 클라이언트가 한꺼번에 붙지 않도록)
+    private static final long RECONNECT_MIN_MILLIS = 500;
+    private static final long RECONNECT_MAX_MILLIS = 15_000;
+    private String host;
+    private int port;
+    private final ChatConnection.ResumeState session = new ChatConnection.ResumeState();
+    private volatile boolean quitting;     // 창을 닫는 중 - 다시 연결하지 않음
+    private volatile boolean online;       // CAPS 응답까지 받은 연결이 있음 (끊겼다는 안내는 한 번만)
+    private volatile boolean reconnected;  // 지금 연결이 다시 붙은 것 (처음 연결이 아님)
+    private volatile boolean nameTaken;    // [추가] 다른 사람이 이 닉네임을 가져감 - 다시 연결해도 계속 거절됨
+    private volatile long reconnectDelay = RECONNECT_MIN_MILLIS;
+    private volatile long catchUpFrom = -1; // 새 세션으로 붙었을 때 이 기록 번호 다음부터 다시 받음
+    // [추가] 서버 키 지문 - 처음 접속한 서버는 저장하고, 다음부터 다르면 접속을 끊음 (SessionCrypto 의 서버 인증 참고)
+    private final SessionCrypto.KnownServers knownServers = new SessionCrypto.KnownServers(Paths.get("known_servers.txt"));
+    private ImageStore images; // [추가] 받은 이미지 (downloads/, 내용 해시로 찾음 - 같은 이미지는 한 번만 저장)
+    // [추가] 이미지 미리보기 - 디코딩은 백그라운드 스레드 2개, 채팅창에는 썸네일만 (원본은 클릭할 때)
+    private final ThumbnailLoader thumbnails = new ThumbnailLoader(2);
 
     private String userName;
     private File logFile = new File("chatlog.txt");           // 복호화된 일반 로그
     private File encLogFile = new File("chatlog_enc.txt");    // 암호화된 로그
+    // [추가] 로그 기록 스레드 (LogWriter 참고) - 10MB 마다 새 파일, 이전 파일은 5개까지 보관
+    private static final long LOG_MAX_BYTES = 10L * 1024 * 1024;
+    private static final int LOG_BACKUPS = 5;
+    private final LogWriter chatLog = new LogWriter(logFile, LOG_MAX_BYTES, LOG_BACKUPS);
+    private final LogWriter encLog = new LogWriter(encLogFile, LOG_MAX_BYTES, LOG_BACKUPS);
 
-    // 암호키 (간단 XOR)
-    private final String xorKey = "secret1234";
+    private final Map<String, IncomingFile> incomingFiles = new HashMap<>(); // 받는 중인 파일 (수신 스레드 전용)
 
-    public ChatClient() {
+    // [추가] 현재 들어가 있는 방 (null 이면 전체 채팅) - 일반 메시지와 이미지는 이 방으로 감
+    private volatile String currentRoom;
+
+    // [추가] 서버 채팅 기록 (CAPS "history") - 입장할 때 받을 최근 메시지 수
+    private static final int HISTORY_ON_JOIN = 50;
+
+    public ChatClient(int maxMessages) {
+        this.maxMessages = maxMessages;
 
         // OS 기본 룩앤필 적용 (외부 라이브러리 불필요)
         try {
@@ -37,9 +76,21 @@ public class ChatClient extends JFrame {
         setSize(700, 500);
         setLocationRelativeTo(null);
 
+        // [추가] 창을 닫으면(System.exit) 큐에 남은 로그를 마저 쓰고 종료
+        // [추가] 서버에는 스스로 나간다고 알림 (세션을 남겨두지 않고 바로 퇴장)
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            quitting = true;
+            ChatConnection c = connection;
+            if (c != null) {
+                c.quit();
+            }
+            chatLog.close();
+            encLog.close();
+        }));
+
         initGui();
         connectToServer();
-        startReceiverThread();
+        connection.start(this);
     }
 
     private void initGui() {
@@ -52,6 +103,7 @@ public class ChatClient extends JFrame {
         chatArea.setFont(new Font("맑은 고딕", Font.PLAIN, 14));
         chatArea.setBackground(Color.WHITE);
         chatArea.setMargin(new Insets(10, 8, 10, 8));
+        renderer = new ChatRenderer(chatArea, maxMessages);
         JScrollPane scrollPane = new JScrollPane(chatArea);
         scrollPane.setBorder(BorderFactory.createTitledBorder("채팅"));
 
@@ -117,24 +169,22 @@ public class ChatClient extends JFrame {
             }
             userName = userName.trim();
 
-            String host = JOptionPane.showInputDialog(this, "서버 IP를 입력하세요 (예: 127.0.0.1):", "127.0.0.1");
+            host = JOptionPane.showInputDialog(this, "서버 IP를 입력하세요 (예: 127.0.0.1):", "127.0.0.1");
             if (host == null || host.trim().isEmpty()) {
                 host = "127.0.0.1";
             }
 
             String portStr = JOptionPane.showInputDialog(this, "포트를 입력하세요:", "5000");
-            int port = 5000;
+            port = 5000;
             if (portStr != null && !portStr.trim().isEmpty()) {
                 port = Integer.parseInt(portStr.trim());
             }
 
-            socket = new Socket(host, port);
-            in = new DataInputStream(socket.getInputStream());
-            out = new DataOutputStream(socket.getOutputStream());
-
-            // 첫 번째로 이름 전송 (서버와 프로토콜 일치)
-            out.writeUTF(userName);
-            out.flush();
+            // [변경] 닉네임 / CAPS 전송과 v2 / gcm 전환은 ChatConnection 이 함
+            // [변경] 이미지 저장소를 넘기면 서버에 "imageref" 도 요청 (이미 받은 이미지는 해시만 옴)
+            images = new ImageStore(Paths.get("downloads"));
+            // [변경] 세션 정보도 넘김 - 끊겼다 다시 붙으면 놓친 메시지부터 이어서 받음
+            connection = new ChatConnection(host, port, userName, ChatConnection.DEFAULT_CAPS, images, session, knownServers);
 
             appendSystemMessage("[시스템] 서버에 연결되었습니다.");
         } catch (IOException e) {
@@ -143,87 +193,216 @@ public class ChatClient extends JFrame {
         }
     }
 
-    private void startReceiverThread() {
-        Thread receiver = new Thread(() -> {
+    // ---- [변경] 받은 패킷 처리 (ChatConnection 수신 스레드에서 불림) ----
+
+    @Override
+    public void onCaps(Set<String> caps, boolean encrypted) throws IOException {
+        online = true;
+        reconnectDelay = RECONNECT_MIN_MILLIS;
+        if (reconnected) {
+            // [추가] 이어받기를 모르는 서버 - SESSION 이 오지 않으므로 여기서 다시 받음
+            if (!caps.contains("resume")) {
+                appendSystemMessage("[시스템] 다시 연결되었습니다.");
+                catchUp();
+            }
+            return;
+        }
+        if (encrypted) {
+            // [변경] 서버 키를 확인했으면 지문도 보여줌 - 처음 보는 서버면 서버 운영자가 알려준 지문과 같은지 확인해야 함
+            String fingerprint = connection.getServerFingerprint();
+            if (fingerprint == null) {
+                appendSystemMessage("[시스템] 암호화 연결 (AES-GCM) - 서버 키가 없어 중간자 공격은 막지 못합니다");
+            } else if (connection.isNewServerKey()) {
+                appendSystemMessage("[시스템] 암호화 연결 (AES-GCM) - 처음 접속하는 서버입니다. 서버 키 지문: " + fingerprint);
+                appendSystemMessage("[시스템] 서버를 띄울 때 출력된 지문과 같은지 확인하세요 (다음부터는 자동으로 확인합니다)");
+            } else {
+                appendSystemMessage("[시스템] 암호화 연결 (AES-GCM) - 서버 키 확인됨 (" + fingerprint + ")");
+            }
+        }
+        // [추가] 서버에 기록이 있으면 전체 채팅 최근 메시지부터 받음
+        if (caps.contains("history")) {
+            connection.sendPacket("HISTORY", "", -1L, HISTORY_ON_JOIN);
+        }
+    }
+
+    // [추가] 다시 붙음 - 세션을 이어받았으면 서버가 놓친 것부터 보내줌, 새 세션이면 방에 다시 들어가고 기록에서 채움
+    @Override
+    public void onSession(boolean resumed, long skipped) throws IOException {
+        if (!reconnected) {
+            return; // 처음 연결
+        }
+        if (resumed) {
+            appendSystemMessage("[시스템] 다시 연결되었습니다." + (skipped > 0 ? " (끊긴 동안 온 메시지 " + skipped + "개는 받지 못했습니다)" : ""));
+            return;
+        }
+        appendSystemMessage("[시스템] 다시 연결되었습니다. (새 세션)");
+        closeDownloads();
+        catchUp();
+    }
+
+    private void catchUp() throws IOException {
+        ChatConnection c = connection;
+        String room = currentRoom;
+        if (room != null && c.hasCap("rooms")) {
+            c.sendPacket("JOIN_ROOM", room);
+        }
+        if (c.hasCap("history")) {
+            long since = catchUpFrom;
+            int limit = since < 0 ? HISTORY_ON_JOIN : ChatServer.MAX_HISTORY_REPLAY;
+            c.sendPacket("HISTORY", "", since, limit);
+            if (room != null) {
+                c.sendPacket("HISTORY", room, since, limit);
+            }
+        }
+    }
+
+    // [추가] 지난 메시지 (로그에는 이미 있으므로 화면에만 표시)
+    @Override
+    public void onHistory(long time, String room, String sender, String encryptedMsg) {
+        String when = new SimpleDateFormat("MM-dd HH:mm").format(new Date(time));
+        String decrypted = ChatConnection.xor(encryptedMsg);
+        appendOtherMessage("[이전 " + when + "] " + (room.isEmpty() ? "" : "[" + room + "] ") + sender + ": " + decrypted);
+    }
+
+    @Override
+    public void onHistoryEnd(String room, int count) {
+        appendSystemMessage("[시스템] " + (room.isEmpty() ? "전체 채팅" : room + " 방") + " 이전 메시지 " + count + "개");
+    }
+
+    // 이미지 (전체 / 방)
+    @Override
+    public void onImage(String room, String sender, String fileName, byte[] data, Path saved) {
+        receiveImage(room.isEmpty() ? sender : "[" + room + "] " + sender, saved);
+    }
+
+    // [추가] 귓속말 수신 처리
+    @Override
+    public void onWhisper(String sender, String encryptedMsg) {
+        // 귓속말은 로그에 [귓] 표시해서 저장 (선택)
+        appendEncLog("[귓]" + sender + ": " + toHexString(encryptedMsg.getBytes(StandardCharsets.ISO_8859_1)));
+
+        String decrypted = ChatConnection.xor(encryptedMsg);
+
+        // 화면에 보라색으로 출력
+        appendWhisperMessage(sender + "님의 귓속말", decrypted);
+        appendLog("[귓]" + sender + ": " + decrypted);
+    }
+
+    // [추가] ★ 시스템 메시지 처리 ★
+    @Override
+    public void onSystem(String msg) {
+        if (msg.startsWith("[알림] 이미 사용 중인 닉네임입니다")) {
+            nameTaken = true;
+        }
+        appendSystemMessage(msg);  // 화면 중앙에 회색으로 출력
+        appendLog(msg);            // 로그에도 저장 (선택사항)
+    }
+
+    // [추가] 청크 파일 수신 - 받은 조각은 바로 downloads/ 의 .part 파일에 씀
+    @Override
+    public void onFileBegin(String id, String room, String sender, String fileName, long size) throws IOException {
+        beginDownload(id, room.isEmpty() ? sender : "[" + room + "] " + sender, fileName, size);
+    }
+
+    @Override
+    public void onFileChunk(String id, long offset, ByteBuffer chunk) throws IOException {
+        IncomingFile f = incomingFiles.get(id);
+        if (f != null) {
+            f.channel.write(chunk, offset);
+        }
+    }
+
+    @Override
+    public void onFileEnd(String id) throws IOException {
+        finishDownload(id);
+    }
+
+    @Override
+    public void onRoomList(String list) {
+        appendSystemMessage("[시스템] 방 목록: " + (list.isEmpty() ? "(없음)" : list.replace(":", " ").replace(",", "명, ") + "명"));
+    }
+
+    @Override
+    public void onClosed(IOException cause) {
+        if (quitting) {
+            closeDownloads();
+            return;
+        }
+        // [추가] 세션 토큰이 없거나 만료돼서 닉네임이 거절됨 - 같은 이름으로 계속 다시 붙지 않음
+        if (nameTaken) {
+            appendSystemMessage("[시스템] 다른 접속자가 이 닉네임을 쓰고 있어 다시 연결하지 않습니다.");
+            closeDownloads();
+            return;
+        }
+        // [추가] 서버 키가 고정된 것과 다름 - 다시 붙어도 같은 상대일 테니 멈춤
+        if (cause instanceof ChatConnection.UntrustedServerException) {
+            appendSystemMessage("[시스템] " + cause.getMessage());
+            closeDownloads();
+            return;
+        }
+        // [변경] 끊기면 다시 연결 - 받다 만 파일은 세션을 이어받으면 이어서 받으므로 열어둠
+        if (online) {
+            online = false;
+            appendSystemMessage("[시스템] 서버와의 연결이 끊어졌습니다. 다시 연결하는 중...");
+        }
+        Thread t = new Thread(this::reconnect, "reconnect");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // 받다 만 파일은 .part 로 남겨둠 (같은 id 로 다시 오면 이어서 씀)
+    private void closeDownloads() {
+        for (IncomingFile f : incomingFiles.values()) {
             try {
-                while (true) {
-                    String type = in.readUTF();
-                    if ("TEXT".equals(type)) {
-                        String sender = in.readUTF();
-                        String encryptedMsg = in.readUTF();
-
-                        // 암호화된 로그 별도 저장
-                        appendEncLog(sender + ": " + toHexString(encryptedMsg.getBytes(StandardCharsets.ISO_8859_1)));
-
-                        // 복호화
-                        String decrypted = xorMessage(encryptedMsg);
-
-                        // 구분해서 화면에 출력
-                        if (sender.equals(userName)) {
-                            appendMyMessage(decrypted);
-                        } else {
-                            appendOtherMessage(sender + ": " + decrypted);
-                        }
-
-                        // 일반(복호화된) 로그 저장
-                        appendLog(sender + ": " + decrypted);
-
-                    } else if ("IMAGE".equals(type)) {
-                        String sender = in.readUTF();
-                        String fileName = in.readUTF();
-                        int len = in.readInt();
-                        byte[] data = new byte[len];
-                        in.readFully(data);
-
-                        File dir = new File("downloads");
-                        if (!dir.exists()) dir.mkdirs();
-                        File outputFile = new File(dir, System.currentTimeMillis() + "_" + fileName);
-                        try (FileOutputStream fos = new FileOutputStream(outputFile)) {
-                            fos.write(data);
-                        }
-
-                        String line = sender + "님이 이미지를 보냈습니다: " + outputFile.getAbsolutePath();
-                        appendOtherMessage(line);     // 이미지 알림은 왼쪽(타인) 스타일로
-                        appendLog(line);
-                        // 미리보기
-                        SwingUtilities.invokeLater(() -> {
-                            ImageIcon icon = new ImageIcon(data);
-                            JLabel imgLabel = new JLabel(icon);
-                            JScrollPane sp = new JScrollPane(imgLabel);
-                            sp.setPreferredSize(new Dimension(420, 320));
-                            JOptionPane.showMessageDialog(this, sp, "이미지 from " + sender, JOptionPane.PLAIN_MESSAGE);
-                        });
-                    }// [추가] 귓속말 수신 처리
-                    else if ("WHISPER".equals(type)) {
-                        String sender = in.readUTF();
-                        String encryptedMsg = in.readUTF();
-
-                        // 귓속말은 로그에 [귓] 표시해서 저장 (선택)
-                        appendEncLog("[귓]" + sender + ": " + toHexString(encryptedMsg.getBytes(StandardCharsets.ISO_8859_1)));
-
-                        String decrypted = xorMessage(encryptedMsg);
-
-                        // 화면에 보라색으로 출력
-                        appendWhisperMessage(sender + "님의 귓속말", decrypted);
-                        appendLog("[귓]" + sender + ": " + decrypted);
-                    }// [추가] ★ 시스템 메시지 처리 ★
-                    else if ("SYSTEM".equals(type)) {
-                        String msg = in.readUTF(); // 암호화 안 된 평문 읽기
-                        appendSystemMessage(msg);  // 화면 중앙에 회색으로 출력
-                        appendLog(msg);            // 로그에도 저장 (선택사항)
-                    }
-                }
-            } catch (IOException e) {
-                appendSystemMessage("[시스템] 서버와의 연결이 끊어졌습니다.");
-            } finally {
-                try {
-                    if (socket != null) socket.close();
-                } catch (IOException ignored) {}
+                f.channel.close();
+            } catch (IOException ignored) {}
+        }
+        incomingFiles.clear();
+    }
+
+    // [추가] 다시 연결될 때까지 지수 백오프 + 무작위 (jitter) - 붙으면 새 수신 스레드가 이어받음
+    private void reconnect() {
+        catchUpFrom = Math.max(catchUpFrom, connection.getLastMessageId());
+        while (!quitting) {
+            long delay = reconnectDelay;
+            reconnectDelay = Math.min(delay * 2, RECONNECT_MAX_MILLIS);
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextLong(delay / 2, delay + 1));
+            } catch (InterruptedException e) {
+                return;
             }
-        });
+            try {
+                ChatConnection c = new ChatConnection(host, port, userName, ChatConnection.DEFAULT_CAPS, images, session, knownServers);
+                reconnected = true;
+                connection = c;
+                c.start(this);
+                return;
+            } catch (IOException ignored) {
+                // 아직 서버가 없음 - 더 기다렸다가 다시
+            }
+        }
+    }
+
+    // [변경] 채팅 한 줄 표시 + 로그 저장 (room 이 "" 이면 전체 채팅) - TEXT / ROOM_TEXT / CHAT 공용
+    @Override
+    public void onChat(String room, String sender, String encryptedMsg) {
+        String prefix = room.isEmpty() ? "" : "[" + room + "]";
+
+        // 암호화된 로그 별도 저장
+        appendEncLog(prefix + sender + ": " + toHexString(encryptedMsg.getBytes(StandardCharsets.ISO_8859_1)));
+
+        // 복호화
+        String decrypted = ChatConnection.xor(encryptedMsg);
 
-        receiver.setDaemon(true);
-        receiver.start();
+        // 구분해서 화면에 출력
+        if (sender.equals(userName)) {
+            appendMyMessage((room.isEmpty() ? "" : prefix + " ") + decrypted);
+        } else {
+            appendOtherMessage((room.isEmpty() ? "" : prefix + " ") + sender + ": " + decrypted);
+        }
+
+        // 일반(복호화된) 로그 저장
+        appendLog(prefix + sender + ": " + decrypted);
     }
 
     // 텍스트 전송 (암호화 후 전송)
@@ -241,10 +420,7 @@ public class ChatClient extends JFrame {
                     String targetName = parts[1];
                     String content = parts[2];
 
-                    out.writeUTF("WHISPER");           // 1. 타입
-                    out.writeUTF(targetName);          // 2. 받는 사람
-                    out.writeUTF(xorMessage(content)); // 3. 암호화된 내용
-                    out.flush();
+                    connection.sendWhisper(targetName, content); // 받는 사람 + 암호화된 내용
 
                     // 내 화면에도 표시 (보라색으로)
                     appendWhisperMessage("나 -> " + targetName, content);
@@ -253,11 +429,51 @@ public class ChatClient extends JFrame {
                     return; // 전송 안 하고 종료
                 }
             }
-            // 2. 일반 메시지 (기존 로직)
+            // [추가] 방 명령: /입장 방이름, /퇴장, /방목록, /전체 할말
+            else if (text.startsWith("/입장 ")) {
+                String room = text.substring("/입장 ".length()).trim();
+                if (room.isEmpty()) {
+                    appendSystemMessage("[시스템] 사용법: /입장 [방이름]");
+                    return;
+                }
+                if (currentRoom != null) {
+                    connection.sendPacket("LEAVE_ROOM", currentRoom);
+                }
+                connection.sendPacket("JOIN_ROOM", room);
+                currentRoom = room;
+                if (connection.hasCap("history")) {
+                    connection.sendPacket("HISTORY", room, -1L, HISTORY_ON_JOIN);
+                }
+                setTitle("간단 채팅 클라이언트 - [" + room + "]");
+            } else if (text.equals("/퇴장")) {
+                if (currentRoom != null) {
+                    connection.sendPacket("LEAVE_ROOM", currentRoom);
+                    currentRoom = null;
+                    setTitle("간단 채팅 클라이언트 (암호화 + 사용자구분)");
+                }
+            } else if (text.startsWith("/기록")) {
+                // [추가] /기록 [개수] - 지금 있는 방(없으면 전체)의 최근 메시지 다시 받기
+                if (!connection.hasCap("history")) {
+                    appendSystemMessage("[시스템] 서버가 채팅 기록을 지원하지 않습니다.");
+                    return;
+                }
+                String arg = text.substring("/기록".length()).trim();
+                int count = HISTORY_ON_JOIN;
+                try {
+                    if (!arg.isEmpty()) count = Integer.parseInt(arg);
+                } catch (NumberFormatException e) {
+                    appendSystemMessage("[시스템] 사용법: /기록 [개수]");
+                    return;
+                }
+                connection.sendPacket("HISTORY", currentRoom == null ? "" : currentRoom, -1L, count);
+            } else if (text.equals("/방목록")) {
+                connection.sendPacket("LIST_ROOMS");
+            } else if (text.startsWith("/전체 ")) {
+                connection.sendText(null, text.substring("/전체 ".length()));
+            }
+            // 2. 일반 메시지 - 방에 들어가 있으면 그 방으로
             else {
-                out.writeUTF("TEXT");
-                out.writeUTF(xorMessage(text));
-                out.flush();
+                connection.sendText(currentRoom, text);
             }
 
             inputField.setText("");
@@ -276,22 +492,93 @@ public class ChatClient extends JFrame {
         }
 
         File file = chooser.getSelectedFile();
-        try {
-            byte[] data = readFileToByteArray(file);
+        String room = currentRoom;
 
-            out.writeUTF("IMAGE");
-            out.writeUTF(file.getName());
-            out.writeInt(data.length);
-            out.write(data);
-            out.flush();
+        // [추가] 서버가 청크 전송을 지원하면 파일을 디스크에서 조금씩 읽어 보냄 (UI 스레드를 막지 않도록 별도 스레드)
+        // [변경] 서버가 imageref 를 지원하면 한 번에 보낼 수 있는 크기는 IMAGE 로 - 서버가 해시로 중복을 알아봄
+        boolean chunked = connection.hasCap("chunked")
+                && !(connection.hasCap("imageref") && file.length() <= ChatServer.MAX_IMAGE_SIZE);
 
-            appendSystemMessage("[시스템] 이미지를 전송했습니다: " + file.getName());
+        // 예전 서버 (또는 imageref): 파일 전체를 한 번에 전송
+        // [추가] 한 번에 보낼 수 있는 크기를 넘으면 서버가 연결을 끊으므로 보내기 전에 막음
+        if (!chunked && file.length() > ChatServer.MAX_IMAGE_SIZE) {
+            appendSystemMessage("[에러] 이미지가 너무 큽니다 (최대 " + ChatServer.MAX_IMAGE_SIZE / (1024 * 1024) + "MB): " + file.getName());
+            return;
+        }
+        // [변경] 한 번에 보내는 경우도 파일 읽기 / 전송은 같은 별도 스레드에서 (큰 이미지를 보내는 동안 UI 가 멈추지 않도록)
+        Thread sender = new Thread(() -> {
+            try {
+                if (chunked) {
+                    connection.sendFileChunked(file, UUID.randomUUID().toString(), room, 0);
+                } else {
+                    connection.sendImage(room, file.getName(), readFileToByteArray(file));
+                }
+                appendSystemMessage("[시스템] 이미지를 전송했습니다: " + file.getName());
+            } catch (IOException e) {
+                appendSystemMessage("[에러] 이미지를 보낼 수 없습니다: " + e.getMessage());
+            }
+        });
+        sender.setDaemon(true);
+        sender.start();
+    }
 
-        } catch (IOException e) {
-            appendSystemMessage("[에러] 이미지를 보낼 수 없습니다: " + e.getMessage());
+    // 받은 이미지 미리보기 (전체 / 방 이미지 공용)
+    // [변경] 저장은 ChatConnection 이 이미지 저장소에 함 (saved)
+    private void receiveImage(String sender, Path saved) {
+        String line = sender + "님이 이미지를 보냈습니다: " + saved.toAbsolutePath();
+        appendOtherMessage(line);     // 이미지 알림은 왼쪽(타인) 스타일로
+        appendLog(line);
+        appendImagePreview(sender, saved);
+    }
+
+    // [변경] 모달 창 대신 채팅창 안에 썸네일 (디코딩은 ThumbnailLoader 가 백그라운드에서)
+    private void appendImagePreview(String sender, Path file) {
+        renderer.appendComponent(() -> thumbnails.label(file, sender), ChatRenderer.Kind.OTHER);
+    }
+
+    // [추가] 받는 중인 파일 하나
+    private static class IncomingFile {
+        final String sender;
+        final String fileName;
+        final File partFile;
+        final FileChannel channel;
+
+        IncomingFile(String sender, String fileName, File partFile, FileChannel channel) {
+            this.sender = sender;
+            this.fileName = fileName;
+            this.partFile = partFile;
+            this.channel = channel;
+        }
+    }
+
+    private void beginDownload(String id, String sender, String fileName, long size) throws IOException {
+        File dir = new File("downloads");
+        if (!dir.exists()) dir.mkdirs();
+        // id / 파일명은 다른 사용자가 보낸 값이므로 경로로 쓰기 전에 정리
+        File partFile = new File(dir, id.replaceAll("[^A-Za-z0-9_-]", "_") + ".part");
+        // TRUNCATE 없이 열기 - 이미 받던 .part 가 있으면 그 위에 이어서 씀
+        FileChannel channel = FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        IncomingFile old = incomingFiles.put(id, new IncomingFile(sender, new File(fileName).getName(), partFile, channel));
+        if (old != null) {
+            old.channel.close();
         }
     }
 
+    private void finishDownload(String id) throws IOException {
+        IncomingFile f = incomingFiles.remove(id);
+        if (f == null) {
+            return;
+        }
+        f.channel.close();
+        // [변경] 저장소로 옮김 - 이미 있는 이미지면 받은 파일은 지우고 있던 파일을 씀
+        File outputFile = images.putFile(f.partFile.toPath(), f.fileName).toFile();
+
+        String line = f.sender + "님이 이미지를 보냈습니다: " + outputFile.getAbsolutePath();
+        appendOtherMessage(line);
+        appendLog(line);
+        appendImagePreview(f.sender, outputFile.toPath());
+    }
+
     // 파일 읽기 유틸
     private byte[] readFileToByteArray(File file) throws IOException {
         try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
@@ -306,121 +593,54 @@ public class ChatClient extends JFrame {
         }
     }
 
-    // XOR 암호화/복호화 (같은 함수가 암/복호 모두 담당)
-    private String xorMessage(String message) {
-        // Java에서 char는 16-bit이므로, 암호화 결과를 안전히 전송하려면
-        // 읽고 쓸 때 동일한 방식으로 처리해야 함.
-        // 여기서는 char 단위 XOR 후 그 결과를 문자열로 바로 사용함.
-        StringBuilder result = new StringBuilder();
-        for (int i = 0; i < message.length(); i++) {
-            char c = (char) (message.charAt(i) ^ xorKey.charAt(i % xorKey.length()));
-            result.append(c);
-        }
-        return result.toString();
-    }
-
     // ---- UI: Styled append helpers ----
 
     // 시스템 메시지 (중앙 정렬, 회색)
+    // [변경] 메시지마다 invokeLater 하지 않고 ChatRenderer 큐에 넣기만 함 (한 프레임에 한 번 모아서 그림)
     private void appendSystemMessage(String msg) {
-        SwingUtilities.invokeLater(() -> appendStyledMessage(msg + "\n",
-                new Color(120, 120, 120), new Color(245, 245, 245), StyleConstants.ALIGN_CENTER));
+        renderer.append(msg + "\n", ChatRenderer.Kind.SYSTEM);
     }
 
     // 내가 보낸 메시지: 오른쪽 정렬, 파란 텍스트/연한 파랑 배경
     private void appendMyMessage(String msg) {
-        SwingUtilities.invokeLater(() -> appendStyledMessage("[나] " + msg + "\n",
-                new Color(20, 50, 120), new Color(220, 235, 255), StyleConstants.ALIGN_RIGHT));
+        renderer.append("[나] " + msg + "\n", ChatRenderer.Kind.MINE);
     }
 
     // 다른 사람 메시지: 왼쪽 정렬, 검정 텍스트/연한 회색 배경
     private void appendOtherMessage(String msg) {
-        SwingUtilities.invokeLater(() -> appendStyledMessage(msg + "\n",
-                Color.BLACK, new Color(245, 245, 245), StyleConstants.ALIGN_LEFT));
-    }
-
-    // 핵심: StyledDocument에 삽입하고 단락 정렬/배경 등 설정
-    private void appendStyledMessage(String text, Color fg, Color bg, int alignment) {
-        StyledDocument doc = chatArea.getStyledDocument();
-        SimpleAttributeSet attrs = new SimpleAttributeSet();
-
-        StyleConstants.setForeground(attrs, fg);
-        StyleConstants.setBackground(attrs, bg);
-        StyleConstants.setFontSize(attrs, 14);
-        StyleConstants.setFontFamily(attrs, "맑은 고딕");
-        StyleConstants.setAlignment(attrs, alignment);
-        StyleConstants.setLeftIndent(attrs, 6);
-        StyleConstants.setRightIndent(attrs, 6);
-        StyleConstants.setSpaceAbove(attrs, 4);
-        StyleConstants.setSpaceBelow(attrs, 4);
-
-        try {
-            int start = doc.getLength();
-            doc.insertString(start, text, attrs);
-
-            // paragraph attributes 적용: 시작위치, 길이
-            int len = text.length();
-            doc.setParagraphAttributes(start, len, attrs, false);
-        } catch (BadLocationException e) {
-            e.printStackTrace();
-        }
-
-        // 스크롤 최하단으로
-        chatArea.setCaretPosition(chatArea.getDocument().getLength());
+        renderer.append(msg + "\n", ChatRenderer.Kind.OTHER);
     }
 
     // [추가] 귓속말 UI: 왼쪽 정렬, 보라색 텍스트/연한 보라 배경
     private void appendWhisperMessage(String title, String msg) {
-        SwingUtilities.invokeLater(() -> appendStyledMessage("[" + title + "] " + msg + "\n",
-                new Color(180, 0, 180), new Color(250, 230, 250), StyleConstants.ALIGN_LEFT));
+        renderer.append("[" + title + "] " + msg + "\n", ChatRenderer.Kind.WHISPER);
     }
 
     // ---- 로그 저장 ----
+    // [변경] 줄마다 파일을 열고 닫지 않고 LogWriter 큐에 넣기만 함 (파일 쓰기는 LogWriter 스레드가)
     private void appendLog(String line) {
-        try (FileWriter fw = new FileWriter(logFile, true);
-             BufferedWriter bw = new BufferedWriter(fw);
-             PrintWriter pw = new PrintWriter(bw)) {
-            pw.println(line);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        chatLog.append(line);
     }
 
     // 암호화된 로그(16진 표기) 저장
     private void appendEncLog(String line) {
-        try (FileWriter fw = new FileWriter(encLogFile, true);
-             BufferedWriter bw = new BufferedWriter(fw);
-             PrintWriter pw = new PrintWriter(bw)) {
-            pw.println(line);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        encLog.append(line);
     }
 
     // 로그 읽기(복호화된 일반 로그)
     private void loadLog() {
+        chatLog.flush(1000); // [추가] 큐에 남은 줄까지 쓰고 읽음
         if (!logFile.exists()) {
             JOptionPane.showMessageDialog(this, "저장된 로그가 없습니다.");
             return;
         }
 
-        StringBuilder sb = new StringBuilder();
-        try (BufferedReader br = new BufferedReader(new FileReader(logFile))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                sb.append(line).append("\n");
-            }
+        // [변경] 파일 전체를 문자열로 읽지 않고, 보이는 줄만 읽는 LogViewer 로 엶 (검색 포함)
+        try {
+            new LogViewer(this, logFile).setVisible(true);
         } catch (IOException e) {
             JOptionPane.showMessageDialog(this, "로그를 읽는 중 오류: " + e.getMessage());
-            return;
         }
-
-        JTextArea logArea = new JTextArea(sb.toString());
-        logArea.setEditable(false);
-        logArea.setFont(new Font("맑은 고딕", Font.PLAIN, 13));
-        JScrollPane scrollPane = new JScrollPane(logArea);
-        scrollPane.setPreferredSize(new Dimension(600, 380));
-        JOptionPane.showMessageDialog(this, scrollPane, "채팅 로그", JOptionPane.PLAIN_MESSAGE);
     }
 
     // --- 유틸: 문자열 바이트를 16진 문자열로 변환(암호화 로그 표기용) ---
@@ -432,10 +652,18 @@ public class ChatClient extends JFrame {
         return sb.toString();
     }
 
+    // [변경] 사용법: java ChatClient [--max-messages=N]  (채팅창에 남길 최근 메시지 수, 기본 1000)
     public static void main(String[] args) {
+        int maxMessages = DEFAULT_MAX_MESSAGES;
+        for (String arg : args) {
+            if (arg.startsWith("--max-messages=")) {
+                maxMessages = Math.max(1, Integer.parseInt(arg.substring("--max-messages=".length())));
+            }
+        }
+        int max = maxMessages;
         SwingUtilities.invokeLater(() -> {
-            ChatClient client = new ChatClient();
+            ChatClient client = new ChatClient(max);
             client.setVisible(true);
         });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,567 @@
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyPair;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// [추가] 서버 연결 하나 (화면 없음) - ChatClient 와 부하 테스트 봇(ChatBot)이 같이 씀
+// - 접속하면 닉네임과 CAPS 를 보내고, 서버가 수락한 만큼 UPGRADE 로 v2 / deflate / gcm 으로 전환
+// - 보내기는 sendPacket (여러 스레드에서 불러도 됨, out 락), 받기는 수신 스레드 하나가 읽어서 Listener 로 넘김
+// - v1 / v2 차이(보낸 사람 번호 -> 닉네임 등)는 여기서 풀어서 넘기므로 Listener 는 프로토콜 버전을 몰라도 됨
+// - 채팅 내용은 XOR 된 그대로 넘김 (복호화 / 로그는 받는 쪽이 xor() 로)
+// - [추가] 이미지 저장소(ImageStore)를 주면 "imageref" 도 요청 - 받은 이미지는 저장소에 넣고, 해시만 오면 저장소에서 꺼냄
+// - [추가] ResumeState 를 주면 "resume" 도 요청 - 끊겼다가 같은 ResumeState 로 다시 붙으면 서버가 놓친 것부터 이어서 보냄
+// - [추가] KnownServers 를 주면 gcm 서버 키를 확인하고 고정함 (SessionCrypto 의 서버 인증 참고) - 없으면 엿듣기만 막음
+final class ChatConnection {
+    // 기본으로 요청하는 기능 ("gcm" 이 있으면 접속할 때 "gcm=<공개키>" 로 바꿔서 보냄)
+    static final String DEFAULT_CAPS = "chunked,rooms,v2,deflate,history,gcm,heartbeat";
+    // 청크 파일 전송 - 청크 하나 크기 (서버 MAX_CHUNK_SIZE 이하)
+    static final int CHUNK_SIZE = 64 * 1024;
+    private static final long RECEIVER_STACK = 256 * 1024; // 봇은 연결이 수천 개라 스택을 작게
+
+    // 암호키 (간단 XOR)
+    private static final char[] XOR_CHARS = "secret1234".toCharArray();
+
+    // 받은 패킷 처리 - 모두 수신 스레드에서 불림 (필요한 것만 구현)
+    interface Listener {
+        // 서버가 CAPS 로 수락한 기능이 정해짐 (v2 / gcm 전환까지 끝난 뒤)
+        default void onCaps(Set<String> caps, boolean encrypted) throws IOException {}
+        // 채팅 한 줄 (TEXT / ROOM_TEXT / CHAT) - room 이 "" 이면 전체 채팅
+        default void onChat(String room, String sender, String encryptedMsg) throws IOException {}
+        default void onWhisper(String sender, String encryptedMsg) throws IOException {}
+        default void onSystem(String msg) throws IOException {}
+        // 지난 메시지 (HISTORY) / 끝 (HISTORY_END)
+        default void onHistory(long time, String room, String sender, String encryptedMsg) throws IOException {}
+        default void onHistoryEnd(String room, int count) throws IOException {}
+        // 한 번에 온 이미지 (IMAGE / ROOM_IMAGE)
+        // [변경] saved - 저장소에 있는 파일 (해시만 온 것도 여기서 풀어서 넘김, 저장소가 없으면 null)
+        default void onImage(String room, String sender, String fileName, byte[] data, Path saved) throws IOException {}
+        // 청크 파일 - chunk 는 다음 패킷에서 재사용하므로 그 안에 다 써야 함
+        default void onFileBegin(String id, String room, String sender, String fileName, long size) throws IOException {}
+        default void onFileChunk(String id, long offset, ByteBuffer chunk) throws IOException {}
+        default void onFileEnd(String id) throws IOException {}
+        default void onRoomList(String list) throws IOException {}
+        // [추가] 세션이 정해짐 (CAPS "resume") - resumed 면 이전 연결의 세션을 이어받음, skipped 는 그래도 못 받은 프레임 수
+        // (서버가 보관하는 수를 넘었을 때 / resumed 가 아니면 끊긴 동안 온 것은 모름)
+        default void onSession(boolean resumed, long skipped) throws IOException {}
+        // 연결이 끊어짐 (수신 스레드가 끝나기 직전)
+        default void onClosed(IOException cause) {}
+    }
+
+    // [추가] 고정해 둔 서버 키와 다름 (중간자 공격일 수 있음) - 다시 붙어도 같으므로 재연결하지 않아야 함
+    static final class UntrustedServerException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        UntrustedServerException(String message) {
+            super(message);
+        }
+    }
+
+    private final String userName;
+    private final String address; // [추가] "호스트:포트" - 서버 키를 고정하는 이름
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    // 연결 암호화 (CAPS "gcm") - 이 연결용 키쌍과, 합의 후 암/복호화를 맡는 스트림
+    private final KeyPair sessionKeys;
+    private final ImageStore images; // [추가] null 이면 "imageref" 를 요청하지 않음
+    private final SessionCrypto.RecordInputStream recordsIn;
+    private final SessionCrypto.RecordOutputStream recordsOut;
+    // [추가] 서버 키 지문 저장소 (null 이면 확인하지 않음) / 확인한 지문 (서명이 없었으면 null) / 이번에 처음 고정함
+    private final SessionCrypto.KnownServers knownServers;
+    private volatile String serverFingerprint;
+    private volatile boolean newServerKey;
+
+    private final Set<String> serverCaps = ConcurrentHashMap.newKeySet(); // 서버가 CAPS 로 수락한 기능
+    private final Map<String, Long> uploadProgress = new ConcurrentHashMap<>(); // 보내는 중인 파일의 진행 위치 (이어보내기 용)
+    // 프로토콜 v2 (서버가 CAPS 로 v2 를 수락하면 전환)
+    private boolean inputV2;  // 수신 스레드 전용
+    private boolean outputV2; // out 락을 잡고 읽고 씀
+    private boolean outputDeflate; // 서버가 deflate 를 수락하면 텍스트 패킷을 압축해서 보냄 (out 락)
+    private volatile boolean encrypted;
+    private final Map<Integer, String> userNames = new HashMap<>(); // v2 접속자 번호 -> 닉네임 (수신 스레드 전용)
+    private volatile long lastMessageId = -1; // 마지막으로 받은 기록 번호 (CAPS "history")
+    // 청크 수신용 버퍼 (수신 스레드 하나만 사용하므로 재사용)
+    private final byte[] chunkBuffer = new byte[CHUNK_SIZE];
+    // [추가] IMAGE_REF 로 왔는데 저장소에 없어서 IMAGE_GET 으로 요청한 이미지 (해시 -> 기다리는 것들, 수신 스레드 전용)
+    private final Map<String, List<String[]>> missingImages = new HashMap<>();
+    // [추가] 이어받을 세션 (null 이면 "resume" 을 요청하지 않음) / SESSION 을 받은 뒤로 받은 프레임을 셈 (수신 스레드 전용)
+    private final ResumeState resume;
+    private boolean counting;
+
+    // [추가] 연결이 바뀌어도 이어지는 세션 정보 - 다시 붙을 때 같은 객체를 새 ChatConnection 에 넘김
+    static final class ResumeState {
+        volatile String token;  // 서버가 준 세션 토큰 (아직 없으면 null)
+        volatile long received; // 서버가 SESSION 에 붙인 번호 + 그 뒤로 받은 프레임 수
+    }
+
+    // 접속해서 닉네임과 CAPS 까지 보냄 (caps 는 쉼표로 구분, "" 이면 예전 클라이언트처럼 CAPS 를 보내지 않음)
+    ChatConnection(String host, int port, String userName, String caps) throws IOException {
+        this(host, port, userName, caps, null);
+    }
+
+    ChatConnection(String host, int port, String userName, String caps, ImageStore images) throws IOException {
+        this(host, port, userName, caps, images, null);
+    }
+
+    ChatConnection(String host, int port, String userName, String caps, ImageStore images, ResumeState resume) throws IOException {
+        this(host, port, userName, caps, images, resume, null);
+    }
+
+    ChatConnection(String host, int port, String userName, String caps, ImageStore images, ResumeState resume,
+                   SessionCrypto.KnownServers knownServers) throws IOException {
+        this.userName = userName;
+        this.address = host + ":" + port;
+        this.knownServers = knownServers;
+        this.images = images;
+        this.resume = resume;
+        this.socket = new Socket(host, port);
+        try {
+            socket.setTcpNoDelay(true);
+            // 필드 하나마다 소켓 read/write 를 하지 않도록 버퍼링 (보낼 때는 패킷마다 flush)
+            // 암호화(gcm)가 합의되면 그 뒤로 레코드 단위로 암/복호화하는 스트림을 중간에 끼워둠
+            recordsIn = new SessionCrypto.RecordInputStream(new BufferedInputStream(socket.getInputStream()));
+            recordsOut = new SessionCrypto.RecordOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            in = new DataInputStream(recordsIn);
+            out = new DataOutputStream(recordsOut);
+            List<String> wanted = new ArrayList<>(Arrays.asList(caps.split(",")));
+            if (images != null && !caps.isEmpty()) {
+                wanted.add("imageref");
+            }
+            if (resume != null && !caps.isEmpty()) {
+                // 처음이면 새 세션, 아니면 토큰과 받은 수 (서버는 그 다음 것부터 다시 보냄)
+                String token = resume.token;
+                wanted.add(token == null ? "resume" : "resume=" + token + ":" + resume.received);
+            }
+            sessionKeys = wanted.contains("gcm") ? SessionCrypto.newKeyPair() : null;
+            if (sessionKeys != null) {
+                // gcm=<공개키> - 이 연결에서만 쓰는 키 교환용 (SessionCrypto 참고)
+                wanted.set(wanted.indexOf("gcm"), "gcm=" + SessionCrypto.encode(sessionKeys.getPublic()));
+            }
+
+            // 첫 번째로 이름 전송 (서버와 프로토콜 일치)
+            out.writeUTF(userName);
+            // 지원 기능 알림 - 예전 서버는 모르는 타입이라 그냥 무시함
+            if (!caps.isEmpty()) {
+                out.writeUTF("CAPS");
+                out.writeUTF(String.join(",", wanted));
+            }
+            out.flush();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    String getUserName() {
+        return userName;
+    }
+
+    boolean hasCap(String cap) {
+        return serverCaps.contains(cap);
+    }
+
+    boolean isEncrypted() {
+        return encrypted;
+    }
+
+    long getLastMessageId() {
+        return lastMessageId;
+    }
+
+    // [추가] 확인한 서버 키 지문 (서명이 없는 서버 / 확인하지 않았으면 null) - onCaps 에서 화면에 표시
+    String getServerFingerprint() {
+        return serverFingerprint;
+    }
+
+    // [추가] 이번 연결에서 처음 고정한 서버 키인지 (지문을 서버 운영자에게 확인해야 함)
+    boolean isNewServerKey() {
+        return newServerKey;
+    }
+
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+    }
+
+    // [추가] 스스로 나감 - 서버는 세션을 남기지 않고 바로 퇴장 처리 (서버가 끊으면 수신 스레드가 끝남)
+    void quit() {
+        try {
+            sendPacket("QUIT");
+            socket.shutdownOutput();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    // 수신 스레드 시작 (데몬)
+    void start(Listener listener) {
+        Thread receiver = new Thread(null, () -> receiveLoop(listener), "receiver-" + userName, RECEIVER_STACK);
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    private void receiveLoop(Listener listener) {
+        Protocol.Input v1 = Protocol.v1(in);
+        IOException cause = null;
+        try {
+            while (true) {
+                // v2 로 바뀐 뒤에는 프레임을 통째로 읽고 opcode 로 구분 (필드 순서는 v1 과 같음)
+                String type;
+                Protocol.Input packet;
+                if (inputV2) {
+                    Protocol.Reader frame = Protocol.readFrame(in);
+                    type = frame.readType();
+                    packet = frame;
+                } else {
+                    type = in.readUTF();
+                    packet = v1;
+                }
+                if ("TEXT".equals(type)) {
+                    String sender = readSender(packet);
+                    listener.onChat("", sender, packet.readString());
+                }
+                // 번호가 붙은 채팅 (서버가 history 를 수락했을 때 TEXT / ROOM_TEXT 대신 옴)
+                else if ("CHAT".equals(type)) {
+                    lastMessageId = Math.max(lastMessageId, packet.readLong());
+                    packet.readLong(); // 서버 시각 - 실시간 메시지는 표시하지 않음
+                    String room = packet.readString();
+                    String sender = readSender(packet);
+                    listener.onChat(room, sender, packet.readString());
+                } else if ("HISTORY".equals(type)) {
+                    lastMessageId = Math.max(lastMessageId, packet.readLong());
+                    long time = packet.readLong();
+                    String room = packet.readString();
+                    String sender = packet.readString();
+                    listener.onHistory(time, room, sender, packet.readString());
+                } else if ("HISTORY_END".equals(type)) {
+                    String room = packet.readString();
+                    listener.onHistoryEnd(room, packet.readInt());
+                } else if ("IMAGE".equals(type)) {
+                    String sender = readSender(packet);
+                    String fileName = packet.readString();
+                    onImage(listener, "", sender, fileName, readBytes(packet));
+                } else if ("IMAGE_REF".equals(type)) {
+                    // [추가] 이미 받은 이미지 - 해시로 저장소에서 꺼냄
+                    String sender = readSender(packet);
+                    String fileName = packet.readString();
+                    onImageRef(listener, "", sender, fileName, packet.readString());
+                } else if ("IMAGE_BLOB".equals(type)) {
+                    String hash = packet.readString();
+                    onImageBlob(listener, hash, readBytes(packet));
+                } else if ("WHISPER".equals(type)) {
+                    String sender = readSender(packet);
+                    listener.onWhisper(sender, packet.readString());
+                } else if ("SYSTEM".equals(type)) {
+                    listener.onSystem(packet.readString()); // 암호화 안 된 평문
+                }
+                // 서버가 수락한 기능 목록
+                else if ("CAPS".equals(type)) {
+                    readCaps(packet.readString());
+                    listener.onCaps(Collections.unmodifiableSet(serverCaps), encrypted);
+                }
+                // v2 접속자 번호 <-> 닉네임
+                else if ("USER".equals(type)) {
+                    int id = packet.readInt();
+                    userNames.put(id, packet.readString());
+                } else if ("USER_LEFT".equals(type)) {
+                    userNames.remove(packet.readInt());
+                }
+                // 청크 파일 수신
+                else if ("FILE_BEGIN".equals(type)) {
+                    String id = packet.readString();
+                    String sender = readSender(packet);
+                    String fileName = packet.readString();
+                    listener.onFileBegin(id, "", sender, fileName, packet.readLong());
+                } else if ("FILE_CHUNK".equals(type)) {
+                    String id = packet.readString();
+                    long offset = packet.readLong();
+                    int len = packet.readInt();
+                    if (len < 0 || len > chunkBuffer.length) {
+                        throw new IOException("잘못된 청크 크기: " + len);
+                    }
+                    packet.readFully(chunkBuffer, 0, len);
+                    listener.onFileChunk(id, offset, ByteBuffer.wrap(chunkBuffer, 0, len));
+                } else if ("FILE_END".equals(type)) {
+                    listener.onFileEnd(packet.readString());
+                }
+                // 방 메시지 / 방 이미지 / 방 파일 / 방 목록
+                else if ("ROOM_TEXT".equals(type)) {
+                    String room = packet.readString();
+                    String sender = readSender(packet);
+                    listener.onChat(room, sender, packet.readString());
+                } else if ("ROOM_IMAGE".equals(type)) {
+                    String room = packet.readString();
+                    String sender = readSender(packet);
+                    String fileName = packet.readString();
+                    onImage(listener, room, sender, fileName, readBytes(packet));
+                } else if ("ROOM_IMAGE_REF".equals(type)) {
+                    String room = packet.readString();
+                    String sender = readSender(packet);
+                    String fileName = packet.readString();
+                    onImageRef(listener, room, sender, fileName, packet.readString());
+                } else if ("ROOM_FILE_BEGIN".equals(type)) {
+                    String id = packet.readString();
+                    String room = packet.readString();
+                    String sender = readSender(packet);
+                    String fileName = packet.readString();
+                    listener.onFileBegin(id, room, sender, fileName, packet.readLong());
+                } else if ("ROOM_LIST".equals(type)) {
+                    listener.onRoomList(packet.readString());
+                }
+                // [추가] 연결 확인 (CAPS "heartbeat") - 한동안 보낸 게 없으면 서버가 보냄, 바로 답해야 안 끊김
+                else if ("PING".equals(type)) {
+                    sendPacket("PONG");
+                }
+                // [추가] 세션 토큰 - 이 다음 프레임부터 셈
+                else if ("SESSION".equals(type) && resume != null) {
+                    String token = packet.readString();
+                    long next = packet.readLong();
+                    boolean resumed = token.equals(resume.token);
+                    long skipped = resumed ? Math.max(0, next - resume.received) : 0;
+                    resume.token = token;
+                    resume.received = next;
+                    counting = true;
+                    listener.onSession(resumed, skipped);
+                    continue;
+                }
+                if (counting) {
+                    resume.received++;
+                }
+            }
+        } catch (IOException e) {
+            cause = e;
+        } finally {
+            close();
+            listener.onClosed(cause);
+        }
+    }
+
+    // 서버 CAPS 응답 처리 - v2 를 수락했으면 UPGRADE 를 마지막 v1 프레임으로 보내고 전환
+    // (서버가 보내는 건 이 CAPS 다음부터 v2, gcm 도 합의됐으면 같은 지점부터 양쪽 다 암호 레코드)
+    private void readCaps(String caps) throws IOException {
+        String serverKey = null;
+        String identityKey = null; // [추가] 서버 키 / 서명 (예전 서버는 보내지 않음)
+        String signature = null;
+        for (String cap : caps.split(",")) {
+            if (cap.startsWith("gcm=")) {
+                serverKey = cap.substring("gcm=".length());
+                serverCaps.add("gcm");
+            } else if (cap.startsWith("gcmid=")) {
+                identityKey = cap.substring("gcmid=".length());
+            } else if (cap.startsWith("gcmsig=")) {
+                signature = cap.substring("gcmsig=".length());
+            } else {
+                serverCaps.add(cap);
+            }
+        }
+        // [추가] v2 를 빼서 암호화를 피하는 것도 막도록 v2 확인보다 먼저
+        if (knownServers != null && sessionKeys != null && !inputV2) {
+            checkServerKey(serverKey, identityKey, signature);
+        }
+        if (!serverCaps.contains("v2") || inputV2) {
+            return;
+        }
+        SessionCrypto.Session session = serverKey != null && sessionKeys != null
+                ? SessionCrypto.session(sessionKeys, serverKey, true) : null;
+        synchronized (out) {
+            out.writeUTF("UPGRADE");
+            out.flush();
+            if (session != null) {
+                recordsOut.start(session.sealer);
+            }
+            outputV2 = true;
+            outputDeflate = serverCaps.contains("deflate");
+        }
+        if (session != null) {
+            recordsIn.start(session.opener);
+            encrypted = true;
+        }
+        inputV2 = true;
+    }
+
+    // [추가] 서버가 보낸 서명을 확인하고 지문을 고정된 것과 비교 - 처음 보는 서버면 고정함
+    // 서명이 없으면 예전 서버로 보고 그냥 씀 (엿듣기만 막음), 단 이미 고정된 서버가 서명 없이 오면 바꿔치기로 봄
+    private void checkServerKey(String serverKey, String identityKey, String signature) throws IOException {
+        String pinned = knownServers.get(address);
+        boolean signed = serverKey != null && identityKey != null && signature != null
+                && SessionCrypto.verify(identityKey, signature, SessionCrypto.encode(sessionKeys.getPublic()), serverKey);
+        if (!signed) {
+            if (pinned != null) {
+                throw new UntrustedServerException("서버가 저장된 키(" + pinned + ")로 인증하지 않았습니다 - 중간자 공격일 수 있습니다");
+            }
+            return;
+        }
+        String fingerprint = SessionCrypto.fingerprint(identityKey);
+        if (pinned == null) {
+            knownServers.put(address, fingerprint);
+            newServerKey = true;
+        } else if (!pinned.equals(fingerprint)) {
+            throw new UntrustedServerException("서버 키가 바뀌었습니다 (저장된 키 " + pinned + ", 받은 키 " + fingerprint
+                    + ") - 중간자 공격일 수 있습니다. 서버 키를 바꾼 게 맞으면 " + knownServers.getFile() + " 에서 " + address + " 줄을 지우세요");
+        }
+        serverFingerprint = fingerprint;
+    }
+
+    // 보낸 사람 - v1 은 닉네임, v2 는 번호 (USER 로 받아둔 닉네임으로 바꿈)
+    private String readSender(Protocol.Input packet) throws IOException {
+        if (!inputV2) {
+            return packet.readString();
+        }
+        int id = packet.readInt();
+        return userNames.getOrDefault(id, "#" + id);
+    }
+
+    // [추가] 받은 이미지는 저장소에 넣고 넘김 (같은 이미지가 이미 있으면 다시 쓰지 않음)
+    private void onImage(Listener listener, String room, String sender, String fileName, byte[] data) throws IOException {
+        Path saved = images != null ? images.put(fileName, data) : null;
+        listener.onImage(room, sender, fileName, data, saved);
+    }
+
+    private void onImageRef(Listener listener, String room, String sender, String fileName, String hash) throws IOException {
+        byte[] data = images != null ? images.read(hash) : null;
+        if (data != null) {
+            listener.onImage(room, sender, fileName, data, images.find(hash));
+            return;
+        }
+        // 저장소에서 지워진 이미지 - 서버에 한 번만 요청하고, 같은 해시로 더 오면 같이 기다림
+        List<String[]> waiting = missingImages.computeIfAbsent(hash, h -> new ArrayList<>());
+        waiting.add(new String[] {room, sender, fileName});
+        if (waiting.size() == 1) {
+            sendPacket("IMAGE_GET", hash);
+        }
+    }
+
+    private void onImageBlob(Listener listener, String hash, byte[] data) throws IOException {
+        List<String[]> waiting = missingImages.remove(hash);
+        if (waiting == null) {
+            return;
+        }
+        for (String[] w : waiting) {
+            if (data.length == 0) {
+                listener.onSystem("[알림] 서버에 남아 있지 않은 이미지라 받을 수 없습니다: " + w[2]);
+            } else {
+                onImage(listener, w[0], w[1], w[2], data);
+            }
+        }
+    }
+
+    private static byte[] readBytes(Protocol.Input packet) throws IOException {
+        int len = packet.readInt();
+        // [추가] 길이를 먼저 확인하고 할당 (서버도 MAX_IMAGE_SIZE 보다 큰 이미지는 받지 않음)
+        if (len < 0 || len > ChatServer.MAX_IMAGE_SIZE) {
+            throw new IOException("bad image length: " + len);
+        }
+        byte[] data = new byte[len];
+        packet.readFully(data);
+        return data;
+    }
+
+    // ---- 보내기 ----
+
+    // 패킷 전송 (String: 문자열, Integer: int, Long: long, ByteBuffer: 길이 + 바이트 - 바이트는 마지막 필드만)
+    // v2 로 바뀐 뒤에는 헤더를 v2 프레임으로 만들어서 한 번에 씀 (바이트는 복사하지 않고 뒤에 바로 씀)
+    void sendPacket(String type, Object... fields) throws IOException {
+        synchronized (out) {
+            Protocol.Writer v2 = outputV2 ? new Protocol.Writer() : null;
+            Protocol.Output packet = v2 != null ? v2 : Protocol.v1(out);
+            ByteBuffer data = null;
+            packet.writeType(type);
+            for (Object f : fields) {
+                if (f instanceof String) {
+                    packet.writeString((String) f);
+                } else if (f instanceof Integer) {
+                    packet.writeInt((Integer) f);
+                } else if (f instanceof Long) {
+                    packet.writeLong((Long) f);
+                } else {
+                    data = (ByteBuffer) f;
+                    packet.writeInt(data.remaining());
+                }
+            }
+            if (v2 != null) {
+                out.write(v2.toFrame(data == null ? 0 : data.remaining(), outputDeflate));
+            }
+            if (data != null) {
+                out.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            }
+            out.flush();
+        }
+    }
+
+    // 채팅 한 줄 (room 이 null 이면 전체) - XOR 해서 보냄
+    void sendText(String room, String text) throws IOException {
+        if (room != null) {
+            sendPacket("ROOM_TEXT", room, xor(text));
+        } else {
+            sendPacket("TEXT", xor(text));
+        }
+    }
+
+    void sendWhisper(String targetName, String text) throws IOException {
+        sendPacket("WHISPER", targetName, xor(text));
+    }
+
+    // 이미지를 한 번에 보냄 (예전 서버용, room 이 null 이면 전체)
+    void sendImage(String room, String fileName, byte[] data) throws IOException {
+        // [추가] 서버는 올린 사람이 이 이미지를 갖고 있다고 보고 해시만 돌려보내므로 먼저 저장소에 넣음
+        if (images != null) {
+            images.put(fileName, data);
+        }
+        if (room != null) {
+            sendPacket("ROOM_IMAGE", room, fileName, ByteBuffer.wrap(data));
+        } else {
+            sendPacket("IMAGE", fileName, ByteBuffer.wrap(data));
+        }
+    }
+
+    // FileChannel 로 CHUNK_SIZE 씩 읽어서 FILE_CHUNK 로 전송
+    // startOffset 부터 보내므로, 끊겼을 때 uploadProgress 의 위치부터 같은 id 로 이어보낼 수 있음
+    // room 이 null 이 아니면 그 방 참여자에게만 전송
+    void sendFileChunked(File file, String transferId, String room, long startOffset) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (room != null) {
+                sendPacket("ROOM_FILE_BEGIN", transferId, room, file.getName(), size);
+            } else {
+                sendPacket("FILE_BEGIN", transferId, file.getName(), size);
+            }
+
+            ByteBuffer buf = ByteBuffer.allocate(CHUNK_SIZE);
+            long offset = startOffset;
+            while (offset < size) {
+                buf.clear();
+                int n = channel.read(buf, offset);
+                if (n < 0) {
+                    break;
+                }
+                // 청크 하나씩 락을 잡으므로 큰 파일을 보내는 중에도 채팅 메시지가 끼어들 수 있음
+                buf.flip();
+                sendPacket("FILE_CHUNK", transferId, offset, buf);
+                offset += n;
+                uploadProgress.put(transferId, offset);
+            }
+
+            sendPacket("FILE_END", transferId);
+            uploadProgress.remove(transferId);
+        }
+    }
+
+    // XOR 암호화/복호화 (같은 함수가 암/복호 모두 담당)
+    // Java에서 char는 16-bit이므로, char 단위 XOR 후 그 결과를 문자열로 바로 사용함.
+    // 실제 보호는 연결 암호화(gcm)가 하고, 이 XOR 는 예전 클라이언트와 메시지 형식을 맞추기 위해 남겨둠
+    static String xor(String message) {
+        char[] chars = message.toCharArray();
+        int k = 0;
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] ^= XOR_CHARS[k];
+            if (++k == XOR_CHARS.length) k = 0;
+        }
+        return new String(chars);
+    }
+}
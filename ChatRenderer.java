@@ -0,0 +1,149 @@
+import javax.swing.*;
+import javax.swing.text.*;
+import java.awt.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+// [추가] 채팅창 그리기 - 메시지마다 invokeLater 하지 않고 큐에 모았다가 한 프레임(FRAME_MS)에 한 번 문서에 넣음
+// - 어느 스레드에서든 append() 로 큐에 넣기만 하고, EDT 는 타이머가 울릴 때 쌓인 것을 한꺼번에 처리
+// - 같은 종류가 이어지면 한 덩어리로 insertString / setParagraphAttributes (스타일은 종류별로 한 번만 만듦)
+// - 채팅창에는 최근 maxMessages 개만 남기고 오래된 단락은 앞에서 잘라냄 (전체 기록은 로그 보기로)
+// - [추가] 이미지 미리보기 같은 컴포넌트도 같은 큐로 넣음 (다른 메시지와 순서 유지, 컴포넌트는 EDT 에서 만듦)
+final class ChatRenderer {
+    static final int FRAME_MS = 16;
+
+    // 메시지 종류 - 글자색 / 배경색 / 정렬
+    enum Kind {
+        SYSTEM(new Color(120, 120, 120), new Color(245, 245, 245), StyleConstants.ALIGN_CENTER),
+        MINE(new Color(20, 50, 120), new Color(220, 235, 255), StyleConstants.ALIGN_RIGHT),
+        OTHER(Color.BLACK, new Color(245, 245, 245), StyleConstants.ALIGN_LEFT),
+        WHISPER(new Color(180, 0, 180), new Color(250, 230, 250), StyleConstants.ALIGN_LEFT);
+
+        final AttributeSet attrs;
+
+        Kind(Color fg, Color bg, int alignment) {
+            SimpleAttributeSet a = new SimpleAttributeSet();
+            StyleConstants.setForeground(a, fg);
+            StyleConstants.setBackground(a, bg);
+            StyleConstants.setFontSize(a, 14);
+            StyleConstants.setFontFamily(a, "맑은 고딕");
+            StyleConstants.setAlignment(a, alignment);
+            StyleConstants.setLeftIndent(a, 6);
+            StyleConstants.setRightIndent(a, 6);
+            StyleConstants.setSpaceAbove(a, 4);
+            StyleConstants.setSpaceBelow(a, 4);
+            this.attrs = a.copyAttributes();
+        }
+    }
+
+    private static final class Pending {
+        final String text;
+        final Kind kind;
+        final Supplier<? extends Component> component; // [추가] null 이 아니면 text 대신 이 컴포넌트 한 줄
+
+        Pending(String text, Kind kind, Supplier<? extends Component> component) {
+            this.text = text;
+            this.kind = kind;
+            this.component = component;
+        }
+    }
+
+    private final JTextPane pane;
+    private final int maxMessages;
+    private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(); // true 면 타이머가 돌고 있거나 곧 시작됨
+    private final Timer timer;
+    private final ArrayDeque<Integer> lengths = new ArrayDeque<>(); // 화면에 있는 메시지별 글자 수 (EDT 전용)
+
+    ChatRenderer(JTextPane pane, int maxMessages) {
+        this.pane = pane;
+        this.maxMessages = maxMessages;
+        // 타이머 시작/정지는 EDT 에서만 함 (다른 스레드에서 restart 하면 멈춘 타이머를 놓칠 수 있음)
+        this.timer = new Timer(FRAME_MS, e -> flush());
+        // 캐럿이 insert 마다 따라가며 스크롤하지 않도록 - flush 끝에 한 번만 맨 아래로
+        ((DefaultCaret) pane.getCaret()).setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
+    }
+
+    // 아무 스레드에서나 호출 (text 는 끝에 줄바꿈 포함)
+    void append(String text, Kind kind) {
+        enqueue(new Pending(text, kind, null));
+    }
+
+    // [추가] 아무 스레드에서나 호출 - component 는 그릴 차례가 되면 EDT 에서 만듦 (잘려나갈 것이면 만들지 않음)
+    void appendComponent(Supplier<? extends Component> component, Kind kind) {
+        enqueue(new Pending(" \n", kind, component));
+    }
+
+    private void enqueue(Pending p) {
+        queue.add(p);
+        if (scheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(timer::start);
+        }
+    }
+
+    // EDT - 쌓인 메시지를 한 번에 문서에 넣고, 넘친 만큼 앞에서 지움
+    // 큐가 빈 것을 본 다음에만 타이머를 멈춤 (멈춘 직후에 들어온 것은 다시 확인해서 시작)
+    private void flush() {
+        List<Pending> batch = new ArrayList<>();
+        for (Pending p; (p = queue.poll()) != null; ) {
+            batch.add(p);
+        }
+        if (batch.isEmpty()) {
+            timer.stop();
+            scheduled.set(false);
+            if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+                timer.start();
+            }
+            return;
+        }
+        // 어차피 바로 잘려나갈 메시지는 넣지 않음 (한 번에 maxMessages 개 넘게 온 경우)
+        int from = Math.max(0, batch.size() - maxMessages);
+
+        StyledDocument doc = pane.getStyledDocument();
+        try {
+            int i = from;
+            while (i < batch.size()) {
+                Kind kind = batch.get(i).kind;
+                if (batch.get(i).component != null) {
+                    // [추가] 컴포넌트는 글자 하나 자리에 붙여서 따로 넣음 (지울 때는 다른 메시지와 똑같이 잘림)
+                    SimpleAttributeSet a = new SimpleAttributeSet(kind.attrs);
+                    StyleConstants.setComponent(a, batch.get(i).component.get());
+                    int start = doc.getLength();
+                    doc.insertString(start, " ", a);
+                    doc.insertString(start + 1, "\n", kind.attrs);
+                    doc.setParagraphAttributes(start, 2, kind.attrs, false);
+                    lengths.addLast(2);
+                    i++;
+                    continue;
+                }
+                StringBuilder run = new StringBuilder();
+                for (; i < batch.size() && batch.get(i).kind == kind && batch.get(i).component == null; i++) {
+                    String text = batch.get(i).text;
+                    run.append(text);
+                    lengths.addLast(text.length());
+                }
+                int start = doc.getLength();
+                doc.insertString(start, run.toString(), kind.attrs);
+                doc.setParagraphAttributes(start, run.length(), kind.attrs, false);
+            }
+
+            int trim = 0;
+            while (lengths.size() > maxMessages) {
+                trim += lengths.removeFirst();
+            }
+            if (trim > 0) {
+                doc.remove(0, trim);
+            }
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+
+        // 스크롤 최하단으로
+        pane.setCaretPosition(doc.getLength());
+    }
+}
@@ -1,194 +1,1423 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.Paths;
+import java.security.KeyPair;
+import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public class ChatServer {
+    // [추가] 파일 청크 하나의 최대 크기 / 접속자 한 명이 동시에 올릴 수 있는 파일 수
+    static final int MAX_CHUNK_SIZE = 64 * 1024;
+    static final int MAX_UPLOADS_PER_CLIENT = 4;
+    // [추가] IMAGE / ROOM_IMAGE 한 번에 보낼 수 있는 최대 크기 (길이를 먼저 확인하고 할당, 더 크면 청크 전송으로)
+    static final int MAX_IMAGE_SIZE = 8 * 1024 * 1024;
+    // [추가] 방 이름 최대 길이 / 접속자 한 명이 동시에 들어갈 수 있는 방 수
+    static final int MAX_ROOM_NAME = 32;
+    static final int MAX_ROOMS_PER_CLIENT = 32;
+    // [추가] 이 서버가 지원하는 기능 (클라이언트가 CAPS 로 보낸 것 중 여기 있는 것만 사용)
+    // [변경] "v2" - 바이너리 프로토콜 v2, "deflate" - v2 텍스트 프레임 압축 (Protocol 참고)
+    // "history" - 번호가 붙은 CHAT 수신 + HISTORY 로 지난 메시지 요청 (기록 저장소가 있을 때만)
+    // "gcm=<공개키>" - v2 전환 뒤로 연결 암호화 (SessionCrypto 참고, v2 와 같이 써야 함)
+    //   [추가] 응답에는 서버 키와 서명도 붙임 ("gcmid=<서버 키>", "gcmsig=<서명>") - 클라이언트가 서버를 확인
+    // "heartbeat" - 조용한 접속자에게 서버가 PING 을 보내고 PONG 을 기다림 (IdleReaper 참고)
+    // [추가] "resume" / "resume=<토큰>:<받은 수>" - 끊겼다 다시 붙으면 세션을 이어받음 (ClientSession 참고)
+    static final Set<String> SERVER_CAPS = Set.of("chunked", "rooms", "v2", "deflate", "history", "gcm", "heartbeat", "imageref", "resume");
+    // [추가] HISTORY 요청 한 번에 돌려주는 최대 메시지 수
+    static final int MAX_HISTORY_REPLAY = 500;
+    // [추가] HISTORY 요청 한 번에 기록 저장소에서 훑는 최대 바이트 (다른 방 메시지까지 포함)
+    // 요청은 메시지 수 제한만 받으므로 세그먼트(64MB) 전체가 아니라 이만큼만 - 메시지가 드문 방이면 찾은 데까지만 돌려줌
+    static final long MAX_HISTORY_SCAN_BYTES = 1024 * 1024;
+
     private int port;
-    private Set<ClientHandler> clients = Collections.synchronizedSet(new HashSet<>());
+    // [변경] 락 없이 순회 가능한 동시성 Set (broadcast 중에 전역 모니터를 잡지 않음)
+    private Set<Client> clients = ConcurrentHashMap.newKeySet();
+    // [추가] 닉네임 -> 접속자 (귓속말 대상 O(1) 조회, 닉네임 중복 방지)
+    private final Map<String, Client> users = new ConcurrentHashMap<>();
+    // [추가] 접속자 번호 (v2 에서 닉네임 대신 보냄, 같은 닉네임으로 다시 들어와도 새 번호)
+    private final AtomicInteger nextUserId = new AtomicInteger();
+    // [추가] 방 이름 -> 방 (방마다 참여자 Set 이 따로 있어서 방 메시지는 그 방 사람만 순회)
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    // [추가] ClientHandler.run() 을 돌릴 스레드 (기본: 플랫폼 스레드, --mode=virtual: 가상 스레드)
+    private ThreadFactory handlerThreads = Thread::new;
+    // [추가] 접속자별 송신 큐 크기와 느린 수신자 처리 정책
+    private int queueCapacity = 1024;
+    private OutboundQueue.Policy slowPolicy = OutboundQueue.Policy.DROP_OLDEST;
+    // [추가] 송신 묶음 설정 - flushDelayNanos 가 0 이면 지연 우선(쌓인 만큼 바로 전송),
+    // 0 보다 크면 처리량 우선(batchBytes 가 찰 때까지 최대 그 시간만큼 더 모아서 한 번에 전송)
+    private long flushDelayNanos = 0;
+    private int batchBytes = 64 * 1024;
+    // [추가] 송신 통계 - write 시스템 호출 수 / 보낸 프레임 수
+    private final LongAdder writeCalls = new LongAdder();
+    private final LongAdder framesOut = new LongAdder();
+    // [추가] 채팅 기록 저장소 (null 이면 기록하지 않음)
+    private MessageStore history;
+    // [추가] 지표 (JMX / HTTP 로 보는 것은 main 에서 start)
+    final ServerMetrics metrics = new ServerMetrics(this);
+    // [추가] 멈춘 연결 정리 (0 이면 그 확인은 안 함) - start / startNio 에서 시작
+    private long pingMillis = 5_000;
+    private long readTimeoutMillis = 15_000;
+    private long writeTimeoutMillis = 10_000;
+    private IdleReaper reaper;
+    // [추가] 클러스터 모드 (null 이면 단독 서버)
+    private ClusterLink cluster;
+    // [추가] 접속자 한 명의 보내기 제한 (FloodGuard 참고, 0 이면 제한 없음)
+    private double msgsPerSecond = 20;
+    private double bytesPerSecond = 4 * 1024 * 1024;
+    // [추가] 최근 이미지 보관소 (같은 이미지는 해시만 보냄)
+    private ImageCache images = new ImageCache(64L * 1024 * 1024);
+    // [추가] 다시 붙을 수 있는 세션 - 끊긴 뒤 resumeSeconds 초 동안 최근 replayFrames 개를 보관 (0 이면 이어받기 없음)
+    // [변경] 개수와 함께 바이트도 replayBytes 까지만 (세션마다)
+    private long resumeSeconds = 30;
+    private int replayFrames = 1024;
+    private long replayBytes = 1024 * 1024;
+    private final Map<String, ClientSession> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom tokens = new SecureRandom();
+    // [변경] 세션 만료 / 알림 묶음 / 이름 받기 마감에 같이 씀
+    private final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "server-timer");
+        t.setDaemon(true);
+        return t;
+    });
+    // [추가] 종료 중이면 끊긴 접속자의 세션을 남기지 않음
+    private volatile boolean shuttingDown;
+    // [추가] accept 대기열 크기 / 접속 후 이름(과 이어받기 CAPS)을 받을 때까지 기다리는 시간 (0 이면 무제한)
+    private int acceptBacklog = 1024;
+    private long handshakeTimeoutMillis = 10_000;
+    // [추가] 입장 / 퇴장 알림 - 몰려 들어올 때는 모아서 한 줄로 (PresenceNotices 참고)
+    private PresenceNotices presence = new PresenceNotices(this, timers, 200);
+    // [추가] 서버 키 - gcm 연결의 임시 키에 서명해서 클라이언트가 이 서버인지 확인하게 함 (SessionCrypto 참고, null 이면 서명 없음)
+    private KeyPair identity;
 
     public ChatServer(int port) {
         this.port = port;
     }
 
+    public void setOutboundQueue(int capacity, OutboundQueue.Policy policy) {
+        this.queueCapacity = capacity;
+        this.slowPolicy = policy;
+    }
+
+    public void setHistory(MessageStore history) {
+        this.history = history;
+    }
+
+    public void setWriteBatching(long flushDelayMicros, int batchBytes) {
+        this.flushDelayNanos = TimeUnit.MICROSECONDS.toNanos(flushDelayMicros);
+        this.batchBytes = batchBytes;
+    }
+
+    public void setAccept(int backlog, long handshakeTimeoutMillis) {
+        this.acceptBacklog = backlog;
+        this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+    }
+
+    int getAcceptBacklog() {
+        return acceptBacklog;
+    }
+
+    long getHandshakeTimeoutMillis() {
+        return handshakeTimeoutMillis;
+    }
+
+    // 입장 / 퇴장 알림을 windowMillis 동안 모아서 보냄 (0 이면 한 명씩 바로)
+    public void setNoticeBatching(long windowMillis) {
+        this.presence = new PresenceNotices(this, timers, windowMillis);
+    }
+
+    public void setResume(long resumeSeconds, int replayFrames, long replayBytes) {
+        this.resumeSeconds = resumeSeconds;
+        this.replayFrames = replayFrames;
+        this.replayBytes = replayBytes;
+    }
+
+    public void setIdentity(KeyPair identity) {
+        this.identity = identity;
+    }
+
+    public void setImageCache(long capacityBytes) {
+        this.images = new ImageCache(capacityBytes);
+    }
+
+    ImageCache getImageCache() {
+        return images;
+    }
+
+    public void setCluster(ClusterLink cluster) {
+        this.cluster = cluster;
+    }
+
+    ClusterLink getCluster() {
+        return cluster;
+    }
+
+    public void setIdleTimeouts(long pingMillis, long readTimeoutMillis, long writeTimeoutMillis) {
+        this.pingMillis = pingMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+    }
+
+    // 메시지는 초당 msgsPerSecond 개, 잠깐은 그 두 배까지 몰아서 / 바이트는 1초 분량까지 몰아서
+    public void setRateLimits(double msgsPerSecond, double bytesPerSecond) {
+        this.msgsPerSecond = msgsPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    // [추가] 접속자 한 명 몫의 보내기 제한
+    FloodGuard newFloodGuard() {
+        return new FloodGuard(msgsPerSecond, msgsPerSecond * 2, bytesPerSecond, bytesPerSecond);
+    }
+
+    // [추가] 메시지 수 제한 확인 - 넘었으면 버리고, 본인에게만 가끔 (FloodGuard 알림 간격마다) 알려줌
+    private boolean withinLimit(Client from) {
+        long now = System.nanoTime();
+        if (from.flood.allowMessage(now)) {
+            return true;
+        }
+        metrics.rateLimited();
+        if (from.flood.noticeDue(now)) {
+            from.send(Frame.system("[알림] 메시지를 너무 빨리 보내고 있어 일부가 전달되지 않았습니다. 잠시 후 다시 보내 주세요."));
+        }
+        return false;
+    }
+
+    long getFlushDelayNanos() {
+        return flushDelayNanos;
+    }
+
+    int getBatchBytes() {
+        return batchBytes;
+    }
+
+    // [추가] write 호출 calls 번으로 프레임 frames 개를 보냈음을 기록
+    // [변경] 보낸 바이트도 기록, done 은 다 보낸 묶음 (아직 남았으면 null - 프레임 수는 다 보냈을 때 셈)
+    void recordWrite(Client c, int calls, long bytes, OutboundQueue.Batch done) {
+        int frames = done != null ? done.frames : 0;
+        metrics.written(bytes, done);
+        c.writeCalls += calls;
+        c.bytesOut += bytes;
+        c.framesOut += frames;
+        writeCalls.add(calls);
+        framesOut.add(frames);
+        // [추가] 다 쓴 프레임은 다시 보낼 수 있도록 세션에 번호를 매겨 보관
+        ClientSession s = c.session;
+        if (s != null && done != null) {
+            s.written(c, done.sent);
+        }
+    }
+
+    // [추가] 접속자 한 명 몫의 송신 큐 (COALESCE 정책이면 밀린 메시지 대신 알림 하나를 보냄)
+    OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(queueCapacity, slowPolicy,
+                skipped -> Frame.system("[알림] 수신이 밀려 메시지 " + skipped + "개를 건너뛰었습니다."),
+                metrics.queueLockWaitNanos);
+    }
+
+    // [추가] 연결마다 Java 21 가상 스레드를 사용
+    public void useVirtualThreads() {
+        handlerThreads = virtualThreadFactory();
+    }
+
     public void start() throws IOException {
-        ServerSocket serverSocket = new ServerSocket(port);
+        // [변경] 블로킹 모드 ServerSocketChannel - 소켓마다 SocketChannel 이 있어서 gathering write 사용 가능
+        // [변경] accept 대기열 크기 지정 (한꺼번에 다시 접속할 때 SYN 이 버려지지 않도록)
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), acceptBacklog);
         System.out.println("Chat server started on port " + port);
+        startReaper();
 
+        // [변경] accept 루프는 받기만 함 - 이름 읽기는 그 연결의 스레드에서 (이름을 안 보내는 접속자가 다른 접속을 막지 않음)
         while (true) {
-            Socket socket = serverSocket.accept();
-            ClientHandler handler = new ClientHandler(socket, this);
-            clients.add(handler);
-            handler.start();
+            Socket socket = serverChannel.accept().socket();
+            handlerThreads.newThread(new ClientHandler(socket, this)).start();
         }
     }
 
-    public void broadcastText(String sender, String message) {
-        synchronized (clients) {
-            for (ClientHandler c : clients) {
-                c.sendText(sender, message);
+    // [추가] NIO(Selector) 모드로 시작 - 연결마다 스레드를 만들지 않음
+    public void startNio(int ioThreads) throws IOException {
+        startReaper();
+        new NioChatServer(this, port, ioThreads).start();
+    }
+
+    // [추가] 이후 addClient 되는 접속자부터 감시
+    private void startReaper() {
+        IdleReaper r = new IdleReaper(this, pingMillis, readTimeoutMillis, writeTimeoutMillis);
+        if (r.isEnabled()) {
+            r.start();
+            reaper = r;
+        }
+    }
+
+    // [변경] 프레임은 한 번만 인코딩하고 모든 수신자가 같은 바이트를 공유
+    private void broadcast(Frame frame) {
+        broadcast(frame, c -> true);
+    }
+
+    // [변경] 방송 한 번에 걸린 시간을 지표에 기록
+    private void broadcast(Frame frame, Predicate<Client> to) {
+        long t0 = System.nanoTime();
+        for (Client c : clients) {
+            if (to.test(c)) {
+                c.send(frame);
             }
         }
+        metrics.fanout(System.nanoTime() - t0);
+    }
+
+    // [변경] 클러스터 모드면 다른 노드에도 전달
+    public void broadcastText(Client from, String message) {
+        relayChat(clients, from.getUserName(), from.id, "", message, Frame.text(from.getUserName(), from.id, message));
+        if (cluster != null) {
+            cluster.relayText(from.getUserName(), from.id, message);
+        }
+    }
+
+    // [추가] 채팅 한 줄 전달 - 기록 저장소가 있으면 먼저 기록하고,
+    // "history" 를 지원하는 접속자에게는 기록 번호가 붙은 CHAT 을, 나머지에게는 기존 프레임(legacy)을 보냄
+    // [변경] 보낸 사람을 닉네임 / 번호로 받음 (다른 노드 접속자가 보낸 것도 같은 경로)
+    private void relayChat(Collection<Client> to, String sender, int senderId, String room, String message, Frame legacy) {
+        MessageStore.Message m = history != null ? history.append(room, sender, message) : null;
+        Frame chat = m != null ? Frame.chat(m, senderId).sameBroadcast(legacy) : null;
+        long t0 = System.nanoTime();
+        for (Client c : to) {
+            c.send(chat != null && c.caps.contains("history") ? chat : legacy);
+        }
+        metrics.fanout(System.nanoTime() - t0);
+    }
+
+    // [추가] 지난 메시지 보내기 - sinceId >= 0 이면 그 번호 이후, 아니면 최근 limit 개
+    private void replayHistory(Client c, String room, long sinceId, int limit) {
+        if (history == null || !c.caps.contains("history")) {
+            return;
+        }
+        if (!room.isEmpty() && roomOf(c, room) == null) {
+            return;
+        }
+        limit = Math.max(1, Math.min(limit, MAX_HISTORY_REPLAY));
+        List<MessageStore.Message> messages = sinceId >= 0
+                ? history.readSince(room, sinceId, limit, MAX_HISTORY_SCAN_BYTES)
+                : history.readLast(room, limit, MAX_HISTORY_SCAN_BYTES);
+        for (MessageStore.Message m : messages) {
+            c.send(Frame.history(m));
+        }
+        c.send(Frame.historyEnd(room, messages.size()));
     }
 
     // [추가] 전체에게 시스템 메시지 전송
     public void broadcastSystem(String message) {
-        synchronized (clients) {
-            for (ClientHandler c : clients) {
-                c.sendSystemMessage(message);
-            }
+        broadcast(Frame.system(message));
+        if (cluster != null) {
+            cluster.relaySystem(message);
         }
     }
 
     // [추가] 귓속말 전송 (특정 대상에게만 전송)
-    public void sendWhisper(String sender, String targetName, String message) {
-        synchronized (clients) {
-            boolean found = false;
-            for (ClientHandler c : clients) {
-                // ClientHandler에 getUserName()을 만들거나, userName 변수를 public으로 변경 필요
-                // 여기서는 아래 (3)번에서 getUserName()을 추가한다고 가정
-                if (c.getUserName().equals(targetName)) {
-                    c.sendWhisperPacket(sender, message);
-                    found = true;
-                    break;
+    // [변경] 전체 순회 대신 닉네임 인덱스에서 바로 찾음, 없는 대상이면 보낸 사람에게 알려줌
+    public void sendWhisper(Client from, String targetName, String message) {
+        Client target = users.get(targetName);
+        if (target != null) {
+            target.send(Frame.whisper(from.getUserName(), from.id, message));
+            return;
+        }
+        // [추가] 다른 노드에 있는 접속자면 그 노드로 넘김
+        ClusterLink.RemoteUser remote = cluster != null ? cluster.findRemote(targetName) : null;
+        if (remote == null || !cluster.relayWhisper(remote, targetName, from.getUserName(), from.id, message)) {
+            from.send(Frame.system("[알림] " + targetName + "님을 찾을 수 없습니다."));
+        }
+    }
+
+    // [변경] 보관소에 넣고, 이미 받은 적 있는 "imageref" 접속자에게는 해시만
+    public void broadcastImage(Client from, String fileName, byte[] data) {
+        String hash = rememberImage(from, data);
+        metrics.fanout(relayImage(clients, null, hash, data.length,
+                Frame.image(from.getUserName(), from.id, fileName, data),
+                Frame.imageRef(from.getUserName(), from.id, fileName, hash)));
+    }
+
+    // [추가] 올린 사람은 그 이미지를 갖고 있음 (ChatConnection 이 보내기 전에 저장소에 넣음)
+    private String rememberImage(Client from, byte[] data) {
+        String hash = images.put(data);
+        if (from.caps.contains("imageref")) {
+            from.knownImages.add(hash);
+        }
+        return hash;
+    }
+
+    // [추가] 이미지 전달 - 처음 받는 사람에게는 바이트를 (full), 이미 받은 사람에게는 해시만 (ref)
+    private long relayImage(Collection<Client> to, Client except, String hash, int size, Frame full, Frame ref) {
+        ref.sameBroadcast(full);
+        long t0 = System.nanoTime();
+        for (Client c : to) {
+            if (c == except) {
+                continue;
+            }
+            // add 가 false 면 이미 보낸 적 있는 해시
+            if (c.caps.contains("imageref") && !c.knownImages.add(hash)) {
+                c.send(ref);
+                metrics.imageRef(size);
+            } else {
+                c.send(full);
+            }
+        }
+        return System.nanoTime() - t0;
+    }
+
+    // [추가] 입장 / 퇴장 알림 - v2 접속자에게는 번호 <-> 닉네임도 같이 알려줌
+    void announceJoin(Client c) {
+        if (cluster != null) {
+            cluster.join(c);
+        }
+        broadcast(Frame.user(c.id, c.getUserName()), to -> to.caps.contains("v2"));
+        presence.joined(c.getUserName()); // [변경] 안내 문장은 모아서
+    }
+
+    void announceLeave(Client c) {
+        broadcast(Frame.userLeft(c.id), to -> to.caps.contains("v2"));
+        presence.left(c.getUserName());
+    }
+
+    // [추가] 이름 받기 마감 - 그때까지 이름(세션을 이어받는 중이면 CAPS 까지)을 못 받았으면 끊음
+    // (접속자가 되거나 그 전에 끊기면 handshakeDone 으로 취소)
+    void startHandshakeTimer(Client c) {
+        if (handshakeTimeoutMillis > 0) {
+            c.handshakeTimer = timers.schedule(() -> {
+                metrics.handshakeTimedOut();
+                System.out.println("handshake timed out: " + (c.getUserName() != null ? c.getUserName() : "(no name)"));
+                c.disconnect();
+            }, handshakeTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void handshakeDone(Client c) {
+        ScheduledFuture<?> t = c.handshakeTimer;
+        if (t != null) {
+            t.cancel(false);
+        }
+    }
+
+    // ---- [추가] 방(채널) ----
+
+    // 방 하나 - 참여자 Set 은 동시성 Set 이라 방송할 때 락이 필요 없음
+    static class Room {
+        final String name;
+        final Set<Client> members = ConcurrentHashMap.newKeySet();
+
+        Room(String name) {
+            this.name = name;
+        }
+
+        // [변경] 걸린 시간(나노초)을 돌려줌 - 서버가 지표에 기록
+        long broadcast(Frame frame, Client except) {
+            long t0 = System.nanoTime();
+            for (Client c : members) {
+                if (c != except) {
+                    c.send(frame);
                 }
             }
-            // (선택사항) 보낸 사람에게 '전송 완료' 알림을 주고 싶으면 여기서 처리 가능
+            return System.nanoTime() - t0;
+        }
+    }
+
+    public void joinRoom(Client c, String roomName) {
+        if (roomName.isEmpty() || roomName.length() > MAX_ROOM_NAME || c.rooms.size() >= MAX_ROOMS_PER_CLIENT) {
+            c.send(Frame.system("[알림] 방에 들어갈 수 없습니다: " + roomName));
+            return;
+        }
+        // compute 는 같은 키에 대해 원자적 - 빈 방 삭제(leaveRoom)와 겹쳐도 참여자가 사라지지 않음
+        Room room = rooms.compute(roomName, (name, r) -> {
+            Room joined = r != null ? r : new Room(name);
+            joined.members.add(c);
+            return joined;
+        });
+        if (c.rooms.add(roomName)) {
+            metrics.fanout(room.broadcast(Frame.system("[" + roomName + "] " + c.getUserName() + "님이 방에 들어왔습니다."), null));
+        }
+    }
+
+    public void leaveRoom(Client c, String roomName) {
+        if (!c.rooms.remove(roomName)) {
+            return;
+        }
+        Room room = rooms.computeIfPresent(roomName, (name, r) -> {
+            r.members.remove(c);
+            return r.members.isEmpty() ? null : r; // 마지막 사람이 나가면 방 삭제
+        });
+        // [추가] 이 방으로 올리던 파일은 그만 전달 - 뒤따르는 청크는 모르는 id 로 읽고 버려짐
+        // (방 사람들의 받다 만 파일은 올린 사람이 끊겼을 때처럼 남음)
+        c.uploads.values().removeIf(u -> u.room != null && u.room.name.equals(roomName));
+        c.send(Frame.system("[" + roomName + "] 방에서 나왔습니다."));
+        if (room != null) {
+            metrics.fanout(room.broadcast(Frame.system("[" + roomName + "] " + c.getUserName() + "님이 방에서 나갔습니다."), null));
+        }
+    }
+
+    // 방 메시지를 보낼 수 있는지 확인 (참여 중인 방만 가능)
+    private Room roomOf(Client c, String roomName) {
+        Room room = c.rooms.contains(roomName) ? rooms.get(roomName) : null;
+        if (room == null) {
+            c.send(Frame.system("[알림] 먼저 방에 들어가야 합니다: " + roomName));
+        }
+        return room;
+    }
+
+    public void listRooms(Client c) {
+        StringBuilder sb = new StringBuilder();
+        for (Room room : rooms.values()) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(room.name).append(':').append(room.members.size());
         }
+        c.send(Frame.roomList(sb.toString()));
     }
 
-    public void broadcastImage(String sender, String fileName, byte[] data) {
-        synchronized (clients) {
-            for (ClientHandler c : clients) {
-                c.sendImage(sender, fileName, data);
+    // [추가] 패킷 하나 처리 (type 뒤의 필드를 in 에서 읽음) - 스레드 모드/NIO 모드 공용
+    // [변경] v1 / v2 는 필드 순서가 같으므로 Protocol.Input 만 바꿔서 같은 코드로 처리
+    void handlePacket(Client from, String type, Protocol.Input in) throws IOException {
+        metrics.packetIn(type);
+        if (from.resuming != null && from.resumeFrom < 0 && !"CAPS".equals(type)) {
+            // [추가] 끊긴 세션의 닉네임으로 들어왔는데 이어받기 요청 없이 다른 것부터 보냄
+            rejectName(from);
+        }
+        if ("TEXT".equals(type)) {
+            String msg = in.readString();
+            if (withinLimit(from)) {
+                broadcastText(from, msg);
+            }
+        } else if ("IMAGE".equals(type)) {
+            String fileName = in.readString();
+            byte[] data = readImage(from, in);
+            if (withinLimit(from)) {
+                broadcastImage(from, fileName, data);
+            }
+        } else if ("WHISPER".equals(type)) {
+            String targetName = in.readString(); // 받는 사람 이름
+            String msg = in.readString();        // 암호화된 메시지
+            if (withinLimit(from)) {
+                sendWhisper(from, targetName, msg);
+            }
+        } else if ("CAPS".equals(type)) {
+            // [추가] 클라이언트가 지원하는 기능 목록 (쉼표 구분) - 서버도 지원하는 것만 골라서 응답
+            // [추가] 연결마다 한 번만 - 다시 받으면 키 교환 / v2 전환을 또 하게 되어 writer 가 쓰는 키와 어긋나므로 끊음
+            if (from.capsDone) {
+                throw new IOException("repeated CAPS from " + from.getUserName());
+            }
+            from.capsDone = true;
+            List<String> accepted = new ArrayList<>();
+            String peerKey = null;
+            String resume = null; // [추가] 이어받을 세션 ("토큰:받은 수", 새 세션이면 빈 문자열)
+            for (String cap : in.readString().split(",")) {
+                cap = cap.trim();
+                if (cap.startsWith("gcm=")) {
+                    peerKey = cap.substring("gcm=".length());
+                } else if ((cap.equals("resume") || cap.startsWith("resume=")) && resumeSeconds > 0) {
+                    resume = cap.substring("resume".length()).replaceFirst("^=", "");
+                    accepted.add("resume");
+                } else if (SERVER_CAPS.contains(cap) && (history != null || !"history".equals(cap))) {
+                    accepted.add(cap);
+                }
+            }
+            if (!accepted.contains("v2")) {
+                accepted.remove("deflate"); // 압축 표시는 v2 프레임에만 있음
+                peerKey = null;             // 암호 레코드도 v2 전환 지점부터 시작
+            }
+            from.caps.addAll(accepted);
+            // [추가] 연결 암호화 - 이 연결 전용 키쌍으로 세션 키를 만들고, 응답에 서버 공개키를 넣어줌
+            String reply = String.join(",", accepted);
+            if (peerKey != null) {
+                KeyPair keys = SessionCrypto.newKeyPair();
+                from.crypto = SessionCrypto.session(keys, peerKey, false);
+                from.caps.add("gcm");
+                from.encryptAfterUpgrade(from.crypto.sealer); // CAPS 응답을 큐에 넣기 전에
+                String serverKey = SessionCrypto.encode(keys.getPublic());
+                reply += ",gcm=" + serverKey;
+                if (identity != null) {
+                    // [추가] 서버 키와 서명 - 중간에서 키를 바꿔치기하면 클라이언트가 알아챔
+                    reply += ",gcmid=" + SessionCrypto.encode(identity.getPublic())
+                            + ",gcmsig=" + SessionCrypto.sign(identity.getPrivate(), peerKey, serverKey);
+                }
+            }
+            from.send(Frame.caps(reply));
+            if (accepted.contains("v2")) {
+                // 이 CAPS 다음부터는 v2 - 지금 접속해 있는 사람들의 번호부터 알려줌
+                // (이후 입장하는 사람은 announceJoin 의 USER 로 받음)
+                for (Map.Entry<String, Client> e : users.entrySet()) {
+                    from.send(Frame.user(e.getValue().id, e.getKey()));
+                }
+                if (cluster != null) {
+                    for (Map.Entry<String, ClusterLink.RemoteUser> e : cluster.getRemoteUsers().entrySet()) {
+                        from.send(Frame.user(e.getValue().id, e.getKey()));
+                    }
+                }
+            }
+            if (resume != null || from.resuming != null) {
+                startSession(from, resume);
+            }
+        } else if ("QUIT".equals(type)) {
+            // [추가] 스스로 나감 - 세션을 남기지 않고 바로 퇴장
+            from.quitting = true;
+            from.disconnect();
+        } else if ("UPGRADE".equals(type)) {
+            // [추가] 클라이언트의 마지막 v1 프레임 - 다음 프레임부터 v2 로 읽음
+            if (from.caps.contains("v2")) {
+                from.inputV2 = true;
+                from.inputEncrypted = from.crypto != null; // 이 다음 바이트부터 암호 레코드
+            }
+        } else if ("FILE_BEGIN".equals(type) || "ROOM_FILE_BEGIN".equals(type)) {
+            String id = in.readString();
+            String roomName = "ROOM_FILE_BEGIN".equals(type) ? in.readString() : null;
+            String fileName = in.readString();
+            long size = in.readLong();
+            if (size < 0 || from.uploads.size() >= MAX_UPLOADS_PER_CLIENT) {
+                throw new IOException("bad FILE_BEGIN from " + from.getUserName());
+            }
+            Room room = roomName == null ? null : roomOf(from, roomName);
+            // 제한에 걸리면 등록하지 않음 - 뒤따르는 청크는 모르는 id 로 읽고 버려짐
+            if ((roomName == null || room != null) && withinLimit(from)) {
+                from.uploads.put(id, new Upload(size, room));
+                relayFileBegin(from, id, room, fileName, size);
+            }
+        } else if ("FILE_CHUNK".equals(type)) {
+            String id = in.readString();
+            long offset = in.readLong();
+            int len = in.readInt();
+            Upload upload = from.uploads.get(id);
+            // [추가] 청크도 메시지 수 제한에 넣음 - 버리면 파일이 깨지므로 빚으로 달아두고 그만큼 이 연결을 늦게 읽음 (FloodGuard)
+            from.flood.chargeMessage(System.nanoTime());
+            // 청크 크기를 먼저 확인한 뒤에 할당 (최대 MAX_CHUNK_SIZE)
+            if (len < 0 || len > MAX_CHUNK_SIZE || offset < 0 || (upload != null && offset + len > upload.size)) {
+                throw new IOException("bad FILE_CHUNK from " + from.getUserName());
+            }
+            byte[] data = new byte[len];
+            in.readFully(data);
+            if (upload != null) {
+                relayFile(from, upload, Frame.fileChunk(id, offset, data));
+            }
+        } else if ("FILE_END".equals(type)) {
+            String id = in.readString();
+            Upload upload = from.uploads.remove(id);
+            if (upload != null) {
+                relayFile(from, upload, Frame.fileEnd(id));
+            }
+        } else if ("JOIN_ROOM".equals(type)) {
+            String roomName = in.readString().trim();
+            if (withinLimit(from)) {
+                joinRoom(from, roomName);
+            }
+        } else if ("LEAVE_ROOM".equals(type)) {
+            leaveRoom(from, in.readString().trim());
+        } else if ("LIST_ROOMS".equals(type)) {
+            if (withinLimit(from)) {
+                listRooms(from);
+            }
+        } else if ("ROOM_TEXT".equals(type)) {
+            String roomName = in.readString();
+            String msg = in.readString();
+            Room room = roomOf(from, roomName);
+            if (room != null && withinLimit(from)) {
+                relayChat(room.members, from.getUserName(), from.id, roomName, msg, Frame.roomText(roomName, from.getUserName(), from.id, msg));
+            }
+        } else if ("HISTORY".equals(type)) {
+            // [추가] 지난 메시지 요청 (방 이름, 이 번호 이후 / -1 이면 최근, 최대 개수)
+            String roomName = in.readString().trim();
+            long sinceId = in.readLong();
+            int limit = in.readInt();
+            if (withinLimit(from)) {
+                replayHistory(from, roomName, sinceId, limit);
+            }
+        } else if ("PING".equals(type)) {
+            // [추가] 연결 확인 - 받은 시각은 읽을 때 이미 갱신됨
+            if (withinLimit(from)) {
+                from.send(Frame.PONG);
+            }
+        } else if ("PONG".equals(type)) {
+            // 서버가 보낸 PING 의 응답 - 할 일 없음
+        } else if ("ROOM_IMAGE".equals(type)) {
+            String roomName = in.readString();
+            String fileName = in.readString();
+            byte[] data = readImage(from, in);
+            Room room = roomOf(from, roomName);
+            if (room != null && withinLimit(from)) {
+                String hash = rememberImage(from, data);
+                metrics.fanout(relayImage(room.members, null, hash, data.length,
+                        Frame.roomImage(roomName, from.getUserName(), from.id, fileName, data),
+                        Frame.roomImageRef(roomName, from.getUserName(), from.id, fileName, hash)));
+            }
+        } else if ("IMAGE_GET".equals(type)) {
+            // [추가] IMAGE_REF 를 받았는데 갖고 있지 않은 이미지 - 보관소에 남아 있으면 바이트를 보냄
+            String hash = in.readString();
+            if (withinLimit(from)) {
+                byte[] data = images.get(hash);
+                from.send(Frame.imageBlob(hash, data != null ? data : new byte[0]));
             }
         }
     }
 
-    public void removeClient(ClientHandler c) {
-        clients.remove(c);
+    // ---- [추가] 세션 이어받기 (ClientSession 참고) ----
+
+    // CAPS 처리 끝 - request 가 "토큰:받은 수" 이고 그 세션이 기다리는 중이면 이어받고, 아니면 새 세션
+    // [변경] 옛 연결이 아직 안 끊겼으면 (상대는 이미 끊었는데 서버가 모르는 연결) 그 연결을 끊고 자리를 넘겨받음
+    private void startSession(Client c, String request) throws IOException {
+        ClientSession held = c.resuming != null ? c.resuming.session : null;
+        int cut = request != null ? request.lastIndexOf(':') : -1;
+        if (held != null && cut > 0 && held.token.equals(request.substring(0, cut))) {
+            long received;
+            try {
+                received = Math.max(0, Long.parseLong(request.substring(cut + 1)));
+            } catch (NumberFormatException e) {
+                received = 0;
+            }
+            // 옛 연결의 park / 자리 바꿈과 겹치지 않도록 세션 락 안에서 지금 주인을 다시 봄
+            synchronized (held) {
+                Client holder = users.get(c.getUserName());
+                if (holder instanceof ClientSession.Parked && holder.session == held) {
+                    if (resumeSession((ClientSession.Parked) holder, c, received)) {
+                        return;
+                    }
+                } else if (holder != null && holder.session == held && held.handOver(holder, c)) {
+                    c.session = held;
+                    c.resumeFrom = received;
+                    holder.disconnect();
+                    System.out.println(c.getUserName() + " taking over the session from a stale connection.");
+                    return; // 옛 연결이 끊겨 자리를 맡기면 disconnected 가 이어줌
+                }
+            }
+        }
+        if (c.resuming != null) {
+            rejectName(c); // 토큰이 틀렸거나 그사이 만료됨
+        }
+        byte[] raw = new byte[18];
+        tokens.nextBytes(raw);
+        // 다시 보낼 때 새 연결의 송신 큐에 들어가야 하므로 큐 크기의 절반까지만 보관 (나머지 반은 그사이 오는 프레임 몫)
+        int capacity = Math.min(replayFrames, Math.max(1, queueCapacity / 2));
+        ClientSession s = new ClientSession(Base64.getUrlEncoder().withoutPadding().encodeToString(raw), c.getUserName(), capacity, replayBytes);
+        sessions.put(s.token, s);
+        c.session = s;
+        c.send(s.start(c));
+    }
+
+    // 기다리던 세션 p 를 연결 c 가 이어받음 (세션 락 안에서)
+    private boolean resumeSession(ClientSession.Parked p, Client c, long received) {
+        c.session = p.session;
+        if (!p.session.resume(p, c, received)) {
+            c.session = null;
+            return false;
+        }
+        c.resuming = null;
+        c.resumeFrom = -1;
+        handshakeDone(c);
+        replaceClient(p, c);
+        p.session.swapped();
+        if (reaper != null) {
+            reaper.watch(c);
+        }
+        metrics.sessionResumed();
+        System.out.println(c.getUserName() + " resumed session.");
+        return true;
+    }
+
+    private static void rejectName(Client c) throws IOException {
+        c.send(Frame.system("[알림] 이미 사용 중인 닉네임입니다: " + c.getUserName()));
+        c.rejected = true; // [추가] 이 안내까지는 보내고 끊음
+        throw new IOException("nickname in use: " + c.getUserName());
+    }
+
+    // 접속자 자리를 바꿈 (끊길 때 연결 -> Parked, 다시 붙을 때 Parked -> 새 연결) - 번호 / 방 / 받은 이미지는 그대로
+    private void replaceClient(Client from, Client to) {
+        to.id = from.id;
+        synchronized (from.knownImages) {
+            to.knownImages.addAll(from.knownImages);
+        }
+        to.rooms.addAll(from.rooms);
+        for (String roomName : from.rooms) {
+            rooms.computeIfPresent(roomName, (name, r) -> {
+                if (r.members.remove(from)) {
+                    r.members.add(to);
+                }
+                return r;
+            });
+        }
+        users.replace(from.getUserName(), from, to);
+        clients.add(to);
+        clients.remove(from);
+    }
+
+    // [추가] 이름을 받은 연결이 접속자가 됨 - 세션을 이어받는 중이면 입장 알림 없이 CAPS 를 기다림
+    void joined(Client c) {
+        if (c.resuming == null) {
+            handshakeDone(c);
+            announceJoin(c);
+            addClient(c);
+        }
+    }
+
+    // [추가] 연결이 끊김 (unsent: 못 보낸 프레임, 순서대로) - 세션이 있으면 resumeSeconds 동안 자리를 지키고, 아니면 퇴장
+    void disconnected(Client c, List<Frame> unsent) {
+        handshakeDone(c);
+        ClientSession s = c.session;
+        if (c.resuming != null) {
+            // 이어받기 전에 끊김 - 기다리던 세션은 그대로 (옛 연결을 끊고 넘겨받기를 기다리던 중이면 취소)
+            if (s == null) {
+                return;
+            }
+            synchronized (s) {
+                if (c.resuming != null) {
+                    s.cancelHandOver(c);
+                    return;
+                }
+            } // 그사이 이어받았으면 보통 연결처럼 정리
+        }
+        ClientSession.Parked parked = null;
+        Client next = null;
+        if (s != null && !c.quitting && !shuttingDown) {
+            synchronized (s) {
+                parked = s.park(c, unsent);
+                if (parked != null) {
+                    replaceClient(c, parked);
+                    s.swapped();
+                    // [추가] 새 연결이 이 연결을 끊고 넘겨받으려던 것이면 바로 이어줌
+                    next = s.takeSuccessor();
+                    if (next != null && !resumeSession(parked, next, next.resumeFrom)) {
+                        next.disconnect();
+                    }
+                }
+            }
+        }
+        if (parked == null) {
+            if (s != null) {
+                sessions.remove(s.token, s);
+                next = s.takeSuccessor(); // 넘겨줄 세션이 없어짐 - 다시 붙으면 새 세션으로
+                if (next != null) {
+                    next.disconnect();
+                }
+            }
+            removeClient(c);
+            announceLeave(c);
+            return;
+        }
+        metrics.clientClosed(c);
+        if (next == null) {
+            ClientSession.Parked waiting = parked;
+            timers.schedule(() -> expireSession(waiting), resumeSeconds, TimeUnit.SECONDS);
+            System.out.println(c.getUserName() + " waiting " + resumeSeconds + "s to resume.");
+        }
+    }
+
+    // 송신 큐를 닫은 뒤에 그 연결로 온 프레임을 넘길 곳 - 세션이 있으면 거기에 이어 붙임 (없으면 null, 버림)
+    static Consumer<Frame> lateFrames(Client c) {
+        ClientSession s = c.session;
+        return s == null ? null : f -> s.late(c, f);
+    }
+
+    private void expireSession(ClientSession.Parked p) {
+        if (p.session.expire(p)) {
+            sessions.remove(p.session.token, p.session);
+            removeClient(p);
+            announceLeave(p);
+            System.out.println(p.getUserName() + " session expired.");
+        }
+    }
+
+    // [추가] 종료 알림 - 다른 노드에는 보내지 않음 (그 노드는 계속 돎), 큐가 빌 때까지 잠깐 기다림
+    void shutdown() {
+        shuttingDown = true;
+        broadcast(Frame.system("[알림] 서버가 종료됩니다. 다시 켜지면 자동으로 다시 연결합니다."));
+        long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (getTotalQueueDepth() > 0 && System.nanoTime() < until) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // [추가] IMAGE / ROOM_IMAGE 의 바이트 - 길이가 MAX_IMAGE_SIZE 를 넘으면 할당하기 전에 끊음
+    private static byte[] readImage(Client from, Protocol.Input in) throws IOException {
+        int len = in.readInt();
+        if (len < 0 || len > MAX_IMAGE_SIZE) {
+            throw new IOException("bad IMAGE length " + len + " from " + from.getUserName());
+        }
+        byte[] data = new byte[len];
+        in.readFully(data);
+        return data;
+    }
+
+    // [추가] 올리는 중인 파일 하나 (room 이 null 이면 전체 대상)
+    static class Upload {
+        final long size;
+        final Room room;
+
+        Upload(long size, Room room) {
+            this.size = size;
+            this.room = room;
+        }
+    }
+
+    // [추가] 청크 전송 시작 알림 - 보낸 사람은 이미 파일이 있으므로 제외
+    // 청크를 못 받는 예전 클라이언트에는 안내 메시지만 보냄 (방에는 새 클라이언트만 들어올 수 있음)
+    private void relayFileBegin(Client from, String id, Room room, String fileName, long size) {
+        if (room != null) {
+            metrics.fanout(room.broadcast(Frame.roomFileBegin(id, room.name, from.getUserName(), from.id, fileName, size), from));
+            return;
+        }
+        broadcast(Frame.fileBegin(id, from.getUserName(), from.id, fileName, size),
+                c -> c != from && c.caps.contains("chunked"));
+        broadcast(Frame.system("[알림] " + from.getUserName() + "님이 파일을 보냈습니다: " + fileName
+                        + " (이 클라이언트 버전에서는 받을 수 없습니다)"),
+                c -> c != from && !c.caps.contains("chunked"));
+    }
+
+    // [추가] 청크 / 끝 프레임 전달 - 방 파일이면 그 방 참여자만 순회
+    private void relayFile(Client from, Upload upload, Frame frame) {
+        if (upload.room != null) {
+            metrics.fanout(upload.room.broadcast(frame, from));
+        } else {
+            broadcast(frame, c -> c != from && c.caps.contains("chunked"));
+        }
+    }
+
+    public void addClient(Client c) {
+        clients.add(c);
+        if (reaper != null) {
+            reaper.watch(c);
+        }
+    }
+
+    public void removeClient(Client c) {
+        if (clients.remove(c)) {
+            metrics.clientClosed(c);
+        }
+        if (c.getUserName() != null && users.remove(c.getUserName(), c) && cluster != null) {
+            cluster.leave(c);
+        }
+        for (String roomName : new ArrayList<>(c.rooms)) {
+            leaveRoom(c, roomName);
+        }
+    }
+
+    // [추가] 닉네임 선점 - 이미 다른 접속자가 쓰는 이름이면 false
+    // [변경] 클러스터 모드면 그 닉네임의 주인 노드에게도 물어봄 (다른 노드 접속자와도 겹치지 않게)
+    // [변경] 그 닉네임에 세션이 있으면 (끊겨서 기다리는 중이든, 아직 안 끊긴 옛 연결이든) 일단 받아두고 CAPS 의 토큰을 확인 (startSession)
+    // [변경] 번호는 이름이 비어 있을 때만 붙임 - 거절되는 연결은 번호를 쓰지 않음
+    boolean claimName(String name, Client c) {
+        return claimNameAsync(name, c).join();
+    }
+
+    // [추가] claimName 과 같지만 주인 노드의 답을 기다리지 않고 future 로 돌려줌 (NIO 워커용)
+    // 클러스터 모드에서 다른 노드에게 물어볼 때만 나중에 완료됨 (그 노드의 답을 받는 스레드에서)
+    CompletableFuture<Boolean> claimNameAsync(String name, Client c) {
+        int[] seq = new int[1];
+        Client holder = users.computeIfAbsent(name, k -> {
+            seq[0] = nextUserId.incrementAndGet(); // 목록에 보이기 전에 번호부터 붙임
+            c.id = cluster != null ? cluster.userId(seq[0]) : seq[0];
+            return c;
+        });
+        if (holder != c) {
+            if (holder.session == null) {
+                return CompletableFuture.completedFuture(false);
+            }
+            c.resuming = holder;
+            c.id = holder.id;
+            return CompletableFuture.completedFuture(true);
+        }
+        if (cluster == null) {
+            return CompletableFuture.completedFuture(true);
+        }
+        return cluster.claim(name).thenApply(ok -> {
+            if (!ok) {
+                users.remove(name, c);
+                nextUserId.compareAndSet(seq[0], seq[0] - 1); // 그사이 다른 번호가 안 나갔으면 돌려놓음
+            }
+            return ok;
+        });
+    }
+
+    // [추가] 선점은 됐는데 입장하기 전에 끊김 (NIO 에서 주인 노드의 답을 기다리는 동안) - 알림 없이 이름만 풂
+    void releaseName(String name, Client c) {
+        if (users.remove(name, c) && cluster != null) {
+            cluster.release(name, c.id);
+        }
+    }
+
+    // [추가] 이 노드 접속자 (닉네임 -> 접속자, 읽기 전용)
+    Map<String, Client> getLocalUsers() {
+        return Collections.unmodifiableMap(users);
+    }
+
+    // ---- [추가] 다른 노드에서 온 것 전달 (ClusterLink 수신 스레드에서 불림, 다시 다른 노드로 보내지 않음) ----
+
+    void deliverRemoteText(String sender, int senderId, String message) {
+        relayChat(clients, sender, senderId, "", message, Frame.text(sender, senderId, message));
+    }
+
+    void deliverRemoteSystem(String message) {
+        broadcast(Frame.system(message));
+    }
+
+    void deliverRemoteWhisper(String targetName, String sender, int senderId, String message) {
+        Client target = users.get(targetName);
+        if (target != null) {
+            target.send(Frame.whisper(sender, senderId, message));
+        }
+    }
+
+    void deliverRemoteJoin(int id, String name) {
+        broadcast(Frame.user(id, name), to -> to.caps.contains("v2"));
+    }
+
+    void deliverRemoteLeave(int id) {
+        broadcast(Frame.userLeft(id), to -> to.caps.contains("v2"));
+    }
+
+    boolean isConnected(Client c) {
+        return clients.contains(c);
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    // [추가] 지금 접속자 목록 (지표용, 읽기 전용)
+    Collection<Client> getClients() {
+        return Collections.unmodifiableSet(clients);
+    }
+
+    // [추가] 모든 접속자의 송신 큐에 쌓인 프레임 수 / 지금까지 버린 프레임 수
+    public int getTotalQueueDepth() {
+        int sum = 0;
+        for (Client c : clients) {
+            sum += c.getQueueDepth();
+        }
+        return sum;
+    }
+
+    public long getWriteCalls() {
+        return writeCalls.sum();
+    }
+
+    public long getFramesOut() {
+        return framesOut.sum();
+    }
+
+    // 메시지 하나당 write 시스템 호출 수 (1 보다 작을수록 묶음 효과가 큼)
+    public double getSyscallsPerMessage() {
+        long frames = framesOut.sum();
+        return frames == 0 ? 0 : (double) writeCalls.sum() / frames;
+    }
+
+    public long getTotalDropped() {
+        long sum = 0;
+        for (Client c : clients) {
+            sum += c.getDroppedCount();
+        }
+        return sum;
+    }
+
+    // [추가] Thread.ofVirtual().factory() - JDK 17 에서도 컴파일되도록 리플렉션으로 호출
+    static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads need Java 21+, falling back to platform threads");
+            return Thread::new;
+        }
     }
 
     public static void main(String[] args) {
         int port = 5000; // 기본 포트
-        if (args.length > 0) {
-            port = Integer.parseInt(args[0]);
+        String mode = "thread"; // thread: 연결당 스레드(기존 방식), virtual: 연결당 가상 스레드, nio: Selector 이벤트 루프
+        int ioThreads = Runtime.getRuntime().availableProcessors();
+        int queueSize = 1024;
+        OutboundQueue.Policy policy = OutboundQueue.Policy.DROP_OLDEST;
+        long flushDelayMicros = 0;
+        int batchBytes = 64 * 1024;
+        String historyDir = "history";
+        long historyKeepMb = 0;   // [추가] 기록 보관 - 전체 크기 / 기간 (0 이면 제한 없음, MessageStore.setRetention)
+        long historyKeepDays = 0;
+        long pingMillis = 5_000;          // [추가] 조용한 접속자에게 PING 을 보내기까지
+        long readTimeoutMillis = 15_000;  // [추가] PING 에도 답이 없으면 끊기까지
+        long writeTimeoutMillis = 10_000; // [추가] 보낼 게 있는데 write 가 진행되지 않으면 끊기까지
+        double maxMsgsPerSec = 20;                // [추가] 접속자 한 명이 1초에 보낼 수 있는 메시지 수 (0 이면 제한 없음)
+        double maxBytesPerSec = 4 * 1024 * 1024;  // [추가] 접속자 한 명이 1초에 보낼 수 있는 바이트 (0 이면 제한 없음)
+        long imageCacheMb = 64;                   // [추가] 최근 이미지 보관소 크기
+        long resumeSeconds = 30;                  // [추가] 끊긴 접속자의 세션을 남겨두는 시간 (0 이면 이어받기 없음)
+        int replayFrames = 1024;                  // [추가] 세션마다 다시 보낼 수 있게 보관하는 최근 프레임 수
+        long replayKb = 1024;                     // [추가] 그 프레임들의 최대 크기 합 (세션마다)
+        int backlog = 1024;                       // [추가] accept 대기열 크기
+        long handshakeTimeoutMillis = 10_000;     // [추가] 접속 후 이름을 보낼 때까지 기다리는 시간 (0 이면 무제한)
+        long noticeBatchMillis = 200;             // [추가] 입장 / 퇴장 알림을 모으는 시간 (0 이면 한 명씩 바로)
+        int metricsPort = 0; // [추가] 0 이면 HTTP 지표 없음 (JMX 는 항상)
+        int nodeId = 0;          // [추가] 클러스터 모드 - 이 노드 번호와 전체 노드 목록 (ClusterLink 참고)
+        String clusterSpec = null;
+        String identityFile = "server_identity.key"; // [추가] 서버 키 (없으면 만듦)
+        for (String arg : args) {
+            if (arg.startsWith("--mode=")) {
+                mode = arg.substring("--mode=".length());
+            } else if (arg.startsWith("--io-threads=")) {
+                ioThreads = Integer.parseInt(arg.substring("--io-threads=".length()));
+            } else if (arg.startsWith("--flush-delay-us=")) {
+                flushDelayMicros = Long.parseLong(arg.substring("--flush-delay-us=".length()));
+            } else if (arg.startsWith("--batch-bytes=")) {
+                batchBytes = Integer.parseInt(arg.substring("--batch-bytes=".length()));
+            } else if (arg.startsWith("--history-dir=")) {
+                historyDir = arg.substring("--history-dir=".length());
+            } else if (arg.equals("--no-history")) {
+                historyDir = null;
+            } else if (arg.startsWith("--history-keep-mb=")) {
+                historyKeepMb = Long.parseLong(arg.substring("--history-keep-mb=".length()));
+            } else if (arg.startsWith("--history-keep-days=")) {
+                historyKeepDays = Long.parseLong(arg.substring("--history-keep-days=".length()));
+            } else if (arg.startsWith("--queue-size=")) {
+                queueSize = Integer.parseInt(arg.substring("--queue-size=".length()));
+            } else if (arg.startsWith("--ping-ms=")) {
+                pingMillis = Long.parseLong(arg.substring("--ping-ms=".length()));
+            } else if (arg.startsWith("--read-timeout-ms=")) {
+                readTimeoutMillis = Long.parseLong(arg.substring("--read-timeout-ms=".length()));
+            } else if (arg.startsWith("--write-timeout-ms=")) {
+                writeTimeoutMillis = Long.parseLong(arg.substring("--write-timeout-ms=".length()));
+            } else if (arg.startsWith("--max-msgs-per-sec=")) {
+                maxMsgsPerSec = Double.parseDouble(arg.substring("--max-msgs-per-sec=".length()));
+            } else if (arg.startsWith("--max-bytes-per-sec=")) {
+                maxBytesPerSec = Double.parseDouble(arg.substring("--max-bytes-per-sec=".length()));
+            } else if (arg.startsWith("--image-cache-mb=")) {
+                imageCacheMb = Long.parseLong(arg.substring("--image-cache-mb=".length()));
+            } else if (arg.startsWith("--resume-seconds=")) {
+                resumeSeconds = Long.parseLong(arg.substring("--resume-seconds=".length()));
+            } else if (arg.startsWith("--replay-frames=")) {
+                replayFrames = Integer.parseInt(arg.substring("--replay-frames=".length()));
+            } else if (arg.startsWith("--replay-kb=")) {
+                replayKb = Long.parseLong(arg.substring("--replay-kb=".length()));
+            } else if (arg.startsWith("--backlog=")) {
+                backlog = Integer.parseInt(arg.substring("--backlog=".length()));
+            } else if (arg.startsWith("--handshake-timeout-ms=")) {
+                handshakeTimeoutMillis = Long.parseLong(arg.substring("--handshake-timeout-ms=".length()));
+            } else if (arg.startsWith("--notice-batch-ms=")) {
+                noticeBatchMillis = Long.parseLong(arg.substring("--notice-batch-ms=".length()));
+            } else if (arg.startsWith("--node=")) {
+                nodeId = Integer.parseInt(arg.substring("--node=".length()));
+            } else if (arg.startsWith("--cluster=")) {
+                clusterSpec = arg.substring("--cluster=".length());
+            } else if (arg.startsWith("--identity=")) {
+                identityFile = arg.substring("--identity=".length());
+            } else if (arg.startsWith("--metrics-port=")) {
+                metricsPort = Integer.parseInt(arg.substring("--metrics-port=".length()));
+            } else if (arg.startsWith("--slow-policy=")) {
+                // drop-oldest / disconnect / coalesce
+                policy = OutboundQueue.Policy.parse(arg.substring("--slow-policy=".length()));
+            } else {
+                port = Integer.parseInt(arg);
+            }
         }
         try {
-            new ChatServer(port).start();
+            ChatServer server = new ChatServer(port);
+            server.setOutboundQueue(queueSize, policy);
+            server.setWriteBatching(flushDelayMicros, batchBytes);
+            server.setIdleTimeouts(pingMillis, readTimeoutMillis, writeTimeoutMillis);
+            server.setRateLimits(maxMsgsPerSec, maxBytesPerSec);
+            server.setImageCache(imageCacheMb * 1024 * 1024);
+            server.setResume(resumeSeconds, replayFrames, replayKb * 1024);
+            server.setAccept(backlog, handshakeTimeoutMillis);
+            server.setNoticeBatching(noticeBatchMillis);
+            // [추가] 클라이언트가 처음 접속할 때 화면에 뜨는 지문과 비교하도록 알려줌
+            KeyPair identity = SessionCrypto.loadIdentity(Paths.get(identityFile));
+            server.setIdentity(identity);
+            System.out.println("Server key fingerprint: " + SessionCrypto.fingerprint(SessionCrypto.encode(identity.getPublic())));
+            server.metrics.start(metricsPort);
+            // [추가] Ctrl+C 로 끌 때 접속자에게 알리고 큐를 비움
+            Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown));
+            if (clusterSpec != null) {
+                ClusterLink cluster = new ClusterLink(server, nodeId, clusterSpec);
+                server.setCluster(cluster);
+                cluster.start();
+            }
+            if (historyDir != null) {
+                MessageStore history = new MessageStore(Paths.get(historyDir));
+                history.setRetention(historyKeepMb * 1024 * 1024, TimeUnit.DAYS.toMillis(historyKeepDays));
+                server.setHistory(history);
+                // Ctrl+C 로 끌 때 아직 fsync 안 된 기록을 마저 씀
+                Runtime.getRuntime().addShutdownHook(new Thread(history::close));
+            }
+            if ("nio".equals(mode)) {
+                server.startNio(ioThreads);
+            } else if ("virtual".equals(mode)) {
+                server.useVirtualThreads();
+                server.start();
+            } else {
+                server.start();
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    // 클라이언트 하나 담당하는 스레드
-    static class ClientHandler extends Thread {
+    // [추가] 접속자 공통 부분 (스레드 모드 ClientHandler / NIO 모드 NioChatServer.Connection)
+    abstract static class Client {
+        // CAPS 로 합의된 기능 ("chunked" 등)
+        final Set<String> caps = ConcurrentHashMap.newKeySet();
+        // 이 접속자가 올리는 중인 파일 (전송 id -> 크기 / 대상 방)
+        final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+        // 참여 중인 방 이름
+        final Set<String> rooms = ConcurrentHashMap.newKeySet();
+        // [추가] 서버가 붙인 접속자 번호 (v2 에서 보낸 사람 표시용)
+        volatile int id;
+        // [추가] UPGRADE 를 받은 뒤로는 v2 프레임으로 읽음 (읽는 스레드만 사용)
+        boolean inputV2;
+        // [추가] CAPS 에서 gcm 을 합의했으면 세션 키, UPGRADE 뒤로는 받는 것도 복호화 (읽는 스레드만 사용)
+        SessionCrypto.Session crypto;
+        boolean inputEncrypted;
+        // [추가] CAPS 를 이미 처리함 (읽는 스레드만 사용)
+        boolean capsDone;
+        // [추가] 보내기 제한 (읽는 스레드만 사용, 서브클래스가 만들 때 채움)
+        FloodGuard flood;
+        // [추가] 이 접속자에게 이미 보낸 이미지 해시 (CAPS "imageref")
+        final Set<String> knownImages = ImageCache.newKnownSet();
+        // [추가] 이 연결의 세션 (CAPS "resume") / 끊긴 세션을 이어받으려고 닉네임을 받아둔 상태 / QUIT 으로 나감
+        // [변경] resuming 은 그 닉네임의 지금 주인 (끊겨서 기다리는 Parked 또는 아직 안 끊긴 옛 연결)
+        volatile ClientSession session;
+        volatile Client resuming;
+        volatile boolean quitting;
+        // [추가] 옛 연결을 끊고 넘겨받기를 기다리는 중이면 클라이언트가 받은 수 (아니면 -1)
+        volatile long resumeFrom = -1;
+        // [추가] 닉네임을 거절함 - 큐에 넣은 안내를 다 보낸 뒤에 끊음 (그래야 클라이언트가 다시 붙지 않음)
+        volatile boolean rejected;
+        // [추가] 이름 받기 마감 타이머 (ChatServer.startHandshakeTimer)
+        volatile ScheduledFuture<?> handshakeTimer;
+        // [추가] 세션을 이어받는 동안 방송 하나가 옛 자리와 새 자리로 다 올 수 있음 - 이 세션에 처음 온 방송인지 (ClientSession.firstDelivery)
+        final boolean firstDelivery(Frame frame) {
+            ClientSession s = session;
+            return s == null || s.firstDelivery(this, frame);
+        }
+
+        // 송신 통계 (그 접속자의 writer 하나만 갱신)
+        volatile long writeCalls;
+        volatile long framesOut;
+        volatile long bytesOut; // [추가]
+        // [추가] 마지막으로 뭔가 받은 시각 (읽는 스레드가 갱신) / 나머지는 IdleReaper 전용
+        volatile long lastReadNanos = System.nanoTime();
+        long lastPingNanos = lastReadNanos - 1;
+        long checkedBytesOut;
+        long writeStalledSince = lastReadNanos;
+
+        abstract String getUserName();
+        // [변경] 이미 인코딩된 프레임을 송신 큐에 넣음 (같은 Frame 을 여러 접속자가 공유)
+        abstract void send(Frame frame);
+        // [추가] 다음 upgrade 프레임 뒤로 보내는 것을 암호화
+        abstract void encryptAfterUpgrade(SessionCrypto.Sealer sealer);
+        abstract int getQueueDepth();
+        abstract long getDroppedCount();
+        // [추가] 밖에서 (IdleReaper) 연결을 끊음 - 정리는 원래 끊길 때와 같은 경로로
+        abstract void disconnect();
+    }
+
+    // 클라이언트 하나 담당 (run() 은 플랫폼 스레드 또는 가상 스레드에서 실행)
+    static class ClientHandler extends Client implements Runnable {
         private Socket socket;
         private ChatServer server;
         private DataInputStream in;
-        private DataOutputStream out;
+        private SessionCrypto.RecordInputStream records; // [추가] gcm 합의 후 UPGRADE 다음부터 복호화
+        private SocketChannel out;
         private String userName;
+        // [변경] send* 는 큐에 넣기만 하고, 실제 쓰기는 전용 writer 스레드가 담당
+        private final OutboundQueue queue;
+        private Thread writer;                  // [추가] run() 이 끝날 때 writer 가 멈출 때까지 기다림
+        private OutboundQueue.Batch inFlight;   // [추가] 쓰다가 실패한 묶음 (writer 스레드가 남김)
 
+        // [변경] accept 스레드에서 불리므로 소켓에서 읽지 않음 (이름은 run() 에서)
         ClientHandler(Socket socket, ChatServer server) {
             this.socket = socket;
             this.server = server;
+            this.queue = server.newOutboundQueue();
+            this.flood = server.newFloodGuard();
+        }
+
+        // [추가] 첫 번째로 클라이언트가 보내는 건 사용자 이름 - 닉네임 중복 / 마감 초과 / 끊김이면 false (소켓은 닫음)
+        private boolean handshake() {
+            server.startHandshakeTimer(this);
             try {
-                in = new DataInputStream(socket.getInputStream());
-                out = new DataOutputStream(socket.getOutputStream());
-                // 첫 번째로 클라이언트가 보내는 건 사용자 이름
-                userName = in.readUTF();
+                // [변경] 필드마다 소켓 read 를 하지 않도록 버퍼링 (이 스레드만 읽음)
+                // [변경] 바이트 제한을 넘으면 읽기를 잠시 멈춤
+                records = new SessionCrypto.RecordInputStream(new BufferedInputStream(throttle(server.metrics.countIn(socket.getInputStream(), this))));
+                in = new DataInputStream(records);
+                out = socket.getChannel();
+                String name = in.readUTF();
+                if (!server.claimName(name, this)) {
+                    // [추가] 닉네임 중복 - 안내만 보내고 연결 종료 (userName 은 null 로 남김)
+                    ByteBuffer[] bufs = Frame.system("[알림] 이미 사용 중인 닉네임입니다: " + name).buffers(1);
+                    out.write(bufs);
+                    closeSocket();
+                    server.handshakeDone(this);
+                    return false;
+                }
+                userName = name;
                 System.out.println(userName + " connected from " + socket.getRemoteSocketAddress());
-
-                // [추가] ★ 입장 알림 방송 ★
-                server.broadcastSystem("[알림] " + userName + "님이 입장하셨습니다.");
+                return true;
             } catch (IOException e) {
-                e.printStackTrace();
+                closeSocket(); // 이름을 보내기 전에 끊겼거나 마감에 걸림
+                server.handshakeDone(this);
+                return false;
             }
         }
 
         public void run() {
+            if (!handshake()) {
+                return;
+            }
+            // [변경] 입장 알림은 이름을 받은 뒤 여기서 (세션을 이어받는 중이면 알림 없음)
+            server.joined(this);
+            writer = server.handlerThreads.newThread(this::writeLoop);
+            writer.start();
+            Protocol.Input v1 = Protocol.v1(in);
             try {
                 while (true) {
-                    String type = in.readUTF(); // "TEXT" 또는 "IMAGE"
-                    if ("TEXT".equals(type)) {
-                        String msg = in.readUTF();
-                        server.broadcastText(userName, msg);
-                    } else if ("IMAGE".equals(type)) {
-                        String fileName = in.readUTF();
-                        int len = in.readInt();
-                        byte[] data = new byte[len];
-                        in.readFully(data);
-                        server.broadcastImage(userName, fileName, data);
-                    }else if ("WHISPER".equals(type)) {
-                        String targetName = in.readUTF(); // 받는 사람 이름
-                        String msg = in.readUTF();        // 암호화된 메시지
-                        server.sendWhisper(userName, targetName, msg);
+                    if (inputV2) {
+                        // [추가] v2 - 길이만큼 통째로 읽고 opcode 로 타입 구분
+                        Protocol.Reader frame = Protocol.readFrame(in);
+                        server.handlePacket(this, frame.readType(), frame);
+                    } else {
+                        String type = in.readUTF(); // "TEXT", "IMAGE", "WHISPER"
+                        server.handlePacket(this, type, v1);
+                    }
+                    if (inputEncrypted && !records.started()) {
+                        records.start(crypto.opener);
                     }
                 }
             } catch (IOException e) {
-                System.out.println(userName + " disconnected.");
+                System.out.println(userName + " disconnected." + (queue.getDroppedCount() > 0 ? " (dropped " + queue.getDroppedCount() + " frames)" : ""));
             } finally {
-                server.removeClient(this);
-
-                // [추가] ★ 퇴장 알림 방송 ★
-                // userName이 null이 아닐 때만 방송 (연결하자마자 끊긴 경우 방지)
-                if (userName != null) {
-                    server.broadcastSystem("[알림] " + userName + "님이 퇴장하셨습니다.");
+                // [변경] 먼저 소켓을 닫아 writer 를 멈추고, 못 보낸 프레임을 모아서 넘김
+                // (세션이 있으면 다시 붙을 때까지 보관, 없으면 퇴장 알림 - ChatServer.disconnected)
+                if (rejected) {
+                    queue.finish(); // [추가] 거절 안내는 writer 가 다 보낸 뒤에 닫음
+                    try {
+                        writer.join(1000);
+                    } catch (InterruptedException ignored) {}
                 }
+                closeSocket();
+                List<Frame> rest = queue.close(lateFrames(this));
                 try {
-                    socket.close();
-                } catch (IOException ignored) {}
+                    writer.join(1000);
+                } catch (InterruptedException ignored) {}
+                List<Frame> unsent = new ArrayList<>();
+                if (inFlight != null) {
+                    unsent.addAll(Arrays.asList(inFlight.sent));
+                }
+                unsent.addAll(rest);
+                server.disconnected(this, unsent);
             }
         }
 
-        synchronized void sendText(String sender, String message) {
+        // [추가] 송신 큐를 비우는 writer - 이 접속자가 느려도 다른 사람 broadcast 는 막히지 않음
+        // [변경] 쌓인 프레임을 여러 개 묶어서 gathering write 한 번으로 보냄
+        private void writeLoop() {
+            OutboundQueue.Batch batch = null;
             try {
-                out.writeUTF("TEXT");
-                out.writeUTF(sender);
-                out.writeUTF(message);
-                out.flush();
+                while (queue.awaitFrames(server.getFlushDelayNanos(), server.getBatchBytes())) {
+                    batch = queue.pollBatch(server.getBatchBytes());
+                    if (batch == null) {
+                        continue;
+                    }
+                    int calls = 0;
+                    long bytes = 0;
+                    while (batch.hasRemaining()) {
+                        bytes += out.write(batch.buffers);
+                        calls++;
+                    }
+                    server.recordWrite(this, calls, bytes, batch);
+                    batch = null;
+                }
             } catch (IOException e) {
-                // 클라 죽었으면 그냥 무시
+                inFlight = batch;
+                // [변경] 쓰기 실패는 지표에 남김 (run() 이 이미 소켓을 닫은 경우는 제외)
+                if (!socket.isClosed()) {
+                    server.metrics.writeFailed();
+                    System.out.println(userName + " write failed: " + e.getMessage());
+                }
+                closeSocket();
+            } catch (InterruptedException e) {
+                // 클라 죽었으면 소켓을 닫아서 run() 쪽 정리를 유도
+                closeSocket();
             }
         }
 
-        synchronized void sendImage(String sender, String fileName, byte[] data) {
-            try {
-                out.writeUTF("IMAGE");
-                out.writeUTF(sender);
-                out.writeUTF(fileName);
-                out.writeInt(data.length);
-                out.write(data);
-                out.flush();
-            } catch (IOException e) {
-                // 마찬가지로 무시
-            }
+        void encryptAfterUpgrade(SessionCrypto.Sealer sealer) {
+            queue.encryptAfterUpgrade(sealer);
         }
 
-        /** [추가] 귓속말 패킷 전송 **/
-        synchronized void sendWhisperPacket(String sender, String message) {
-            try {
-                out.writeUTF("WHISPER"); // 클라이언트가 구분할 헤더
-                out.writeUTF(sender);    // 보낸 사람
-                out.writeUTF(message);   // 내용
-                out.flush();
-            } catch (IOException e) {
-                // 무시
+        public void send(Frame frame) {
+            if (!firstDelivery(frame)) {
+                return; // [추가] 세션을 이어받는 중에 옛 자리로도 온 프레임
+            }
+            if (!queue.offer(frame)) {
+                // DISCONNECT 정책 - 못 따라오는 접속자는 끊음
+                System.out.println(userName + " is too slow, disconnecting.");
+                server.metrics.slowDisconnect();
+                closeSocket();
             }
         }
-        // [추가] 시스템 메시지 전송용 (암호화 X)
-        synchronized void sendSystemMessage(String message) {
+
+        // 읽고 있던 run() 이 예외로 빠져나오면서 정리함
+        void disconnect() {
+            closeSocket();
+        }
+
+        private void closeSocket() {
             try {
-                out.writeUTF("SYSTEM"); // 헤더
-                out.writeUTF(message);  // 내용
-                out.flush();
-            } catch (IOException e) {
-                // 무시
-            }
+                socket.close();
+            } catch (IOException ignored) {}
+        }
+
+        // [추가] 받은 바이트를 보내기 제한에 달아두고, 빚이 생기면 갚을 때까지 이 스레드가 쉼
+        // (그동안 소켓을 읽지 않으므로 TCP 가 보내는 쪽을 늦춤 - read 한 번은 버퍼 크기 이하라 한 번에 오래 쉬지 않음)
+        private InputStream throttle(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        pause(1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        pause(n);
+                    }
+                    return n;
+                }
+
+                private void pause(int n) {
+                    long until = System.nanoTime() + flood.chargeBytes(n, System.nanoTime());
+                    long wait;
+                    while ((wait = until - System.nanoTime()) > 0 && !socket.isClosed()) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+            };
         }
 
         // [추가] 이름을 비교하기 위해 필요
         public String getUserName() {
             return userName;
         }
+
+        public int getQueueDepth() {
+            return queue.getDepth();
+        }
+
+        public long getDroppedCount() {
+            return queue.getDroppedCount();
+        }
     }
-}
\ No newline at end of file
+}
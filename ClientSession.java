@@ -0,0 +1,221 @@
+import java.util.*;
+
+// [추가] 다시 붙을 수 있는 접속 세션 (CAPS "resume") - 잠깐 끊겼다 다시 붙으면 입장/퇴장 알림 없이 놓친 것부터 이어서 받음
+// - SESSION(토큰, 번호) 프레임 다음부터 이 연결로 나간 프레임에 번호를 매겨 최근 capacity 개를 보관 (서버 메모리만)
+//   [변경] 개수와 함께 바이트도 maxBytes 까지만 - 이미지 몇 장이면 개수 제한 안에서도 세션 하나가 수십 MB 를 잡음
+//   번호를 프레임에 싣지는 않음 - 클라이언트도 SESSION 다음부터 받은 프레임 수를 세므로 양쪽 번호가 같음
+// - 번호는 다 쓴 묶음 순서대로 매김 (큐에서 버려진 프레임은 클라이언트도 못 받았으므로 세지 않음)
+// - 끊기면 보내다 만 묶음 / 큐에 남은 프레임을 같은 순서로 이어 붙이고, 그 뒤로 오는 프레임은 Parked 가 받아서 쌓음
+// - 다시 붙을 때 클라이언트가 받은 수를 알려주면 그 번호부터 새 연결로 다시 보냄
+//   (그사이 capacity 를 넘어 밀려났으면 남은 것부터 - SESSION 번호가 클라이언트 수와 달라서 빠진 게 있음을 앎)
+// [변경] 자리를 바꿀 때 (끊김: 연결 -> Parked, 다시 붙음: Parked -> 새 연결) 진행 중이던 방송 하나가 옛 자리와 새 자리로 다 올 수 있음
+//   프레임의 방송 번호(Frame.seq)로 확인 - 바꾼 뒤에 만든 방송은 새 자리로만 가므로 바꾸기 전 번호만 이미 간 것인지 봄
+final class ClientSession {
+    final String token;
+    final String userName;
+    private final int capacity;
+    private final long maxBytes;
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    private long first;               // frames 맨 앞 프레임의 번호
+    private long bytes;               // [추가] frames 의 크기 합 (Frame.size)
+    private ChatServer.Client owner;  // 지금 이 세션의 프레임을 받는 쪽 (연결 또는 Parked, 끝났으면 null)
+    private Frame hello;              // 이 SESSION 프레임이 나간 다음부터 셈 (null 이면 세는 중)
+    private final List<Frame> late = new ArrayList<>(); // 송신 큐가 닫힌 뒤 park 전에 연결로 온 프레임
+    private ChatServer.Client successor; // [추가] 지금 연결이 끊기면 바로 이어받을 새 연결 (handOver)
+    private volatile long swapSeq;       // [추가] 마지막으로 자리를 바꾼 때의 방송 번호 (바꾸는 중이면 Long.MAX_VALUE)
+    private final Set<Long> delivered = new HashSet<>(); // [추가] swapSeq 이하 방송 중 이 세션에 간 것 (보관 중인 프레임 + 그 뒤로 온 것)
+
+    ClientSession(String token, String userName, int capacity, long maxBytes) {
+        this.token = token;
+        this.userName = userName;
+        this.capacity = Math.max(1, capacity);
+        this.maxBytes = maxBytes;
+    }
+
+    // 새 세션 - 연결 c 에 보낼 SESSION 프레임
+    synchronized Frame start(ChatServer.Client c) {
+        owner = c;
+        hello = Frame.session(token, 0);
+        return hello;
+    }
+
+    // 연결 c 의 writer 가 묶음 하나를 다 씀 (ChatServer.recordWrite)
+    synchronized void written(ChatServer.Client c, Frame[] sent) {
+        if (c != owner) {
+            return; // 이미 자리를 넘긴 연결
+        }
+        for (Frame f : sent) {
+            if (hello != null) {
+                if (f == hello) {
+                    hello = null;
+                }
+                continue;
+            }
+            append(f);
+        }
+    }
+
+    // 연결이 끊김 - 못 보낸 프레임까지 붙이고 자리 지킴이를 돌려줌
+    // (클라이언트가 아직 SESSION 을 못 받았으면 토큰을 모르므로 null - 그냥 퇴장)
+    synchronized Parked park(ChatServer.Client c, List<Frame> unsent) {
+        if (c != owner || hello != null) {
+            return null;
+        }
+        Parked p = new Parked(this, c);
+        for (Frame f : unsent) {
+            append(f);
+        }
+        for (Frame f : late) {
+            append(f);
+        }
+        late.clear();
+        // 같은 방송이 자리 지킴이로도 올 수 있으므로 이 연결로 간 것을 기록 (swapped 까지 다른 스레드는 기다림)
+        swapSeq = Long.MAX_VALUE;
+        delivered.clear();
+        for (Frame f : frames) {
+            delivered.add(f.seq());
+        }
+        owner = p;
+        return p;
+    }
+
+    // 다시 붙음 - received 번호부터 새 연결 c 로 다시 보냄 (SESSION 먼저, 다른 프레임이 끼어들지 않도록 락 안에서 큐에 넣음)
+    // 다시 보낸 프레임은 새 연결에서 쓸 때 다시 번호가 매겨지므로 여기서는 그 앞까지만 남김
+    synchronized boolean resume(Parked p, ChatServer.Client c, long received) {
+        if (owner != p) {
+            return false; // 이미 만료됐거나 다른 연결이 가져감
+        }
+        long end = first + frames.size();
+        long next = Math.max(first, Math.min(received, end));
+        ArrayDeque<Frame> replay = new ArrayDeque<>();
+        while (first + frames.size() > next) {
+            Frame f = frames.pollLast();
+            bytes -= f.size();
+            replay.addFirst(f);
+        }
+        owner = c;
+        hello = Frame.session(token, next);
+        swapSeq = Long.MAX_VALUE;
+        delivered.clear();
+        c.send(hello);
+        for (Frame f : replay) {
+            c.send(f); // 여기서 delivered 에 들어감
+        }
+        for (Frame f : frames) {
+            delivered.add(f.seq()); // 클라이언트가 이미 받은 것
+        }
+        return true;
+    }
+
+    // [추가] 자리 바꿈 끝 (park / resume 뒤 ChatServer 가 접속자 목록까지 바꾼 다음, 세션 락 안에서)
+    // 이 다음에 만든 방송은 목록에서 새 자리만 보게 됨
+    synchronized void swapped() {
+        swapSeq = Frame.lastSeq();
+    }
+
+    // [추가] 이 세션의 자리 c 로 온 방송이 처음인지 - 마지막 자리 바꿈 뒤에 만든 방송이면 락 없이 통과
+    // 자리를 넘긴 연결로 온 것은 닫힌 큐를 거쳐 late 로 다시 오므로 거기서 셈
+    boolean firstDelivery(ChatServer.Client c, Frame f) {
+        long seq = f.seq();
+        if (seq == 0 || seq > swapSeq) {
+            return true;
+        }
+        synchronized (this) {
+            return seq > swapSeq || c != owner || delivered.add(seq);
+        }
+    }
+
+    // [추가] 아직 살아 있는 연결 c 의 세션을 next 가 가져가기로 함 - c 가 끊겨서 park 되면 ChatServer 가 이어줌
+    synchronized boolean handOver(ChatServer.Client c, ChatServer.Client next) {
+        if (owner != c || hello != null || successor != null) {
+            return false;
+        }
+        successor = next;
+        return true;
+    }
+
+    synchronized ChatServer.Client takeSuccessor() {
+        ChatServer.Client next = successor;
+        successor = null;
+        return next;
+    }
+
+    // 넘겨받기를 기다리던 next 가 먼저 끊김
+    synchronized void cancelHandOver(ChatServer.Client next) {
+        if (successor == next) {
+            successor = null;
+        }
+    }
+
+    // 기다리는 시간이 지남 - 아무도 안 가져갔으면 true (이제 퇴장 처리)
+    synchronized boolean expire(Parked p) {
+        if (owner != p) {
+            return false;
+        }
+        owner = null;
+        frames.clear();
+        bytes = 0;
+        return true;
+    }
+
+    // 송신 큐가 닫힌 연결 c 로 온 프레임 (닫히기 전에 c 를 집어간 방송) - 자리를 넘기기 전이면 모아두고, 넘겼으면 지금 자리로
+    // (넘겨받기를 기다리다 만 연결은 이 세션의 자리였던 적이 없음)
+    synchronized void late(ChatServer.Client c, Frame f) {
+        if (owner == c) {
+            late.add(f);
+        } else if (c.resuming == null) {
+            deliver(f);
+        }
+    }
+
+    // 끊긴 동안 온 프레임 - 아직 기다리는 중이면 쌓고, 그사이 다시 붙었으면 새 연결로 넘김 (새 연결의 send 가 방송 번호를 확인함)
+    private synchronized void deliver(Frame f) {
+        if (owner instanceof Parked) {
+            if (firstDelivery(owner, f)) {
+                append(f);
+            }
+        } else if (owner != null) {
+            owner.send(f);
+        }
+    }
+
+    // 넘치면 오래된 것부터 밀어냄 (maxBytes 보다 큰 프레임 하나는 보관하지 않음 - 다시 붙으면 SESSION 번호로 빠진 것을 앎)
+    private void append(Frame f) {
+        frames.addLast(f);
+        bytes += f.size();
+        while (frames.size() > capacity || (bytes > maxBytes && !frames.isEmpty())) {
+            bytes -= frames.pollFirst().size();
+            first++;
+        }
+    }
+
+    // 끊긴 접속자의 자리 지킴이 - 닉네임 / 번호 / 방 / 기능은 그대로, 받는 프레임은 세션에 쌓음
+    static final class Parked extends ChatServer.Client {
+        Parked(ClientSession session, ChatServer.Client c) {
+            this.session = session;
+            this.id = c.id;
+            this.caps.addAll(c.caps);
+        }
+
+        String getUserName() {
+            return session.userName;
+        }
+
+        void send(Frame frame) {
+            session.deliver(frame);
+        }
+
+        void encryptAfterUpgrade(SessionCrypto.Sealer sealer) {}
+
+        int getQueueDepth() {
+            return 0;
+        }
+
+        long getDroppedCount() {
+            return 0;
+        }
+
+        // 끊을 연결이 없음 - 만료는 ChatServer 의 타이머가
+        void disconnect() {}
+    }
+}
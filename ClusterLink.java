@@ -0,0 +1,425 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// [추가] 클러스터 모드 - 서버 여러 대가 전체 채팅(TEXT) / 시스템 메시지 / 귓속말과 접속자 목록을 서로 전달
+// 사용법: java ChatServer 5000 --node=0 --cluster=0@10.0.0.1:7000,1@10.0.0.2:7000,2@10.0.0.3:7000
+// - 노드끼리는 방향마다 TCP 연결 하나 (내가 보내는 건 내가 연 연결로만, 받는 건 상대가 연 연결로만)
+//   보내는 쪽은 노드마다 큐 + 전송 스레드 하나 - 쌓인 프레임을 모아서 flush 한 번으로 보냄 (묶음 전달)
+// - 프레임 형식은 프로토콜 v2 그대로 (NODE_* / RELAY_* 타입)
+// - 닉네임 디렉터리: 닉네임마다 주인 노드가 정해져 있고 (해시), 입장할 때 주인 노드에게 선점을 물어봄
+//   주인 노드가 하나뿐이라 두 노드에서 같은 닉네임으로 동시에 들어와도 한쪽만 성공함
+//   (주인 노드에 연결이 안 돼 있으면 거절 - 일관성 우선)
+// - 다른 노드 접속자 목록은 NODE_JOIN / NODE_LEAVE 로 복제 (귓속말 대상 찾기, v2 접속자 번호 -> 닉네임)
+//   연결이 다시 붙으면 보내는 쪽이 자기 접속자 전체를 다시 알려주고, 끊기면 받는 쪽이 그 노드 접속자를 지움
+// - 접속자 번호는 노드 번호를 섞어서 만들어서 (순번 x MAX_NODES + 노드 번호) 노드끼리 겹치지 않음
+// 방 / 이미지 / 파일 / 채팅 기록은 노드 안에서만 (각 노드의 기록 저장소에는 다른 노드 채팅도 같이 기록됨)
+final class ClusterLink {
+    static final int MAX_NODES = 64;
+    // 노드 하나로 보낼 프레임을 쌓아두는 최대 수 (넘치면 버림 - 상대 노드가 멈춘 경우)
+    static final int PEER_QUEUE_SIZE = 64 * 1024;
+    // 한 번의 flush 로 묶는 최대 프레임 수
+    static final int MAX_BATCH_FRAMES = 1024;
+    private static final long CLAIM_TIMEOUT_MS = 2000;
+    private static final long RECONNECT_MS = 1000;
+
+    private final ChatServer server;
+    private final int nodeId;
+    private final int[] nodeIds; // 정렬된 전체 노드 번호 (닉네임 주인 계산용)
+    private final InetSocketAddress listenAddress;
+    private final Map<Integer, Peer> peers = new TreeMap<>();
+
+    // 내가 주인인 닉네임 -> 그 닉네임을 가진 노드
+    private final Map<String, Integer> owned = new ConcurrentHashMap<>();
+    // 다른 노드 접속자 (닉네임 -> 위치)
+    private final Map<String, RemoteUser> remoteUsers = new ConcurrentHashMap<>();
+    // 주인 노드의 답을 기다리는 선점 요청
+    private final Map<Long, CompletableFuture<Boolean>> pendingClaims = new ConcurrentHashMap<>();
+    private final AtomicLong nextClaimId = new AtomicLong();
+    // 통계 - 보낸 / 받은 프레임, flush 수, 큐가 넘쳐서 버린 프레임
+    private final LongAdder framesSent = new LongAdder();
+    private final LongAdder framesReceived = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    static final class RemoteUser {
+        final int node;
+        final int id;
+
+        RemoteUser(int node, int id) {
+            this.node = node;
+            this.id = id;
+        }
+    }
+
+    // spec = "번호@호스트:포트,..." (자기 자신 포함), 자기 항목의 포트로 다른 노드 연결을 받음
+    ClusterLink(ChatServer server, int nodeId, String spec) {
+        this.server = server;
+        this.nodeId = nodeId;
+        InetSocketAddress self = null;
+        for (String entry : spec.split(",")) {
+            int at = entry.indexOf('@');
+            int colon = entry.lastIndexOf(':');
+            if (at < 0 || colon < at) {
+                throw new IllegalArgumentException("bad cluster entry: " + entry);
+            }
+            int id = Integer.parseInt(entry.substring(0, at).trim());
+            if (id < 0 || id >= MAX_NODES) {
+                throw new IllegalArgumentException("node id must be 0.." + (MAX_NODES - 1) + ": " + entry);
+            }
+            InetSocketAddress address = new InetSocketAddress(entry.substring(at + 1, colon).trim(),
+                    Integer.parseInt(entry.substring(colon + 1).trim()));
+            if (id == nodeId) {
+                self = address;
+            } else {
+                peers.put(id, new Peer(id, address));
+            }
+        }
+        if (self == null) {
+            throw new IllegalArgumentException("node " + nodeId + " is not in --cluster");
+        }
+        this.listenAddress = self;
+        this.nodeIds = new int[peers.size() + 1];
+        int i = 0;
+        nodeIds[i++] = nodeId;
+        for (int id : peers.keySet()) {
+            nodeIds[i++] = id;
+        }
+        Arrays.sort(nodeIds);
+    }
+
+    int getNodeId() {
+        return nodeId;
+    }
+
+    // 이 노드에서 seq 번째로 들어온 접속자의 번호
+    int userId(int seq) {
+        return seq * MAX_NODES + nodeId;
+    }
+
+    void start() throws IOException {
+        ServerSocket listener = new ServerSocket();
+        listener.bind(new InetSocketAddress(listenAddress.getPort()));
+        daemon(() -> acceptLoop(listener), "cluster-accept").start();
+        for (Peer p : peers.values()) {
+            daemon(p::sendLoop, "cluster-send-" + p.id).start();
+        }
+        System.out.println("Cluster node " + nodeId + " listening on " + listenAddress.getPort() + ", peers " + peers.keySet());
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    // ---- 닉네임 디렉터리 ----
+
+    private int ownerOf(String name) {
+        return nodeIds[Math.floorMod(name.hashCode(), nodeIds.length)];
+    }
+
+    // 닉네임 선점 - 주인 노드가 허락하면 true (이 노드 안에서의 중복은 ChatServer 가 먼저 확인함)
+    // [변경] 답은 future 로 - 주인 노드의 NODE_CLAIMED 를 받는 스레드에서 완료, CLAIM_TIMEOUT_MS 안에 답이 없으면 false
+    //   (NIO 워커가 답을 기다리며 멈추지 않도록, 스레드 모드는 join 으로 기다림)
+    CompletableFuture<Boolean> claim(String name) {
+        int owner = ownerOf(name);
+        if (owner == nodeId) {
+            return CompletableFuture.completedFuture(claimOwned(name, nodeId));
+        }
+        long claimId = nextClaimId.incrementAndGet();
+        CompletableFuture<Boolean> reply = new CompletableFuture<>();
+        pendingClaims.put(claimId, reply);
+        if (!peers.get(owner).send(frame("NODE_CLAIM", out -> {
+            out.writeLong(claimId);
+            out.writeString(name);
+        }))) {
+            pendingClaims.remove(claimId);
+            return CompletableFuture.completedFuture(false);
+        }
+        return reply.orTimeout(CLAIM_TIMEOUT_MS, TimeUnit.MILLISECONDS).handle((ok, e) -> {
+            pendingClaims.remove(claimId);
+            if (e != null) {
+                System.out.println("cluster claim of " + name + " failed: node " + owner + " did not answer");
+                return false;
+            }
+            return ok;
+        });
+    }
+
+    private boolean claimOwned(String name, int node) {
+        Integer holder = owned.putIfAbsent(name, node);
+        return holder == null || holder == node && node != nodeId;
+    }
+
+    // 입장 / 퇴장을 모든 노드에 알림 (퇴장은 주인 노드의 선점도 풂)
+    void join(ChatServer.Client c) {
+        broadcast(joinFrame(c.getUserName(), c.id));
+    }
+
+    void leave(ChatServer.Client c) {
+        release(c.getUserName(), c.id);
+    }
+
+    // [추가] 선점 풀기 (입장 알림을 보내기 전에 끊긴 접속자도 이걸로)
+    void release(String name, int id) {
+        if (ownerOf(name) == nodeId) {
+            owned.remove(name, nodeId);
+        }
+        broadcast(frame("NODE_LEAVE", out -> {
+            out.writeString(name);
+            out.writeInt(id);
+        }));
+    }
+
+    private static byte[] joinFrame(String name, int id) {
+        return frame("NODE_JOIN", out -> {
+            out.writeString(name);
+            out.writeInt(id);
+        });
+    }
+
+    RemoteUser findRemote(String name) {
+        return remoteUsers.get(name);
+    }
+
+    Map<String, RemoteUser> getRemoteUsers() {
+        return Collections.unmodifiableMap(remoteUsers);
+    }
+
+    // ---- 메시지 전달 ----
+
+    void relayText(String sender, int senderId, String message) {
+        broadcast(frame("RELAY_TEXT", out -> {
+            out.writeString(sender);
+            out.writeInt(senderId);
+            out.writeString(message);
+        }));
+    }
+
+    void relaySystem(String message) {
+        broadcast(frame("RELAY_SYSTEM", out -> out.writeString(message)));
+    }
+
+    // to 노드에 있는 target 에게 귓속말 (연결이 끊겨 있으면 false)
+    boolean relayWhisper(RemoteUser to, String target, String sender, int senderId, String message) {
+        Peer p = peers.get(to.node);
+        return p != null && p.send(frame("RELAY_WHISPER", out -> {
+            out.writeString(target);
+            out.writeString(sender);
+            out.writeInt(senderId);
+            out.writeString(message);
+        }));
+    }
+
+    // 프레임 하나를 모든 노드에 (인코딩은 한 번만, 바이트 배열을 모든 노드 큐가 공유)
+    private void broadcast(byte[] frame) {
+        for (Peer p : peers.values()) {
+            p.send(frame);
+        }
+    }
+
+    private static byte[] frame(String type, Frame.FrameWriter writer) {
+        Protocol.Writer out = new Protocol.Writer();
+        try {
+            out.writeType(type);
+            writer.write(out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Writer 는 메모리에만 씀
+        }
+        return out.toFrame(0);
+    }
+
+    // ---- 받기 ----
+
+    private void acceptLoop(ServerSocket listener) {
+        while (true) {
+            try {
+                Socket socket = listener.accept();
+                daemon(() -> receiveLoop(socket), "cluster-receive").start();
+            } catch (IOException e) {
+                System.out.println("cluster accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // 다른 노드가 연 연결 하나 - 첫 프레임은 NODE_HELLO(보낸 노드 번호)
+    private void receiveLoop(Socket socket) {
+        int from = -1;
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            Protocol.Reader hello = Protocol.readFrame(in);
+            if (!"NODE_HELLO".equals(hello.readType())) {
+                throw new IOException("expected NODE_HELLO");
+            }
+            from = hello.readInt();
+            if (!peers.containsKey(from)) {
+                throw new IOException("unknown node " + from);
+            }
+            // 같은 노드가 다시 붙음 - 예전 연결에서 받은 목록은 버리고 다시 받음
+            forget(from);
+            System.out.println("Cluster node " + from + " connected");
+            while (true) {
+                Protocol.Reader r = Protocol.readFrame(in);
+                framesReceived.increment();
+                handle(from, r.readType(), r);
+            }
+        } catch (IOException e) {
+            if (from >= 0) {
+                System.out.println("Cluster node " + from + " disconnected: " + e.getMessage());
+                forget(from);
+            }
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private void handle(int from, String type, Protocol.Reader in) throws IOException {
+        if ("RELAY_TEXT".equals(type)) {
+            String sender = in.readString();
+            int senderId = in.readInt();
+            server.deliverRemoteText(sender, senderId, in.readString());
+        } else if ("RELAY_SYSTEM".equals(type)) {
+            server.deliverRemoteSystem(in.readString());
+        } else if ("RELAY_WHISPER".equals(type)) {
+            String target = in.readString();
+            String sender = in.readString();
+            int senderId = in.readInt();
+            server.deliverRemoteWhisper(target, sender, senderId, in.readString());
+        } else if ("NODE_JOIN".equals(type)) {
+            String name = in.readString();
+            int id = in.readInt();
+            if (ownerOf(name) == nodeId) {
+                claimOwned(name, from); // 주인 노드가 다시 켜졌을 때 선점 상태 복구
+            }
+            remoteUsers.put(name, new RemoteUser(from, id));
+            server.deliverRemoteJoin(id, name);
+        } else if ("NODE_LEAVE".equals(type)) {
+            String name = in.readString();
+            int id = in.readInt();
+            owned.remove(name, from);
+            RemoteUser u = remoteUsers.get(name);
+            if (u != null && u.node == from && u.id == id && remoteUsers.remove(name, u)) {
+                server.deliverRemoteLeave(id);
+            }
+        } else if ("NODE_CLAIM".equals(type)) {
+            long claimId = in.readLong();
+            String name = in.readString();
+            boolean ok = ownerOf(name) == nodeId && claimOwned(name, from);
+            peers.get(from).send(frame("NODE_CLAIMED", out -> {
+                out.writeLong(claimId);
+                out.writeInt(ok ? 1 : 0);
+            }));
+        } else if ("NODE_CLAIMED".equals(type)) {
+            CompletableFuture<Boolean> reply = pendingClaims.get(in.readLong());
+            if (reply != null) {
+                reply.complete(in.readInt() == 1);
+            }
+        }
+    }
+
+    // 노드 하나와 연결이 끊김 - 그 노드 접속자와 선점을 지움
+    private void forget(int node) {
+        owned.values().removeIf(holder -> holder == node);
+        for (Map.Entry<String, RemoteUser> e : remoteUsers.entrySet()) {
+            RemoteUser u = e.getValue();
+            if (u.node == node && remoteUsers.remove(e.getKey(), u)) {
+                server.deliverRemoteLeave(u.id);
+            }
+        }
+    }
+
+    // ---- 통계 ----
+
+    long getFramesSent() {
+        return framesSent.sum();
+    }
+
+    long getFramesReceived() {
+        return framesReceived.sum();
+    }
+
+    long getBatches() {
+        return batches.sum();
+    }
+
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    // ---- 보내기 ----
+
+    // 다른 노드 하나로 가는 연결 (끊기면 RECONNECT_MS 뒤에 다시 연결)
+    private final class Peer {
+        final int id;
+        final InetSocketAddress address;
+        private final LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<>(PEER_QUEUE_SIZE);
+        private volatile boolean connected;
+
+        Peer(int id, InetSocketAddress address) {
+            this.id = id;
+            this.address = address;
+        }
+
+        // 연결이 끊겨 있으면 버림 (다시 붙을 때 접속자 목록은 통째로 다시 보냄)
+        boolean send(byte[] frame) {
+            if (!connected) {
+                return false;
+            }
+            if (!queue.offer(frame)) {
+                dropped.increment();
+                return false;
+            }
+            return true;
+        }
+
+        void sendLoop() {
+            List<byte[]> batch = new ArrayList<>(MAX_BATCH_FRAMES);
+            while (true) {
+                try (Socket socket = new Socket()) {
+                    socket.connect(address, (int) RECONNECT_MS);
+                    socket.setTcpNoDelay(true);
+                    OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+                    out.write(frame("NODE_HELLO", o -> o.writeInt(nodeId)));
+                    // 지금 접속자 전체를 먼저 알림 - 이 뒤로 들어오는 입장은 큐로 감
+                    queue.clear();
+                    connected = true;
+                    for (Map.Entry<String, ChatServer.Client> e : server.getLocalUsers().entrySet()) {
+                        out.write(joinFrame(e.getKey(), e.getValue().id));
+                    }
+                    out.flush();
+                    while (true) {
+                        batch.add(queue.take());
+                        queue.drainTo(batch, MAX_BATCH_FRAMES - 1);
+                        for (byte[] f : batch) {
+                            out.write(f);
+                        }
+                        out.flush();
+                        framesSent.add(batch.size());
+                        batches.increment();
+                        batch.clear();
+                    }
+                } catch (IOException e) {
+                    if (connected) {
+                        System.out.println("Cluster link to node " + id + " lost: " + e.getMessage());
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    connected = false;
+                    batch.clear();
+                }
+                try {
+                    Thread.sleep(RECONNECT_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,256 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+// [추가] 클러스터 처리량 측정 - localhost 에 노드 여러 개를 별도 JVM 으로 띄우고 노드마다 접속자를 붙여서 보냄
+// 사용법: java ClusterLoadTest [--nodes=3] [--clients=30] [--rate=300] [--whisper=0.1] [--seconds=10] [--mode=thread|nio]
+//   --clients : 노드 하나당 접속자 수
+//   --rate    : 전체 접속자가 합쳐서 1초에 보내는 메시지 수 (0 이면 보낼 수 있는 만큼 최대로)
+//   --whisper : 그중 다른 노드 접속자에게 보내는 귓속말 비율 (나머지는 전체 채팅 - 모든 노드의 모든 접속자가 받음)
+// - 접속자는 v1 으로 붙고 (LatencyLoadTest 와 같은 방식), 보내는 스레드는 노드마다 하나
+// - 끝나면 전체 전달 수 / 초당 전달 수(합계 처리량), 다른 노드로 건너간 전달의 지연, 노드별 묶음 전달 통계를 출력
+// (포트는 비어 있는 것을 골라서 씀, 기록 저장 없이)
+public class ClusterLoadTest {
+    private static final String PREFIX = "t=";
+
+    public static void main(String[] args) throws Exception {
+        int nodes = 3;
+        int clients = 30;
+        int rate = 300;
+        double whisper = 0.1;
+        int seconds = 10;
+        String mode = "thread";
+        for (String arg : args) {
+            if (arg.startsWith("--nodes=")) {
+                nodes = Integer.parseInt(arg.substring("--nodes=".length()));
+            } else if (arg.startsWith("--clients=")) {
+                clients = Integer.parseInt(arg.substring("--clients=".length()));
+            } else if (arg.startsWith("--rate=")) {
+                rate = Integer.parseInt(arg.substring("--rate=".length()));
+            } else if (arg.startsWith("--whisper=")) {
+                whisper = Double.parseDouble(arg.substring("--whisper=".length()));
+            } else if (arg.startsWith("--seconds=")) {
+                seconds = Integer.parseInt(arg.substring("--seconds=".length()));
+            } else if (arg.startsWith("--mode=")) {
+                mode = arg.substring("--mode=".length());
+            }
+        }
+
+        int[] chatPorts = new int[nodes];
+        int[] clusterPorts = new int[nodes];
+        int[] metricsPorts = new int[nodes];
+        StringBuilder spec = new StringBuilder();
+        for (int i = 0; i < nodes; i++) {
+            chatPorts[i] = freePort();
+            clusterPorts[i] = freePort();
+            metricsPorts[i] = freePort();
+            spec.append(i == 0 ? "" : ",").append(i).append("@127.0.0.1:").append(clusterPorts[i]);
+        }
+
+        List<Process> servers = new ArrayList<>();
+        LatencyHistogram local = new LatencyHistogram();
+        LatencyHistogram remote = new LatencyHistogram();
+        AtomicBoolean measuring = new AtomicBoolean();
+        LongAdder whispersReceived = new LongAdder();
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            // 모든 노드가 서로 연결될 때까지 기다림
+            CountDownLatch ready = new CountDownLatch(nodes * nodes);
+            for (int i = 0; i < nodes; i++) {
+                servers.add(startNode(i, chatPorts[i], metricsPorts[i], spec.toString(), mode, ready));
+            }
+            if (!ready.await(20, TimeUnit.SECONDS)) {
+                throw new IOException("cluster did not form");
+            }
+
+            // 접속자 이름 = n<노드>u<번호>, 받은 메시지의 보낸 사람 이름으로 다른 노드에서 온 것인지 구분
+            List<List<DataOutputStream>> outs = new ArrayList<>();
+            for (int n = 0; n < nodes; n++) {
+                List<DataOutputStream> nodeOuts = new ArrayList<>();
+                for (int i = 0; i < clients; i++) {
+                    Socket socket = new Socket("127.0.0.1", chatPorts[n]);
+                    socket.setTcpNoDelay(true);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    out.writeUTF("n" + n + "u" + i);
+                    out.flush();
+                    sockets.add(socket);
+                    nodeOuts.add(out);
+                    startReader(socket, "n" + n, local, remote, measuring, whispersReceived);
+                }
+                outs.add(nodeOuts);
+            }
+            System.out.printf("connected %d clients on %d nodes (%s mode)%n", sockets.size(), nodes, mode);
+            // 입장 알림이 다 빠질 때까지 잠시 대기
+            Thread.sleep(3000);
+
+            measuring.set(true);
+            LongAdder textsSent = new LongAdder();
+            LongAdder whispersSent = new LongAdder();
+            long interval = rate > 0 ? 1_000_000_000L * nodes / rate : 0;
+            long start = System.nanoTime();
+            long end = start + seconds * 1_000_000_000L;
+            List<Thread> senders = new ArrayList<>();
+            for (int n = 0; n < nodes; n++) {
+                int node = n;
+                int nodeCount = nodes;
+                int perNode = clients;
+                double whisperRatio = whisper;
+                Thread t = new Thread(() -> {
+                    Random random = new Random(node);
+                    long due = start + interval * node / nodeCount;
+                    try {
+                        for (long k = 0; System.nanoTime() < end; k++, due += interval) {
+                            long wait = due - System.nanoTime();
+                            if (wait > 0) {
+                                LockSupport.parkNanos(wait);
+                            }
+                            DataOutputStream out = outs.get(node).get((int) (k % perNode));
+                            long stamp = interval > 0 ? due : System.nanoTime();
+                            if (nodeCount > 1 && random.nextDouble() < whisperRatio) {
+                                // 다른 노드 접속자에게 귓속말
+                                int other = (node + 1 + random.nextInt(nodeCount - 1)) % nodeCount;
+                                out.writeUTF("WHISPER");
+                                out.writeUTF("n" + other + "u" + random.nextInt(perNode));
+                                out.writeUTF(PREFIX + stamp);
+                                whispersSent.increment();
+                            } else {
+                                out.writeUTF("TEXT");
+                                out.writeUTF(PREFIX + stamp);
+                                textsSent.increment();
+                            }
+                            out.flush();
+                        }
+                    } catch (IOException e) {
+                        System.out.println("send failed on node " + node + ": " + e.getMessage());
+                    }
+                }, "sender-" + n);
+                t.start();
+                senders.add(t);
+            }
+            for (Thread t : senders) {
+                t.join();
+            }
+            long sendNanos = System.nanoTime() - start;
+            // 늦게 오는 것까지 받을 시간
+            Thread.sleep(3000);
+            measuring.set(false);
+
+            long delivered = local.count() + remote.count();
+            long expected = textsSent.sum() * sockets.size() + whispersSent.sum();
+            double secs = sendNanos / 1e9;
+            System.out.printf("sent text=%d whisper=%d (%.0f msg/s)%n", textsSent.sum(), whispersSent.sum(),
+                    (textsSent.sum() + whispersSent.sum()) / secs);
+            System.out.printf("delivered %d/%d (%.2f%%), aggregate %.0f deliveries/s, cross-node whispers %d/%d%n",
+                    delivered, expected, expected == 0 ? 0.0 : delivered * 100.0 / expected, delivered / secs,
+                    whispersReceived.sum(), whispersSent.sum());
+            System.out.printf("%-12s %10s %9s %9s %9s %9s%n", "latency", "count", "p50(ms)", "p99(ms)", "p99.9(ms)", "max(ms)");
+            for (Object[] row : new Object[][] {{"same node", local}, {"cross node", remote}}) {
+                LatencyHistogram h = (LatencyHistogram) row[1];
+                System.out.printf("%-12s %10d %9.2f %9.2f %9.2f %9.2f%n", row[0], h.count(),
+                        h.percentile(50) / 1e6, h.percentile(99) / 1e6, h.percentile(99.9) / 1e6, h.max() / 1e6);
+            }
+            for (int n = 0; n < nodes; n++) {
+                System.out.println("node " + n + ": " + clusterStats(metricsPorts[n]));
+            }
+        } finally {
+            for (Socket s : sockets) {
+                try {
+                    s.close();
+                } catch (IOException ignored) {}
+            }
+            for (Process p : servers) {
+                p.destroy();
+                p.waitFor();
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+
+    // 노드 하나를 별도 JVM 으로 - 채팅 서버가 뜨면 1, 다른 노드가 붙을 때마다 1 씩 ready 를 줄임
+    // (처리량을 재는 것이므로 접속자당 메시지 수 제한은 끔)
+    private static Process startNode(int node, int port, int metricsPort, String spec, String mode, CountDownLatch ready) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process server = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "ChatServer", String.valueOf(port), "--mode=" + mode, "--no-history",
+                "--node=" + node, "--cluster=" + spec, "--metrics-port=" + metricsPort, "--max-msgs-per-sec=0")
+                .redirectErrorStream(true)
+                .start();
+        // 서버 출력은 계속 읽어줘야 파이프가 막히지 않음 (접속 / 종료 줄은 버림)
+        Thread pump = new Thread(() -> {
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(server.getInputStream()))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (line.startsWith("Chat server") || (line.startsWith("Cluster node") && line.endsWith(" connected"))) {
+                        ready.countDown();
+                    } else if (line.contains("Exception") || line.startsWith("Cluster link")) {
+                        System.out.println("[node " + node + "] " + line);
+                    }
+                }
+            } catch (IOException ignored) {}
+        });
+        pump.setDaemon(true);
+        pump.start();
+        return server;
+    }
+
+    // /metrics 에서 chat_cluster_* 줄만 모아서 한 줄로
+    private static String clusterStats(int metricsPort) {
+        StringBuilder sb = new StringBuilder();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                new URL("http://127.0.0.1:" + metricsPort + "/metrics").openStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith("chat_cluster_")) {
+                    sb.append(line.substring("chat_cluster_".length()).replace(' ', '=')).append(' ');
+                }
+            }
+        } catch (IOException e) {
+            return "metrics unavailable: " + e.getMessage();
+        }
+        return sb.toString().trim();
+    }
+
+    // 접속자 하나의 수신 스레드 - v1 TEXT / WHISPER / SYSTEM 만 처리
+    // 보낸 사람 이름이 같은 노드(nodePrefix)면 local, 아니면 remote 히스토그램에 넣음
+    private static void startReader(Socket socket, String nodePrefix, LatencyHistogram local, LatencyHistogram remote,
+                                    AtomicBoolean measuring, LongAdder whispers) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        Thread t = new Thread(null, () -> {
+            try {
+                while (true) {
+                    String type = in.readUTF();
+                    if ("TEXT".equals(type) || "WHISPER".equals(type)) {
+                        String sender = in.readUTF();
+                        String msg = in.readUTF();
+                        long now = System.nanoTime();
+                        if (measuring.get() && msg.startsWith(PREFIX)) {
+                            long nanos = now - Long.parseLong(msg.substring(PREFIX.length()));
+                            boolean sameNode = sender.startsWith(nodePrefix + "u");
+                            (sameNode ? local : remote).record(nanos);
+                            if ("WHISPER".equals(type)) {
+                                whispers.increment();
+                            }
+                        }
+                    } else if ("SYSTEM".equals(type)) {
+                        in.readUTF();
+                    } else {
+                        throw new IOException("unexpected packet: " + type);
+                    }
+                }
+            } catch (IOException e) {
+                // 연결 종료
+            }
+        }, "reader", 128 * 1024); // 연결이 많으므로 스택을 작게
+        t.setDaemon(true);
+        t.start();
+    }
+}
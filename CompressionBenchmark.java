@@ -0,0 +1,162 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.zip.Deflater;
+
+// [추가] 메시지 압축(CAPS "deflate") 효과 측정
+// 사용법: java CompressionBenchmark [프레임 수]
+// - ChatServer 가 지금 만드는 프레임(입장/퇴장 알림, 귓속말 실패 알림, 전체/방 채팅)을 종류별로 만들어서
+//   v1 / v2 / v2+deflate 로 인코딩한 바이트 수와, 프레임 하나를 인코딩/디코딩하는 데 걸린 시간을 비교
+// - 채팅 내용은 ChatClient 와 같은 XOR 를 거친 상태로 만듦 (서버가 실제로 중계하는 형태)
+// - "no-dict" 열은 같은 본문을 사전 없이 Deflate 했을 때 크기 (사전이 얼마나 도움이 되는지 비교용)
+public class CompressionBenchmark {
+    private static final String[] NAMES = {"민수", "지영", "alice", "bob", "준호", "서연", "tom", "하늘"};
+    private static final String[] MESSAGES = {
+            "안녕하세요", "ㅋㅋㅋㅋ", "네 감사합니다", "오늘 회의 몇 시에 해요?", "ok", "점심 뭐 먹을까요",
+            "hello everyone", "자료 올렸어요 확인 부탁드립니다", "ㅎㅎ 좋아요", "잠깐 자리 비울게요",
+            "내일 발표 자료는 제가 정리해서 저녁까지 공유하겠습니다. 수정할 부분 있으면 말씀해주세요."
+    };
+    private static final String XOR_KEY = "secret1234"; // ChatClient 와 같은 키
+
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        Random random = new Random(42);
+
+        Map<String, List<Frame>> kinds = new LinkedHashMap<>();
+        kinds.put("system", new ArrayList<>());
+        kinds.put("text", new ArrayList<>());
+        kinds.put("room_text", new ArrayList<>());
+        for (int i = 0; i < count; i++) {
+            int id = random.nextInt(NAMES.length);
+            String name = NAMES[id];
+            String msg = MESSAGES[random.nextInt(MESSAGES.length)];
+            switch (random.nextInt(3)) {
+                case 0: kinds.get("system").add(Frame.system("[알림] " + name + "님이 입장하셨습니다.")); break;
+                case 1: kinds.get("system").add(Frame.system("[알림] " + name + "님이 퇴장하셨습니다.")); break;
+                default: kinds.get("system").add(Frame.system("[알림] " + name + "님을 찾을 수 없습니다.")); break;
+            }
+            kinds.get("text").add(Frame.text(name, id + 1, xor(msg)));
+            kinds.get("room_text").add(Frame.roomText("dev", name, id + 1, xor(msg)));
+        }
+
+        // JIT 워밍업
+        for (List<Frame> frames : kinds.values()) {
+            measure(frames);
+        }
+
+        System.out.printf("%-10s %8s %10s %10s %12s %10s %8s %10s %10s %10s%n",
+                "kind", "frames", "v1(B)", "v2(B)", "deflate(B)", "no-dict(B)", "saved", "enc v2", "enc z", "dec z");
+        long[] total = new long[4];
+        int frames = 0;
+        for (Map.Entry<String, List<Frame>> e : kinds.entrySet()) {
+            long[] r = measure(e.getValue());
+            frames += e.getValue().size();
+            for (int i = 0; i < 4; i++) {
+                total[i] += r[i];
+            }
+            print(e.getKey(), e.getValue().size(), r);
+        }
+        print("total", frames, new long[] {total[0], total[1], total[2], total[3], -1, -1, -1});
+    }
+
+    private static void print(String kind, int frames, long[] r) {
+        System.out.printf("%-10s %8d %10d %10d %12d %10d %7.1f%% %10s %10s %10s%n",
+                kind, frames, r[0], r[1], r[2], r[3], 100.0 * (r[1] - r[2]) / r[1],
+                ns(r[4], frames), ns(r[5], frames), ns(r[6], frames));
+    }
+
+    private static String ns(long total, int frames) {
+        return total < 0 ? "" : (total / frames) + "ns";
+    }
+
+    // {v1 바이트, v2 바이트, v2+deflate 바이트, 사전 없이 deflate 한 바이트, v2 인코딩 시간, deflate 인코딩 시간, 디코딩 시간}
+    private static long[] measure(List<Frame> frames) throws IOException {
+        long[] r = new long[7];
+        List<byte[]> compressed = new ArrayList<>();
+        Deflater plain = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        for (Frame f : frames) {
+            r[0] += f.length(Protocol.V1);
+            r[1] += f.length(Protocol.V2);
+            byte[] z = bytes(f.buffers(Protocol.V2_DEFLATE));
+            r[2] += z.length;
+            compressed.add(z);
+            r[3] += plainDeflated(plain, bytes(f.buffers(Protocol.V2)));
+        }
+        plain.end();
+
+        // 인코딩 시간 - Frame 은 인코딩을 캐시하므로 같은 내용의 새 Frame 을 미리 만들어 두고 잼
+        List<Frame> plainCopies = new ArrayList<>();
+        List<Frame> deflateCopies = new ArrayList<>();
+        for (Frame f : frames) {
+            plainCopies.add(copy(f));
+            deflateCopies.add(copy(f));
+        }
+        long t0 = System.nanoTime();
+        for (Frame f : plainCopies) {
+            f.buffers(Protocol.V2);
+        }
+        long t1 = System.nanoTime();
+        for (Frame f : deflateCopies) {
+            f.buffers(Protocol.V2_DEFLATE);
+        }
+        long t2 = System.nanoTime();
+        for (byte[] z : compressed) {
+            Protocol.Reader in = Protocol.readFrame(new DataInputStream(new ByteArrayInputStream(z)));
+            String type = in.readType();
+            if ("ROOM_TEXT".equals(type)) {
+                in.readString();
+            }
+            if (!"SYSTEM".equals(type)) {
+                in.readInt();
+            }
+            in.readString();
+        }
+        long t3 = System.nanoTime();
+        r[4] = t1 - t0;
+        r[5] = t2 - t1;
+        r[6] = t3 - t2;
+        return r;
+    }
+
+    // v1 프레임을 다시 읽어서 같은 내용의 새 Frame 을 만듦 (인코딩 캐시를 피하기 위함)
+    private static Frame copy(Frame f) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes(f.buffers(Protocol.V1))));
+        String type = in.readUTF();
+        if ("SYSTEM".equals(type)) {
+            return Frame.system(in.readUTF());
+        } else if ("TEXT".equals(type)) {
+            String sender = in.readUTF();
+            return Frame.text(sender, 1, in.readUTF());
+        }
+        String room = in.readUTF();
+        String sender = in.readUTF();
+        return Frame.roomText(room, sender, 1, in.readUTF());
+    }
+
+    private static int plainDeflated(Deflater d, byte[] frame) {
+        d.reset();
+        d.setInput(frame);
+        d.finish();
+        byte[] out = new byte[frame.length + 64];
+        int n = d.deflate(out);
+        return Math.min(n + 2, frame.length); // 압축 표시/길이 몫 2바이트, 안 줄어들면 원본
+    }
+
+    private static byte[] bytes(ByteBuffer[] parts) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        for (ByteBuffer b : parts) {
+            byte[] a = new byte[b.remaining()];
+            b.get(a);
+            bos.write(a, 0, a.length);
+        }
+        return bos.toByteArray();
+    }
+
+    private static String xor(String message) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < message.length(); i++) {
+            result.append((char) (message.charAt(i) ^ XOR_KEY.charAt(i % XOR_KEY.length())));
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,197 @@
+import java.io.*;
+import java.lang.management.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// [추가] 서버 모드별 연결 수 / 메모리 비교 부하 테스트
+// 사용법: java ConnectionLoadTest [연결 수] [모드...]
+//   예) java ConnectionLoadTest 5000 thread virtual nio
+// - 모드마다 서버를 별도 JVM 으로 띄움 (같은 JVM 이면 모드끼리 메모리가 섞이기 때문)
+// - 이 프로세스가 소켓 N 개를 열어 닉네임을 보내고, 서버가 보낸 데이터는 Selector 하나로 읽어서 버림
+// - 서버 JVM 이 보고한 접속자 수 / GC 후 힙 사용량 / 스레드 수를 표로 출력
+// (연결 수가 많으면 ulimit -n 을 먼저 올려야 함)
+public class ConnectionLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && "--server".equals(args[0])) {
+            runServer(args[1], Integer.parseInt(args[2]));
+            return;
+        }
+
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        List<String> modes = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            modes.add(args[i]);
+        }
+        if (modes.isEmpty()) {
+            modes.addAll(Arrays.asList("thread", "virtual", "nio"));
+        }
+
+        List<String> rows = new ArrayList<>();
+        for (String mode : modes) {
+            rows.add(runMode(mode, count));
+        }
+
+        System.out.println();
+        System.out.printf("%-8s %10s %10s %10s %10s %12s%n", "mode", "requested", "connected", "heap(MB)", "threads", "connect(ms)");
+        for (String row : rows) {
+            System.out.println(row);
+        }
+    }
+
+    // ---- 측정하는 쪽 (부모 프로세스) ----
+
+    private static String runMode(String mode, int count) throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process server = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "ConnectionLoadTest", "--server", mode, String.valueOf(port))
+                .redirectErrorStream(true)
+                .start();
+
+        // 서버 출력은 계속 읽어줘야 파이프가 막히지 않음 - STATS 줄만 골라냄
+        BlockingQueue<String> stats = new LinkedBlockingQueue<>();
+        CountDownLatch started = new CountDownLatch(1);
+        Thread pump = new Thread(() -> {
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(server.getInputStream()))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (line.startsWith("STATS ")) {
+                        stats.add(line.substring(6));
+                    } else if (line.startsWith("Chat server")) {
+                        started.countDown();
+                    }
+                }
+            } catch (IOException ignored) {}
+        });
+        pump.setDaemon(true);
+        pump.start();
+        PrintWriter control = new PrintWriter(server.getOutputStream(), true);
+
+        List<SocketChannel> sockets = new ArrayList<>();
+        Selector drain = Selector.open();
+        Thread drainer = startDrainer(drain);
+        try {
+            if (!started.await(10, TimeUnit.SECONDS)) {
+                throw new IOException(mode + " server did not start");
+            }
+
+            long begin = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                try {
+                    SocketChannel ch = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+                    DataOutputStream out = new DataOutputStream(ch.socket().getOutputStream());
+                    out.writeUTF("load" + i);
+                    out.flush();
+                    ch.configureBlocking(false);
+                    sockets.add(ch);
+                    ch.register(drain, SelectionKey.OP_READ);
+                    drain.wakeup();
+                } catch (IOException e) {
+                    System.out.println("[" + mode + "] stopped at " + i + " connections: " + e.getMessage());
+                    break;
+                }
+            }
+
+            // 서버가 전부 등록할 때까지 대기 (최대 60초)
+            String last = "0 0 0";
+            long deadline = System.currentTimeMillis() + 60_000;
+            while (System.currentTimeMillis() < deadline) {
+                control.println("stats");
+                last = stats.poll(10, TimeUnit.SECONDS);
+                if (last == null || Integer.parseInt(last.split(" ")[0]) >= sockets.size()) {
+                    break;
+                }
+                Thread.sleep(200);
+            }
+            long elapsedMs = (System.nanoTime() - begin) / 1_000_000;
+
+            // 입장 알림 전송이 다 빠질 때까지 잠시 기다린 뒤 GC 후 측정
+            Thread.sleep(2000);
+            control.println("gc");
+            last = stats.poll(30, TimeUnit.SECONDS);
+            String[] f = last == null ? new String[] {"?", "?", "?"} : last.split(" ");
+            return String.format("%-8s %10d %10s %10s %10s %12d", mode, count, f[0], f[1], f[2], elapsedMs);
+        } finally {
+            drainer.interrupt();
+            for (SocketChannel ch : sockets) {
+                try {
+                    ch.close();
+                } catch (IOException ignored) {}
+            }
+            drain.close();
+            server.destroy();
+            server.waitFor();
+        }
+    }
+
+    // 서버가 보내는 입장 알림 등을 읽어서 버림 (안 읽으면 서버 쓰기가 막힘)
+    private static Thread startDrainer(Selector selector) {
+        Thread t = new Thread(() -> {
+            ByteBuffer buf = ByteBuffer.allocateDirect(64 * 1024);
+            while (!Thread.currentThread().isInterrupted() && selector.isOpen()) {
+                try {
+                    selector.select(200);
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        buf.clear();
+                        if (((SocketChannel) key.channel()).read(buf) < 0) {
+                            key.cancel();
+                        }
+                    }
+                } catch (IOException | ClosedSelectorException | CancelledKeyException e) {
+                    // 종료 중
+                }
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    // ---- 서버 쪽 (자식 프로세스) ----
+
+    private static void runServer(String mode, int port) throws Exception {
+        ChatServer server = new ChatServer(port);
+        Thread t = new Thread(() -> {
+            try {
+                if ("nio".equals(mode)) {
+                    server.startNio(Runtime.getRuntime().availableProcessors());
+                } else {
+                    if ("virtual".equals(mode)) {
+                        server.useVirtualThreads();
+                    }
+                    server.start();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+
+        // 부모가 "stats" / "gc" 를 보내면 "STATS 접속자수 힙MB 스레드수" 로 응답
+        BufferedReader control = new BufferedReader(new InputStreamReader(System.in));
+        String cmd;
+        while ((cmd = control.readLine()) != null) {
+            if ("gc".equals(cmd)) {
+                System.gc();
+                Thread.sleep(200);
+            }
+            MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+            System.out.println("STATS " + server.getClientCount() + " " + heap.getUsed() / (1024 * 1024) + " " + threads);
+        }
+        System.exit(0);
+    }
+}
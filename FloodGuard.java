@@ -0,0 +1,83 @@
+// [추가] 접속자 한 명의 보내기 제한 - 토큰 버킷 두 개 (초당 메시지 수 / 초당 바이트)
+// - 토큰은 시간이 지난 만큼 쓸 때 한꺼번에 채움 (타이머 없음), 버킷 크기(burst)만큼은 몰아서 보낼 수 있음
+// - 메시지: 토큰이 없으면 그 메시지는 버림 (ChatServer 가 본인에게 SYSTEM 알림, NOTICE_INTERVAL 마다 한 번만)
+// - 바이트: 버리지 않고 빚으로 달아둠 - 빚을 갚을 때까지 그 연결에서 읽기를 멈춤 (TCP 가 보내는 쪽을 늦춤)
+//   그래서 큰 이미지 / 청크 파일도 잘리지 않고 느려지기만 함
+// - [추가] 파일 청크는 메시지 토큰도 하나씩 씀 - 버리면 받는 쪽 파일이 깨지므로 바이트처럼 빚으로 달아두고 읽기를 멈춤
+//   (빚이 남아 있는 동안 들어온 일반 메시지는 버려짐)
+// 한 연결의 패킷은 읽는 스레드(스레드 모드) / 워커(NIO 모드) 하나만 처리하므로 락이나 CAS 없이 필드만 씀
+final class FloodGuard {
+    private static final long NOTICE_INTERVAL_NANOS = 5_000_000_000L;
+
+    private final double msgRate;   // 초당 메시지 (0 이면 제한 없음)
+    private final double msgBurst;
+    private final double byteRate;  // 초당 바이트 (0 이면 제한 없음)
+    private final double byteBurst;
+    private double msgTokens;
+    private double byteTokens;
+    private long msgRefilled = System.nanoTime();
+    private long byteRefilled = msgRefilled;
+    private long lastNotice = msgRefilled - NOTICE_INTERVAL_NANOS;
+
+    FloodGuard(double msgsPerSecond, double msgBurst, double bytesPerSecond, double byteBurst) {
+        this.msgRate = msgsPerSecond;
+        this.msgBurst = Math.max(1, msgBurst);
+        this.byteRate = bytesPerSecond;
+        this.byteBurst = Math.max(1, byteBurst);
+        this.msgTokens = this.msgBurst;
+        this.byteTokens = this.byteBurst;
+    }
+
+    // 메시지 하나 - 토큰이 있으면 쓰고 true
+    boolean allowMessage(long now) {
+        if (msgRate <= 0) {
+            return true;
+        }
+        msgTokens = Math.min(msgBurst, msgTokens + (now - msgRefilled) * msgRate / 1e9);
+        msgRefilled = now;
+        if (msgTokens < 1) {
+            return false;
+        }
+        msgTokens -= 1;
+        return true;
+    }
+
+    // [추가] 파일 청크 하나 - 토큰이 없어도 버리지 않고 빚으로 달아둠 (다음 chargeBytes 에서 읽기를 멈춤)
+    void chargeMessage(long now) {
+        if (msgRate <= 0) {
+            return;
+        }
+        msgTokens = Math.min(msgBurst, msgTokens + (now - msgRefilled) * msgRate / 1e9) - 1;
+        msgRefilled = now;
+    }
+
+    // 받은 바이트 n 개 - 빚이 생겼으면 다 갚을 때까지 기다릴 나노초, 아니면 0
+    // [변경] 청크로 생긴 메시지 빚도 같이 봄 (둘 중 긴 쪽)
+    long chargeBytes(long n, long now) {
+        long wait = 0;
+        if (byteRate > 0) {
+            byteTokens = Math.min(byteBurst, byteTokens + (now - byteRefilled) * byteRate / 1e9) - n;
+            byteRefilled = now;
+            if (byteTokens < 0) {
+                wait = (long) (-byteTokens * 1e9 / byteRate);
+            }
+        }
+        if (msgRate > 0 && msgTokens < 0) {
+            msgTokens = Math.min(msgBurst, msgTokens + (now - msgRefilled) * msgRate / 1e9);
+            msgRefilled = now;
+            if (msgTokens < 0) {
+                wait = Math.max(wait, (long) (-msgTokens * 1e9 / msgRate));
+            }
+        }
+        return wait;
+    }
+
+    // 제한에 걸렸다는 알림을 보낼 때인지 (알림 자체로 큐가 넘치지 않도록)
+    boolean noticeDue(long now) {
+        if (now - lastNotice < NOTICE_INTERVAL_NANOS) {
+            return false;
+        }
+        lastNotice = now;
+        return true;
+    }
+}
@@ -0,0 +1,325 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// [추가] 송신 프레임 - broadcast 할 때 한 번만 인코딩하고, 모든 수신자가 같은 바이트를 공유함
+// - 내부 버퍼는 읽기 전용이라 수신자끼리 내용을 바꿀 수 없음
+// - 각 writer 는 buffers() 로 위치(position)만 따로 가진 복사본을 받아서 씀
+// - IMAGE 는 헤더와 이미지 바이트를 따로 두고 gathering write 로 한 번에 보냄 (이미지 바이트 복사 없음)
+// [변경] v1 / v2 / v2+deflate 인코딩을 따로 가짐 - 처음 필요할 때 한 번만 만들고 같은 인코딩 수신자끼리 공유
+final class Frame {
+    // [추가] 방송 번호 - 만든 순서대로 붙임, 같은 방송의 다른 모양(이미지 바이트 / 해시만 등)은 같은 번호 (ClientSession.firstDelivery)
+    private static final AtomicLong LAST_SEQ = new AtomicLong();
+
+    private final String type;        // [추가] 패킷 타입 ("TEXT" 등) - 인코딩할 때 맨 앞에 씀, 송신 통계에도 사용
+    private final FrameWriter writer;
+    private final ByteBuffer payload; // 헤더 뒤에 붙는 바이트 (이미지 / 청크), 없으면 빈 버퍼
+    private final boolean v2Only;     // v1 에는 없는 패킷 (USER 등) - v1 수신자에게는 보내지 않음
+    private final int upgrade;        // 0 이 아니면 이 프레임 다음부터 그 인코딩으로 보냄 (v2 를 수락한 CAPS 응답)
+    private final AtomicReferenceArray<ByteBuffer[]> encoded = new AtomicReferenceArray<>(Protocol.V2_DEFLATE + 1);
+    private long seq = LAST_SEQ.incrementAndGet(); // [추가] 0 이면 같은 수신자에게 여러 번 가는 프레임 (PING / PONG)
+
+    private Frame(String type, FrameWriter writer, ByteBuffer payload, boolean v2Only, int upgrade) {
+        this.type = type;
+        this.writer = writer;
+        this.payload = payload.asReadOnlyBuffer();
+        this.v2Only = v2Only;
+        this.upgrade = upgrade;
+    }
+
+    private Frame(String type, FrameWriter writer) {
+        this(type, writer, ByteBuffer.allocate(0), false, 0);
+    }
+
+    // 수신자 한 명이 쓸 버퍼 배열 (내용은 공유, position/limit 만 독립)
+    // 이 버전으로 보낼 수 없는 프레임이면 빈 배열
+    ByteBuffer[] buffers(int version) {
+        ByteBuffer[] parts = parts(version);
+        ByteBuffer[] copy = new ByteBuffer[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            copy[i] = parts[i].duplicate();
+        }
+        return copy;
+    }
+
+    int length(int version) {
+        int len = 0;
+        for (ByteBuffer b : parts(version)) {
+            len += b.remaining();
+        }
+        return len;
+    }
+
+    // [추가] 보관할 때 세는 크기 - 수신자마다 인코딩이 다르므로 v2 기준 (이미지 바이트가 대부분)
+    int size() {
+        return length(Protocol.V2);
+    }
+
+    int upgradeTo() {
+        return upgrade;
+    }
+
+    // [추가] 큐가 넘쳐도 버리면 안 되는 프레임 - 버리면 양쪽 인코딩(upgrade) / 세션 번호(SESSION)가 어긋남
+    boolean isPinned() {
+        return upgrade != 0 || "SESSION".equals(type);
+    }
+
+    String type() {
+        return type;
+    }
+
+    long seq() {
+        return seq;
+    }
+
+    // [추가] 이 프레임은 first 와 같은 방송 - 보내기 전에만 부름 (수신자마다 둘 중 하나만 감)
+    Frame sameBroadcast(Frame first) {
+        seq = first.seq;
+        return this;
+    }
+
+    // [추가] 지금까지 붙인 마지막 방송 번호
+    static long lastSeq() {
+        return LAST_SEQ.get();
+    }
+
+    // 동시에 두 스레드가 인코딩해도 결과가 같으므로 락 없이 나중 것으로 덮어씀
+    private ByteBuffer[] parts(int version) {
+        ByteBuffer[] parts = encoded.get(version);
+        if (parts == null) {
+            parts = encode(version);
+            encoded.set(version, parts);
+        }
+        return parts;
+    }
+
+    private ByteBuffer[] encode(int version) {
+        byte[] header;
+        try {
+            if (version != Protocol.V1) {
+                Protocol.Writer out = new Protocol.Writer();
+                out.writeType(type);
+                writer.write(out);
+                header = out.toFrame(payload.remaining(), version == Protocol.V2_DEFLATE);
+            } else {
+                if (v2Only) {
+                    return new ByteBuffer[0];
+                }
+                ByteArrayOutputStream bos = new ByteArrayOutputStream(64);
+                Protocol.Output out = Protocol.v1(new DataOutputStream(bos));
+                out.writeType(type);
+                writer.write(out);
+                header = bos.toByteArray();
+            }
+        } catch (IOException e) {
+            // writeUTF 가 64KB 를 넘는 문자열에서 던지는 경우 - 이 버전으로는 보낼 수 없음
+            // [변경] 말없이 빼지 않고 그 자리에 안내 SYSTEM 을 보냄 (안내 자체는 짧으므로 다시 실패하지 않음)
+            if ("SYSTEM".equals(type)) {
+                return new ByteBuffer[0];
+            }
+            return system("[알림] 메시지가 너무 길어 이 클라이언트 버전에서는 받을 수 없습니다 (" + type + ")").parts(version);
+        }
+        // 빈 조각은 빼둠 - writer 는 마지막 버퍼가 다 나갔는지로 전송 완료를 판단함
+        List<ByteBuffer> list = new ArrayList<>();
+        for (ByteBuffer b : new ByteBuffer[] {ByteBuffer.wrap(header), payload}) {
+            if (b.hasRemaining()) {
+                list.add(b.asReadOnlyBuffer());
+            }
+        }
+        return list.toArray(new ByteBuffer[0]);
+    }
+
+    // ---- 서버 -> 클라이언트 패킷 ----
+
+    static Frame text(String sender, int senderId, String message) {
+        return new Frame("TEXT", out -> {
+            out.writeSender(sender, senderId);
+            out.writeString(message);
+        });
+    }
+
+    static Frame whisper(String sender, int senderId, String message) {
+        return new Frame("WHISPER", out -> {
+            out.writeSender(sender, senderId);  // 보낸 사람
+            out.writeString(message);           // 내용
+        });
+    }
+
+    // 시스템 메시지 (암호화 X)
+    static Frame system(String message) {
+        return new Frame("SYSTEM", out -> {
+            out.writeString(message);
+        });
+    }
+
+    static Frame image(String sender, int senderId, String fileName, byte[] data) {
+        return new Frame("IMAGE", out -> {
+            out.writeSender(sender, senderId);
+            out.writeString(fileName);
+            out.writeInt(data.length);
+        }, ByteBuffer.wrap(data), false, 0);
+    }
+
+    // [추가] 이미 받은 적 있는 이미지 - 바이트 대신 해시만 (CAPS "imageref")
+    static Frame imageRef(String sender, int senderId, String fileName, String hash) {
+        return new Frame("IMAGE_REF", out -> {
+            out.writeSender(sender, senderId);
+            out.writeString(fileName);
+            out.writeString(hash);
+        });
+    }
+
+    // [추가] 세션 토큰 (CAPS "resume") - 이 프레임 다음 프레임의 번호가 next (클라이언트는 여기서부터 받은 수를 셈)
+    static Frame session(String token, long next) {
+        return new Frame("SESSION", out -> {
+            out.writeString(token);
+            out.writeLong(next);
+        });
+    }
+
+    // [추가] IMAGE_GET 응답 - 해시의 이미지 바이트 (서버 보관소에서 밀려났으면 길이 0)
+    static Frame imageBlob(String hash, byte[] data) {
+        return new Frame("IMAGE_BLOB", out -> {
+            out.writeString(hash);
+            out.writeInt(data.length);
+        }, ByteBuffer.wrap(data), false, 0);
+    }
+
+    // [추가] CAPS 응답 - 서버가 받아들인 기능 목록 ("v2" 가 있으면 이 프레임 다음부터 v2, "deflate" 도 있으면 압축까지)
+    static Frame caps(String accepted) {
+        List<String> caps = Arrays.asList(accepted.split(","));
+        int upgrade = !caps.contains("v2") ? 0 : caps.contains("deflate") ? Protocol.V2_DEFLATE : Protocol.V2;
+        return new Frame("CAPS", out -> {
+            out.writeString(accepted);
+        }, ByteBuffer.allocate(0), false, upgrade);
+    }
+
+    // [추가] v2 전용 - 접속자 번호 <-> 닉네임 (v2 에서는 보낸 사람이 번호로만 옴)
+    static Frame user(int id, String name) {
+        return new Frame("USER", out -> {
+            out.writeInt(id);
+            out.writeString(name);
+        }, ByteBuffer.allocate(0), true, 0);
+    }
+
+    static Frame userLeft(int id) {
+        return new Frame("USER_LEFT", out -> {
+            out.writeInt(id);
+        }, ByteBuffer.allocate(0), true, 0);
+    }
+
+    // [추가] 번호가 붙은 채팅 (CAPS "history" 접속자용, room 이 "" 이면 전체) - 이 번호로 "X 이후" 기록을 요청할 수 있음
+    static Frame chat(MessageStore.Message m, int senderId) {
+        return new Frame("CHAT", out -> {
+            out.writeLong(m.id);
+            out.writeLong(m.time);
+            out.writeString(m.room);
+            out.writeSender(m.sender, senderId);
+            out.writeString(m.text);
+        });
+    }
+
+    // [추가] 기록 재생 - 이미 나간 사람도 있으므로 보낸 사람은 항상 닉네임
+    static Frame history(MessageStore.Message m) {
+        return new Frame("HISTORY", out -> {
+            out.writeLong(m.id);
+            out.writeLong(m.time);
+            out.writeString(m.room);
+            out.writeString(m.sender);
+            out.writeString(m.text);
+        });
+    }
+
+    static Frame historyEnd(String room, int count) {
+        return new Frame("HISTORY_END", out -> {
+            out.writeString(room);
+            out.writeInt(count);
+        });
+    }
+
+    // [추가] 청크 파일 전송 (시작 / 조각 / 끝)
+    static Frame fileBegin(String id, String sender, int senderId, String fileName, long size) {
+        return new Frame("FILE_BEGIN", out -> {
+            out.writeString(id);
+            out.writeSender(sender, senderId);
+            out.writeString(fileName);
+            out.writeLong(size);
+        });
+    }
+
+    static Frame fileChunk(String id, long offset, byte[] data) {
+        return new Frame("FILE_CHUNK", out -> {
+            out.writeString(id);
+            out.writeLong(offset);
+            out.writeInt(data.length);
+        }, ByteBuffer.wrap(data), false, 0);
+    }
+
+    static Frame fileEnd(String id) {
+        return new Frame("FILE_END", out -> {
+            out.writeString(id);
+        });
+    }
+
+    // [추가] 방 메시지 / 방 이미지 / 방 파일 시작 / 방 목록 ("이름:인원,이름:인원")
+    static Frame roomText(String room, String sender, int senderId, String message) {
+        return new Frame("ROOM_TEXT", out -> {
+            out.writeString(room);
+            out.writeSender(sender, senderId);
+            out.writeString(message);
+        });
+    }
+
+    static Frame roomImage(String room, String sender, int senderId, String fileName, byte[] data) {
+        return new Frame("ROOM_IMAGE", out -> {
+            out.writeString(room);
+            out.writeSender(sender, senderId);
+            out.writeString(fileName);
+            out.writeInt(data.length);
+        }, ByteBuffer.wrap(data), false, 0);
+    }
+
+    // [추가] 방 이미지의 해시 참조
+    static Frame roomImageRef(String room, String sender, int senderId, String fileName, String hash) {
+        return new Frame("ROOM_IMAGE_REF", out -> {
+            out.writeString(room);
+            out.writeSender(sender, senderId);
+            out.writeString(fileName);
+            out.writeString(hash);
+        });
+    }
+
+    static Frame roomFileBegin(String id, String room, String sender, int senderId, String fileName, long size) {
+        return new Frame("ROOM_FILE_BEGIN", out -> {
+            out.writeString(id);
+            out.writeString(room);
+            out.writeSender(sender, senderId);
+            out.writeString(fileName);
+            out.writeLong(size);
+        });
+    }
+
+    static Frame roomList(String rooms) {
+        return new Frame("ROOM_LIST", out -> {
+            out.writeString(rooms);
+        });
+    }
+
+    // [추가] 연결 확인 (CAPS "heartbeat") - 필드 없음, PING 을 받은 쪽은 PONG 으로 답함
+    // 내용이 항상 같으므로 하나를 만들어두고 계속 씀 (인코딩도 버전마다 한 번만)
+    // [변경] 방송 번호 없음 - 같은 프레임이 한 수신자에게 계속 감
+    static final Frame PING = new Frame("PING", out -> {}).unsequenced();
+    static final Frame PONG = new Frame("PONG", out -> {}).unsequenced();
+
+    private Frame unsequenced() {
+        seq = 0;
+        return this;
+    }
+
+    // 필드 순서만 적으면 v1 / v2 인코딩은 Output 구현이 나눠서 처리 (타입은 Frame 이 먼저 씀)
+    interface FrameWriter {
+        void write(Protocol.Output out) throws IOException;
+    }
+}
@@ -0,0 +1,136 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+// [추가] 멈춘 연결 정리 - 타이머 휠 하나로 모든 접속자의 다음 확인 시각을 관리 (스레드 모드 / NIO 모드 공용)
+// - 수신 쪽: "heartbeat" 를 합의한 접속자가 pingInterval 동안 아무것도 안 보내면 PING,
+//   readTimeout 동안 계속 조용하면 (PONG 도 없으면) 끊음
+//   (예전 클라이언트는 PING 을 모르므로 보내지 않고, 조용하다는 이유로 끊지도 않음)
+// - 송신 쪽: 큐에 보낼 게 있는데 writeTimeout 동안 write 가 한 번도 진행되지 않으면 끊음 (모든 접속자)
+//   상대가 죽으면 ACK 가 안 와서 소켓 버퍼가 차고 write 가 멈추므로 예전 클라이언트도 여기서 걸림
+// - 패킷을 받을 때는 접속자의 lastReadNanos 만 바꾸고 휠은 건드리지 않음
+//   휠 칸이 돌아왔을 때 다시 계산해서, 아직이면 다음 확인 시각의 칸으로 옮김 (접속자마다 O(1))
+final class IdleReaper implements Runnable {
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final int SLOTS = 512; // 한 바퀴 128초 - 그보다 먼 확인은 한 바퀴 돌고 다시 계산
+    // heartbeat 를 아직 합의하지 않은 접속자도 이 간격으로는 다시 봄 (CAPS 가 나중에 올 수 있음)
+    private static final long MAX_CHECK_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final ChatServer server;
+    private final long pingNanos;
+    private final long readTimeoutNanos;
+    private final long writeTimeoutNanos;
+    // 새 접속자 (다른 스레드에서 넣음) - 휠은 reaper 스레드만 만짐
+    private final Queue<ChatServer.Client> incoming = new ConcurrentLinkedQueue<>();
+    private final List<List<ChatServer.Client>> wheel = new ArrayList<>();
+    private final long startNanos = System.nanoTime();
+    private long cursor; // 다음에 처리할 칸 (시작부터 센 tick 번호)
+
+    IdleReaper(ChatServer server, long pingMillis, long readTimeoutMillis, long writeTimeoutMillis) {
+        this.server = server;
+        this.pingNanos = TimeUnit.MILLISECONDS.toNanos(pingMillis);
+        this.readTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(readTimeoutMillis);
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+        for (int i = 0; i < SLOTS; i++) {
+            wheel.add(new ArrayList<>());
+        }
+    }
+
+    boolean isEnabled() {
+        return readTimeoutNanos > 0 || writeTimeoutNanos > 0;
+    }
+
+    void start() {
+        Thread t = new Thread(this, "idle-reaper");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    void watch(ChatServer.Client c) {
+        incoming.add(c);
+    }
+
+    public void run() {
+        while (true) {
+            try {
+                Thread.sleep(TimeUnit.NANOSECONDS.toMillis(TICK_NANOS));
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            ChatServer.Client c;
+            while ((c = incoming.poll()) != null) {
+                schedule(c, now);
+            }
+            // 늦게 깨어났으면 밀린 칸까지 처리
+            long target = (now - startNanos) / TICK_NANOS;
+            while (cursor <= target) {
+                List<ChatServer.Client> slot = wheel.get((int) (cursor++ % SLOTS));
+                if (slot.isEmpty()) {
+                    continue;
+                }
+                List<ChatServer.Client> due = new ArrayList<>(slot);
+                slot.clear();
+                for (ChatServer.Client d : due) {
+                    long next = check(d, now);
+                    if (next >= 0) {
+                        schedule(d, next);
+                    }
+                }
+            }
+        }
+    }
+
+    // deadline 이 지난 첫 칸에 넣음 (이미 지났으면 다음에 처리할 칸, 최대 한 바퀴 앞)
+    private void schedule(ChatServer.Client c, long deadline) {
+        long tick = Math.max(cursor, (deadline - startNanos + TICK_NANOS - 1) / TICK_NANOS);
+        wheel.get((int) (Math.min(tick, cursor + SLOTS - 1) % SLOTS)).add(c);
+    }
+
+    // 확인할 것을 처리하고 다음 확인 시각을 돌려줌 (-1 이면 휠에서 뺌)
+    private long check(ChatServer.Client c, long now) {
+        if (!server.isConnected(c)) {
+            return -1; // 이미 나감
+        }
+        long next = now + MAX_CHECK_NANOS;
+        if (readTimeoutNanos > 0 && c.caps.contains("heartbeat")) {
+            long lastRead = c.lastReadNanos;
+            long idle = now - lastRead;
+            if (idle >= readTimeoutNanos) {
+                evict(c, "no data for " + TimeUnit.NANOSECONDS.toMillis(idle) + " ms");
+                return -1;
+            }
+            if (pingNanos > 0 && idle >= pingNanos) {
+                // 마지막으로 받은 뒤로 아직 PING 을 안 보냈으면 한 번만 보냄
+                if (c.lastPingNanos - lastRead < 0) {
+                    c.lastPingNanos = now;
+                    c.send(Frame.PING);
+                }
+                // PONG 이 오면 pingInterval 뒤에 다시 PING (readTimeout 까지 기다리면 그 사이 PONG 을 못 보고 끊을 수 있음)
+                next = Math.min(next, Math.min(lastRead + readTimeoutNanos, c.lastPingNanos + pingNanos));
+            } else {
+                next = Math.min(next, lastRead + (pingNanos > 0 ? pingNanos : readTimeoutNanos));
+            }
+        }
+        if (writeTimeoutNanos > 0) {
+            // write 호출 수가 아니라 보낸 바이트로 봄 (NIO 는 소켓 버퍼가 차 있으면 0 바이트 write 도 함)
+            long bytes = c.bytesOut;
+            if (c.getQueueDepth() == 0 || bytes != c.checkedBytesOut) {
+                c.checkedBytesOut = bytes;
+                c.writeStalledSince = now;
+            } else if (now - c.writeStalledSince >= writeTimeoutNanos) {
+                evict(c, "no write progress for " + TimeUnit.NANOSECONDS.toMillis(now - c.writeStalledSince) + " ms");
+                return -1;
+            }
+            // 멈추기 시작한 시점은 확인할 때만 알 수 있으므로 writeTimeout 의 절반마다 봄 (최대 1.5 배 늦게 끊김)
+            next = Math.min(next, Math.min(c.writeStalledSince + writeTimeoutNanos, now + writeTimeoutNanos / 2));
+        }
+        return next;
+    }
+
+    private void evict(ChatServer.Client c, String reason) {
+        System.out.println(c.getUserName() + " timed out (" + reason + "), disconnecting.");
+        server.metrics.reaped();
+        c.disconnect();
+    }
+}
@@ -0,0 +1,101 @@
+import java.io.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+
+// [추가] 최근 이미지 보관소 (서버) - 내용 해시 -> 바이트, 전체 크기 기준 LRU
+// - 해시는 SHA-256 16진수 (클라이언트 ImageStore 도 같은 해시로 파일을 찾음)
+// - 같은 이미지가 다시 올라오면 "imageref" 접속자 중 이미 받은 사람에게는 IMAGE_REF(해시)만 보냄
+// - 해시만 받았는데 갖고 있지 않은 접속자 (저장소에서 지웠거나, 큐가 밀려서 버려진 경우)는 IMAGE_GET 으로 여기서 다시 받아감
+final class ImageCache {
+    static final int HASH_LENGTH = 64;
+    // 접속자 한 명에게 보냈다고 기억해두는 해시 수 (넘으면 오래된 것부터 잊고 다시 전체를 보냄)
+    static final int KNOWN_PER_CLIENT = 256;
+
+    private final long capacity;
+    private long size;
+    private final LinkedHashMap<String, byte[]> blobs = new LinkedHashMap<>(16, 0.75f, true);
+
+    ImageCache(long capacityBytes) {
+        this.capacity = capacityBytes;
+    }
+
+    // 넣고 해시를 돌려줌 (이미 있으면 최근 것으로만 올림, 보관소보다 큰 이미지는 해시만)
+    String put(byte[] data) {
+        String hash = hash(data);
+        synchronized (this) {
+            if (blobs.get(hash) == null && data.length <= capacity) {
+                blobs.put(hash, data);
+                size += data.length;
+                Iterator<byte[]> it = blobs.values().iterator();
+                while (size > capacity) {
+                    size -= it.next().length;
+                    it.remove();
+                }
+            }
+        }
+        return hash;
+    }
+
+    // 없으면 (밀려났으면) null
+    synchronized byte[] get(String hash) {
+        return blobs.get(hash);
+    }
+
+    synchronized int count() {
+        return blobs.size();
+    }
+
+    synchronized long bytes() {
+        return size;
+    }
+
+    // 접속자별 "이미 보낸 해시" 목록 - 여러 방송 스레드가 같이 쓰므로 동기화, 최근에 쓴 순서로 KNOWN_PER_CLIENT 개까지
+    static Set<String> newKnownSet() {
+        return Collections.synchronizedSet(Collections.newSetFromMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > KNOWN_PER_CLIENT;
+            }
+        }));
+    }
+
+    static String hash(byte[] data) {
+        MessageDigest md = sha256();
+        md.update(data);
+        return HexFormat.of().formatHex(md.digest());
+    }
+
+    // 파일 전체를 읽으면서 해시 (청크로 받은 파일 - 메모리에 한 번에 올리지 않음)
+    static String hash(Path file) throws IOException {
+        MessageDigest md = sha256();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                md.update(buf, 0, n);
+            }
+        }
+        return HexFormat.of().formatHex(md.digest());
+    }
+
+    static boolean isHash(String s) {
+        if (s.length() != HASH_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.digit(s.charAt(i), 16) < 0 || Character.isUpperCase(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // 모든 JDK 에 있음
+        }
+    }
+}
@@ -0,0 +1,82 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// [추가] 받은 이미지 저장소 (클라이언트) - 내용 해시(ImageCache.hash)로 찾고, 같은 이미지는 한 번만 저장
+// - 파일 이름은 "<해시>_<원래 이름>" (downloads/ 에 그대로 두므로 열어봐도 알아볼 수 있음)
+// - 시작할 때 폴더를 한 번 훑어서 해시 -> 파일 목록을 만들고, 그 뒤로는 이 목록만 봄
+// - 수신 스레드와 보내는 쪽(화면)이 같이 쓰므로 목록은 동시성 Map, 파일은 임시 파일에 쓴 뒤 이름을 바꿈
+final class ImageStore {
+    private final Path dir;
+    private final Map<String, Path> files = new ConcurrentHashMap<>();
+
+    ImageStore(Path dir) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        try (DirectoryStream<Path> list = Files.newDirectoryStream(dir)) {
+            for (Path p : list) {
+                String name = p.getFileName().toString();
+                int cut = name.indexOf('_');
+                if (cut == ImageCache.HASH_LENGTH && ImageCache.isHash(name.substring(0, cut))) {
+                    files.putIfAbsent(name.substring(0, cut), p);
+                }
+            }
+        }
+    }
+
+    // 저장된 파일 (없거나 지워졌으면 null)
+    Path find(String hash) {
+        Path p = files.get(hash);
+        if (p != null && !Files.exists(p)) {
+            files.remove(hash, p);
+            return null;
+        }
+        return p;
+    }
+
+    // 저장된 바이트 (없으면 null)
+    byte[] read(String hash) throws IOException {
+        Path p = find(hash);
+        if (p == null) {
+            return null;
+        }
+        try {
+            return Files.readAllBytes(p);
+        } catch (NoSuchFileException e) {
+            files.remove(hash, p);
+            return null;
+        }
+    }
+
+    // 이미 있으면 그 파일, 없으면 새로 씀
+    Path put(String fileName, byte[] data) throws IOException {
+        String hash = ImageCache.hash(data);
+        Path p = find(hash);
+        if (p != null) {
+            return p;
+        }
+        Path tmp = Files.createTempFile(dir, hash, ".tmp");
+        Files.write(tmp, data);
+        return adopt(hash, tmp, fileName);
+    }
+
+    // 다 받은 파일(.part)을 저장소로 옮김 - 이미 있는 이미지면 받은 파일은 지우고 있던 파일을 돌려줌
+    Path putFile(Path part, String fileName) throws IOException {
+        String hash = ImageCache.hash(part);
+        Path p = find(hash);
+        if (p != null) {
+            Files.delete(part);
+            return p;
+        }
+        return adopt(hash, part, fileName);
+    }
+
+    private Path adopt(String hash, Path file, String fileName) throws IOException {
+        // 파일명은 다른 사용자가 보낸 값이므로 경로 부분은 버림
+        String name = new File(fileName).getName();
+        Path target = dir.resolve(hash + "_" + (name.isEmpty() ? "image" : name));
+        Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+        files.put(hash, target);
+        return target;
+    }
+}
@@ -0,0 +1,61 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// [추가] 지연 시간 히스토그램 (나노초) - LatencyLoadTest / ChatBot 공용
+// - 2의 거듭제곱 구간마다 64칸이라 오차는 2% 이내, 칸 수가 고정이라 값이 아무리 많아도 메모리는 그대로
+// - 여러 수신 스레드가 락 없이 동시에 record 가능
+final class LatencyHistogram {
+    private static final int SUB = 64;
+    private final AtomicLongArray counts = new AtomicLongArray(64 * SUB);
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(nanos));
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    long count() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    // p (0~100) 번째 백분위 값 - 그 칸의 위쪽 경계로 돌려줌
+    long percentile(double p) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * p / 100.0);
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upper(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    // 128 미만은 값 그대로, 그 위는 최상위 7비트만 남김 (exp = 버린 비트 수)
+    private static int bucket(long v) {
+        int exp = Math.max(0, 63 - Long.numberOfLeadingZeros(v) - 6);
+        return exp * SUB + (int) (v >>> exp);
+    }
+
+    private static long upper(int bucket) {
+        if (bucket < 2 * SUB) {
+            return bucket;
+        }
+        int exp = bucket / SUB - 1;
+        long top = bucket - exp * SUB;
+        return ((top + 1) << exp) - 1;
+    }
+}
@@ -0,0 +1,179 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+// [추가] 실제 소켓으로 전체 채팅 전달 지연 시간 측정 (loopback)
+// 사용법: java LatencyLoadTest [--clients=1000] [--rate=100] [--seconds=10] [--mode=thread|virtual|nio] [--port=N]
+//   --rate     : 전체 접속자가 합쳐서 1초에 보내는 TEXT 수 (전달 수는 rate x clients)
+//   --port     : 이미 떠 있는 서버에 붙음 (없으면 --mode 로 서버를 별도 JVM 으로 띄움, 기록 저장 없이)
+// - 접속자마다 v1 으로 닉네임을 보내고, 수신 스레드 하나가 SYSTEM / TEXT 를 읽음
+// - 보내는 쪽은 메시지에 "보내기로 한 시각"(nanoTime)을 넣음 - 보내는 스레드가 밀려도 그만큼 지연에 포함됨
+// - 받은 쪽은 지금 시각과의 차이를 히스토그램에 넣고, 끝나면 p50 / p99 / p99.9 / 최대를 출력
+// (연결 수가 많으면 ulimit -n 을 먼저 올려야 함)
+// 접속자 수별 전달 지연 분포는 JMH 로도 잼 - jmh/bench/DeliveryBenchmark (mvn -B -Pjmh package)
+public class LatencyLoadTest {
+    private static final String PREFIX = "t=";
+
+    public static void main(String[] args) throws Exception {
+        int clients = 1000;
+        int rate = 100;
+        int seconds = 10;
+        String mode = "thread";
+        int port = -1;
+        for (String arg : args) {
+            if (arg.startsWith("--clients=")) {
+                clients = Integer.parseInt(arg.substring("--clients=".length()));
+            } else if (arg.startsWith("--rate=")) {
+                rate = Integer.parseInt(arg.substring("--rate=".length()));
+            } else if (arg.startsWith("--seconds=")) {
+                seconds = Integer.parseInt(arg.substring("--seconds=".length()));
+            } else if (arg.startsWith("--mode=")) {
+                mode = arg.substring("--mode=".length());
+            } else if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            }
+        }
+
+        Process server = null;
+        if (port < 0) {
+            try (ServerSocket probe = new ServerSocket(0)) {
+                port = probe.getLocalPort();
+            }
+            server = startServer(mode, port);
+        }
+
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicBoolean measuring = new AtomicBoolean();
+        LongAdder received = new LongAdder();
+        List<Socket> sockets = new ArrayList<>();
+        List<DataOutputStream> outs = new ArrayList<>();
+        try {
+            long begin = System.nanoTime();
+            for (int i = 0; i < clients; i++) {
+                try {
+                    Socket socket = new Socket("127.0.0.1", port);
+                    socket.setTcpNoDelay(true);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    out.writeUTF("load" + i);
+                    out.flush();
+                    sockets.add(socket);
+                    outs.add(out);
+                    startReader(socket, msg -> {
+                        long now = System.nanoTime();
+                        if (measuring.get() && msg.startsWith(PREFIX)) {
+                            latency.record(now - Long.parseLong(msg.substring(PREFIX.length())));
+                            received.increment();
+                        }
+                    });
+                } catch (IOException e) {
+                    System.out.println("stopped at " + i + " connections: " + e.getMessage());
+                    break;
+                }
+            }
+            System.out.printf("connected %d clients in %d ms%n", sockets.size(), (System.nanoTime() - begin) / 1_000_000);
+            // 입장 알림이 다 빠질 때까지 잠시 대기
+            Thread.sleep(2000);
+
+            measuring.set(true);
+            long sent = 0;
+            long interval = 1_000_000_000L / Math.max(1, rate);
+            long start = System.nanoTime();
+            long end = start + seconds * 1_000_000_000L;
+            for (long due = start; due < end; due += interval) {
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                DataOutputStream out = outs.get((int) (sent % outs.size()));
+                try {
+                    out.writeUTF("TEXT");
+                    out.writeUTF(PREFIX + due);
+                    out.flush();
+                    sent++;
+                } catch (IOException e) {
+                    System.out.println("send failed: " + e.getMessage());
+                    break;
+                }
+            }
+            // 늦게 오는 것까지 받을 시간
+            Thread.sleep(2000);
+            measuring.set(false);
+
+            long expected = sent * sockets.size();
+            System.out.printf("mode=%s clients=%d sent=%d delivered=%d/%d (%.2f%%)%n",
+                    server != null ? mode : "external", sockets.size(), sent, received.sum(), expected,
+                    expected == 0 ? 0.0 : received.sum() * 100.0 / expected);
+            System.out.printf("latency ms: p50=%.2f p99=%.2f p99.9=%.2f max=%.2f%n",
+                    latency.percentile(50) / 1e6, latency.percentile(99) / 1e6,
+                    latency.percentile(99.9) / 1e6, latency.max() / 1e6);
+        } finally {
+            for (Socket s : sockets) {
+                try {
+                    s.close();
+                } catch (IOException ignored) {}
+            }
+            if (server != null) {
+                server.destroy();
+                server.waitFor();
+            }
+        }
+    }
+
+    // jmh/BenchFixture (DeliveryBenchmark) 도 같은 방법으로 서버를 띄움
+    static Process startServer(String mode, int port) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process server = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "ChatServer", String.valueOf(port), "--mode=" + mode, "--no-history", "--max-msgs-per-sec=0")
+                .redirectErrorStream(true)
+                .start();
+        // (접속자 한 명이 보내는 속도를 올려도 서버의 보내기 제한에 걸리지 않도록 메시지 수 제한은 끔)
+        // 서버 출력은 계속 읽어줘야 파이프가 막히지 않음 (접속 / 종료 줄은 버림)
+        CountDownLatch started = new CountDownLatch(1);
+        Thread pump = new Thread(() -> {
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(server.getInputStream()))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (line.startsWith("Chat server")) {
+                        started.countDown();
+                    }
+                }
+            } catch (IOException ignored) {}
+        });
+        pump.setDaemon(true);
+        pump.start();
+        if (!started.await(10, TimeUnit.SECONDS)) {
+            server.destroy();
+            throw new IOException(mode + " server did not start");
+        }
+        return server;
+    }
+
+    // 접속자 하나의 수신 스레드 - v1 클라이언트가 받는 SYSTEM / TEXT 만 처리
+    // 받은 TEXT 내용은 onText 로 넘김 (jmh/BenchFixture 와 같이 씀)
+    static void startReader(Socket socket, Consumer<String> onText) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        Thread t = new Thread(null, () -> {
+            try {
+                while (true) {
+                    String type = in.readUTF();
+                    if ("TEXT".equals(type)) {
+                        in.readUTF(); // 보낸 사람
+                        onText.accept(in.readUTF());
+                    } else if ("SYSTEM".equals(type)) {
+                        in.readUTF();
+                    } else {
+                        throw new IOException("unexpected packet: " + type);
+                    }
+                }
+            } catch (IOException e) {
+                // 연결 종료
+            }
+        }, "reader", 128 * 1024); // 연결이 많으므로 스택을 작게
+        t.setDaemon(true);
+        t.start();
+    }
+}
@@ -0,0 +1,425 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.function.BooleanSupplier;
+import java.util.zip.CRC32;
+
+// [추가] 큰 채팅 로그(chatlog.txt)를 통째로 읽지 않고 보기 위한 인덱스 (LogViewer 에서 사용)
+// - 로그 파일은 1GB 단위로 읽기 전용 mmap, 힙에는 올리지 않음
+// - 줄 인덱스: 64줄마다 시작 위치만 기억 (희소 인덱스) - N번째 줄은 가까운 블록 시작부터 최대 63줄만 건너뜀
+// - 검색 인덱스(chatlog.txt.search): 256줄 덩어리마다 바이트 3-gram 블룸 필터 하나 (4KB)
+//   검색어의 3-gram 이 모두 들어 있을 수 있는 덩어리만 실제로 읽어서 확인함
+//   디스크에 저장해 두고 다음에 열 때는 새로 추가된 덩어리만 만듦 (앞부분은 위치와 첫 줄 CRC 로 같은 파일인지 확인)
+// - update() 는 인덱스 스레드 하나만, line() / search() 는 EDT 나 검색 스레드가 호출
+final class LogIndex implements Closeable {
+    static final int LINES_PER_BLOCK = 64;
+    static final int LINES_PER_CHUNK = 256; // LINES_PER_BLOCK 의 배수
+    static final int BLOOM_BYTES = 4096;
+    static final int BLOOM_HASHES = 3;
+    private static final int MAP_SHIFT = 30; // 1GB 씩 매핑
+    private static final long MAP_SIZE = 1L << MAP_SHIFT;
+
+    // .search 파일: 헤더(MAGIC, 덩어리당 줄 수, 블룸 크기, 해시 수) + 덩어리마다 [시작 위치, 끝 위치, 첫 줄 CRC, 0, 블룸]
+    private static final int SEARCH_MAGIC = 0x4C4F4753; // "LOGS"
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER = 24;
+    private static final int RECORD_SIZE = RECORD_HEADER + BLOOM_BYTES;
+
+    private final Path path;
+    private final Charset charset = Charset.defaultCharset(); // LogWriter(FileWriter) 와 같은 문자셋
+    private Mapped log;
+    private final FileChannel searchChannel;
+    private final Mapped search;
+
+    // 인덱스 스레드가 쓰고 다른 스레드가 읽음 - blocks 를 먼저 채우고 lineCount 를 나중에 올림
+    private volatile long[] blocks = new long[1024]; // blocks[b] = (b * 64)번째 줄의 시작 위치
+    private volatile int lineCount;
+    private volatile int chunkCount;  // 검색에 쓸 수 있는 (확인 끝난) 덩어리 수
+    private volatile int generation;  // 로그가 새 파일로 바뀔 때마다 증가 (화면 캐시 비우기용)
+
+    // 인덱스 스레드 전용
+    private long indexedEnd;   // 여기까지 완전한 줄을 인덱싱함
+    private int storedChunks;  // .search 파일에 들어 있는 덩어리 수
+    private final byte[] bloom = new byte[BLOOM_BYTES];
+
+    LogIndex(File file) throws IOException {
+        this.path = file.toPath();
+        this.log = openLog();
+        this.searchChannel = FileChannel.open(Paths.get(path + ".search"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.search = new Mapped(searchChannel, null);
+        openSearchFile();
+    }
+
+    int lineCount() {
+        return lineCount;
+    }
+
+    int generation() {
+        return generation;
+    }
+
+    // ---- 인덱싱 (인덱스 스레드) ----
+
+    // 새로 써진 줄을 인덱싱 - progress 는 큰 파일을 처음 읽을 때 중간중간 불림 (화면 갱신용)
+    // 로그가 바뀌었으면 (LogWriter 가 돌려서 새 파일이 생겼거나 파일이 줄었으면) 처음부터 다시 함
+    void update(Runnable progress) throws IOException {
+        if (replaced()) {
+            reset();
+        }
+        long size = log.channel.size();
+        if (size <= indexedEnd) {
+            return;
+        }
+        log.remap(size);
+        long[] b = blocks;
+        int lines = lineCount;
+        long pos = indexedEnd;
+        long lastReport = pos;
+        while (pos < size) {
+            MappedByteBuffer part = log.part(pos);
+            long partStart = pos & ~(MAP_SIZE - 1);
+            int limit = (int) Math.min(part.limit(), size - partStart);
+            for (int i = (int) (pos - partStart); i < limit; i++) {
+                if (part.get(i) != '\n') {
+                    continue;
+                }
+                long next = partStart + i + 1;
+                lines++;
+                if (lines % LINES_PER_BLOCK == 0) {
+                    int blockNo = lines / LINES_PER_BLOCK;
+                    if (blockNo >= b.length) {
+                        b = Arrays.copyOf(b, b.length * 2);
+                        blocks = b;
+                    }
+                    b[blockNo] = next;
+                    if (lines % LINES_PER_CHUNK == 0) {
+                        lineCount = lines;
+                        chunkDone(lines / LINES_PER_CHUNK - 1, b[(lines - LINES_PER_CHUNK) / LINES_PER_BLOCK], next);
+                    }
+                }
+                indexedEnd = next;
+            }
+            pos = partStart + limit;
+            if (pos - lastReport >= 8 * 1024 * 1024) {
+                lineCount = lines;
+                publishChunks();
+                progress.run();
+                lastReport = pos;
+            }
+        }
+        lineCount = lines;
+        publishChunks();
+    }
+
+    // 덩어리 하나가 끝남 - 저장된 것과 같으면 그대로 쓰고, 다르면 거기서부터 .search 를 잘라내고 새로 만듦
+    private void chunkDone(int k, long start, long end) throws IOException {
+        int crc = firstLineCrc(start);
+        if (k < storedChunks) {
+            ByteBuffer rec = ByteBuffer.allocate(RECORD_HEADER);
+            searchChannel.read(rec, HEADER_SIZE + (long) k * RECORD_SIZE);
+            if (rec.getLong(0) == start && rec.getLong(8) == end && rec.getInt(16) == crc) {
+                return;
+            }
+            storedChunks = k;
+            chunkCount = Math.min(chunkCount, k);
+            searchChannel.truncate(HEADER_SIZE + (long) k * RECORD_SIZE);
+        }
+        Arrays.fill(bloom, (byte) 0);
+        int gram = 0; // 최근 3바이트
+        int count = 0;
+        for (long p = start; p < end; p++) {
+            int c = fold(log.get(p));
+            if (c == '\n' || c == '\r') {
+                count = 0;
+                continue;
+            }
+            gram = (gram << 8 | c) & 0xffffff;
+            if (++count >= 3) {
+                addKey(bloom, gram);
+            }
+        }
+        ByteBuffer rec = ByteBuffer.allocate(RECORD_SIZE);
+        rec.putLong(start).putLong(end).putInt(crc).putInt(0).put(bloom).flip();
+        long at = HEADER_SIZE + (long) k * RECORD_SIZE;
+        while (rec.hasRemaining()) {
+            at += searchChannel.write(rec, at);
+        }
+        storedChunks = k + 1;
+    }
+
+    // 새로 쓴 덩어리를 매핑에 반영한 뒤에 검색에 보이게 함
+    private void publishChunks() throws IOException {
+        int usable = Math.min(storedChunks, lineCount / LINES_PER_CHUNK);
+        if (usable > chunkCount) {
+            search.remap(HEADER_SIZE + (long) usable * RECORD_SIZE);
+            chunkCount = usable;
+        }
+    }
+
+    private int firstLineCrc(long start) {
+        CRC32 crc = new CRC32();
+        for (long p = start; ; p++) {
+            byte c = log.get(p);
+            if (c == '\n') {
+                return (int) crc.getValue();
+            }
+            crc.update(c);
+        }
+    }
+
+    // 같은 경로에 다른 파일이 생겼거나 (로그 돌리기) 파일이 줄었으면 true
+    private boolean replaced() throws IOException {
+        try {
+            Object key = fileKey();
+            return Files.size(path) < indexedEnd || (key != null && !key.equals(log.key));
+        } catch (NoSuchFileException e) {
+            return false; // 돌리는 중 - 다음에 다시 봄
+        }
+    }
+
+    // 파일 고유 번호 (리눅스는 inode, 윈도우는 null) - 이름이 같아도 다른 파일인지 구분
+    private Object fileKey() throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    }
+
+    private Mapped openLog() throws IOException {
+        Object key = fileKey();
+        return new Mapped(FileChannel.open(path, StandardOpenOption.READ), key);
+    }
+
+    private void reset() throws IOException {
+        Mapped old = log;
+        log = openLog();
+        old.channel.close();
+        lineCount = 0;
+        chunkCount = 0;
+        blocks = new long[1024];
+        indexedEnd = 0;
+        generation++;
+    }
+
+    private void openSearchFile() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        searchChannel.read(header, 0);
+        boolean ok = header.getInt(0) == SEARCH_MAGIC && header.getInt(4) == LINES_PER_CHUNK
+                && header.getInt(8) == BLOOM_BYTES && header.getInt(12) == BLOOM_HASHES;
+        if (!ok) {
+            // 처음이거나 형식이 다름 - 새로 만듦
+            searchChannel.truncate(0);
+            header.clear();
+            header.putInt(SEARCH_MAGIC).putInt(LINES_PER_CHUNK).putInt(BLOOM_BYTES).putInt(BLOOM_HASHES).flip();
+            searchChannel.write(header, 0);
+        }
+        storedChunks = (int) ((searchChannel.size() - HEADER_SIZE) / RECORD_SIZE);
+    }
+
+    // ---- 읽기 (EDT / 검색 스레드) ----
+
+    // n번째 줄 (0부터) - 아직 인덱싱 안 된 줄이거나 파일이 바뀌는 중이면 ""
+    String line(int n) {
+        if (n < 0 || n >= lineCount) {
+            return "";
+        }
+        try {
+            Mapped m = log;
+            long start = lineStart(m, n);
+            return decode(m, start, lineEnd(m, start));
+        } catch (RuntimeException e) {
+            return "";
+        }
+    }
+
+    // query 가 들어 있는 줄을 최근 것부터 maxHits 개까지 (대소문자는 ASCII 만 구분 안 함)
+    List<Hit> search(String query, int maxHits, BooleanSupplier cancelled) {
+        List<Hit> hits = new ArrayList<>();
+        String needle = asciiLower(query);
+        if (needle.isEmpty()) {
+            return hits;
+        }
+        // 검색어가 3바이트보다 짧으면 keys 가 비어서 모든 덩어리를 읽음
+        byte[] q = needle.getBytes(charset);
+        int[] keys = new int[Math.max(0, q.length - 2)];
+        for (int i = 0; i + 2 < q.length; i++) {
+            keys[i] = fold(q[i]) << 16 | fold(q[i + 1]) << 8 | fold(q[i + 2]);
+        }
+        Mapped m = log;
+        int lines = lineCount;
+        int chunks = Math.min(chunkCount, lines / LINES_PER_CHUNK);
+        try {
+            // 검색 인덱스가 아직 없는 뒷부분은 그냥 읽음
+            collect(m, chunks * LINES_PER_CHUNK, lines, needle, hits, maxHits);
+            for (int k = chunks - 1; k >= 0 && hits.size() < maxHits && !cancelled.getAsBoolean(); k--) {
+                if (mightContain(k, keys)) {
+                    collect(m, k * LINES_PER_CHUNK, (k + 1) * LINES_PER_CHUNK, needle, hits, maxHits);
+                }
+            }
+        } catch (RuntimeException e) {
+            // 검색 중에 로그가 새 파일로 바뀜 - 찾은 데까지만 돌려줌
+        }
+        return hits;
+    }
+
+    private boolean mightContain(int k, int[] keys) {
+        long base = HEADER_SIZE + (long) k * RECORD_SIZE + RECORD_HEADER;
+        for (int key : keys) {
+            int h1 = hash1(key), h2 = hash2(key);
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                int bit = (h1 + i * h2) & (BLOOM_BYTES * 8 - 1);
+                if ((search.get(base + (bit >>> 3)) & (1 << (bit & 7))) == 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // [from, to) 줄 중 맞는 것을 뒤에서부터 hits 에 추가
+    private void collect(Mapped m, int from, int to, String needle, List<Hit> hits, int maxHits) {
+        if (from >= to) {
+            return;
+        }
+        List<Hit> found = new ArrayList<>();
+        long pos = lineStart(m, from);
+        for (int n = from; n < to; n++) {
+            long end = lineEnd(m, pos);
+            String text = decode(m, pos, end);
+            if (asciiLower(text).contains(needle)) {
+                found.add(new Hit(n, text));
+            }
+            pos = end + 1;
+        }
+        for (int i = found.size() - 1; i >= 0 && hits.size() < maxHits; i--) {
+            hits.add(found.get(i));
+        }
+    }
+
+    private long lineStart(Mapped m, int n) {
+        long pos = blocks[n / LINES_PER_BLOCK];
+        for (int i = n % LINES_PER_BLOCK; i > 0; i--) {
+            pos = lineEnd(m, pos) + 1;
+        }
+        return pos;
+    }
+
+    // pos 부터 시작하는 줄의 '\n' 위치
+    private static long lineEnd(Mapped m, long pos) {
+        while (m.get(pos) != '\n') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private String decode(Mapped m, long start, long end) {
+        if (end > start && m.get(end - 1) == '\r') {
+            end--;
+        }
+        byte[] bytes = new byte[(int) (end - start)];
+        m.get(start, bytes);
+        return new String(bytes, charset);
+    }
+
+    @Override
+    public void close() throws IOException {
+        log.channel.close();
+        searchChannel.close();
+    }
+
+    // ---- 블룸 필터 ----
+
+    private static void addKey(byte[] bloom, int key) {
+        int h1 = hash1(key), h2 = hash2(key);
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = (h1 + i * h2) & (BLOOM_BYTES * 8 - 1);
+            bloom[bit >>> 3] |= 1 << (bit & 7);
+        }
+    }
+
+    private static int hash1(int key) {
+        int h = key * 0x9E3779B1;
+        return h ^ (h >>> 15);
+    }
+
+    private static int hash2(int key) {
+        int h = key * 0x85EBCA6B;
+        return (h ^ (h >>> 13)) | 1;
+    }
+
+    private static int fold(byte b) {
+        int c = b & 0xff;
+        return c >= 'A' && c <= 'Z' ? c + 32 : c;
+    }
+
+    private static String asciiLower(String s) {
+        StringBuilder sb = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                if (sb == null) sb = new StringBuilder(s);
+                sb.setCharAt(i, (char) (c + 32));
+            }
+        }
+        return sb == null ? s : sb.toString();
+    }
+
+    static final class Hit {
+        final int line;
+        final String text;
+
+        Hit(int line, String text) {
+            this.line = line;
+            this.text = text;
+        }
+    }
+
+    // 파일을 MAP_SIZE 조각으로 읽기 전용 매핑 - 파일이 커지면 마지막 조각만 다시 매핑
+    private static final class Mapped {
+        final FileChannel channel;
+        final Object key;
+        private volatile MappedByteBuffer[] parts = new MappedByteBuffer[0];
+
+        Mapped(FileChannel channel, Object key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        void remap(long size) throws IOException {
+            MappedByteBuffer[] old = parts;
+            int count = (int) ((size + MAP_SIZE - 1) >>> MAP_SHIFT);
+            MappedByteBuffer[] next = Arrays.copyOf(old, count);
+            for (int i = Math.max(0, old.length - 1); i < count; i++) {
+                long start = (long) i << MAP_SHIFT;
+                long len = Math.min(MAP_SIZE, size - start);
+                if (next[i] == null || next[i].limit() < len) {
+                    next[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, len);
+                }
+            }
+            parts = next;
+        }
+
+        MappedByteBuffer part(long pos) {
+            return parts[(int) (pos >>> MAP_SHIFT)];
+        }
+
+        byte get(long pos) {
+            return parts[(int) (pos >>> MAP_SHIFT)].get((int) (pos & (MAP_SIZE - 1)));
+        }
+
+        void get(long pos, byte[] dst) {
+            int off = 0;
+            while (off < dst.length) {
+                MappedByteBuffer p = part(pos);
+                int i = (int) (pos & (MAP_SIZE - 1));
+                int n = Math.min(dst.length - off, p.limit() - i);
+                p.get(i, dst, off, n);
+                off += n;
+                pos += n;
+            }
+        }
+    }
+}
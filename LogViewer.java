@@ -0,0 +1,178 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.io.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// [추가] 채팅 로그 보기 창 - 로그를 통째로 읽지 않고 화면에 보이는 줄만 LogIndex 에서 꺼내 그림
+// - JList 에 칸 높이/너비를 고정해두면 보이는 칸만 getElementAt 을 부르므로 줄 수가 수천만이어도 가벼움
+// - 인덱스 스레드가 뒤에서 줄 인덱스를 만들고, 1초마다 새로 써진 줄을 이어서 인덱싱함 (창이 열려 있는 동안)
+// - 검색은 검색 스레드에서 LogIndex.search 로 최근 것부터 MAX_HITS 개까지 찾고, 결과를 누르면 그 줄로 이동
+final class LogViewer extends JDialog {
+    private static final long serialVersionUID = 1L;
+    static final int MAX_HITS = 500;
+    private static final long REFRESH_MS = 1000;
+
+    private final LogIndex index;
+    private final LineModel model = new LineModel();
+    private final JList<String> lines = new JList<>(model);
+    private final DefaultListModel<LogIndex.Hit> hitModel = new DefaultListModel<>();
+    private final JList<LogIndex.Hit> hits = new JList<>(hitModel);
+    private final JTextField searchField = new JTextField();
+    private final JLabel status = new JLabel(" ");
+    private final AtomicInteger searchSeq = new AtomicInteger(); // 새 검색을 시작하면 이전 검색은 멈춤
+    private volatile boolean closed;
+
+    LogViewer(JFrame owner, File logFile) throws IOException {
+        super(owner, "채팅 로그 - " + logFile.getName(), false);
+        this.index = new LogIndex(logFile);
+
+        Font font = new Font("맑은 고딕", Font.PLAIN, 13);
+        lines.setFont(font);
+        lines.setFixedCellHeight(getFontMetrics(font).getHeight() + 2);
+        lines.setFixedCellWidth(2000); // 줄마다 너비를 재지 않도록 고정
+        hits.setFont(font);
+        hits.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int i, boolean sel, boolean focus) {
+                LogIndex.Hit hit = (LogIndex.Hit) value;
+                String text = hit.text.length() > 200 ? hit.text.substring(0, 200) + "..." : hit.text;
+                return super.getListCellRendererComponent(list, (hit.line + 1) + ": " + text, i, sel, focus);
+            }
+        });
+        hits.addListSelectionListener(e -> {
+            LogIndex.Hit hit = hits.getSelectedValue();
+            if (!e.getValueIsAdjusting() && hit != null && hit.line < model.getSize()) {
+                lines.setSelectedIndex(hit.line);
+                lines.ensureIndexIsVisible(hit.line);
+            }
+        });
+
+        JButton searchButton = new JButton("검색");
+        searchButton.addActionListener(e -> startSearch());
+        searchField.addActionListener(e -> startSearch());
+        JPanel top = new JPanel(new BorderLayout(4, 0));
+        top.add(searchField, BorderLayout.CENTER);
+        top.add(searchButton, BorderLayout.EAST);
+
+        JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, new JScrollPane(lines), new JScrollPane(hits));
+        split.setResizeWeight(0.75);
+
+        setLayout(new BorderLayout());
+        add(top, BorderLayout.NORTH);
+        add(split, BorderLayout.CENTER);
+        add(status, BorderLayout.SOUTH);
+        setSize(700, 500);
+        setLocationRelativeTo(owner);
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                closed = true;
+                searchSeq.incrementAndGet();
+            }
+        });
+
+        startIndexer();
+    }
+
+    private void startIndexer() {
+        Thread t = new Thread(() -> {
+            try {
+                while (!closed) {
+                    index.update(() -> SwingUtilities.invokeLater(model::refresh));
+                    SwingUtilities.invokeLater(model::refresh);
+                    Thread.sleep(REFRESH_MS);
+                }
+            } catch (IOException e) {
+                SwingUtilities.invokeLater(() -> status.setText("로그를 읽는 중 오류: " + e.getMessage()));
+            } catch (InterruptedException ignored) {
+            } finally {
+                try {
+                    index.close();
+                } catch (IOException ignored) {}
+            }
+        }, "log-indexer");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void startSearch() {
+        String query = searchField.getText().trim();
+        if (query.isEmpty()) {
+            return;
+        }
+        int seq = searchSeq.incrementAndGet();
+        hitModel.clear();
+        status.setText("검색 중: " + query);
+        Thread t = new Thread(() -> {
+            long t0 = System.currentTimeMillis();
+            List<LogIndex.Hit> found = index.search(query, MAX_HITS, () -> searchSeq.get() != seq);
+            long ms = System.currentTimeMillis() - t0;
+            SwingUtilities.invokeLater(() -> {
+                if (searchSeq.get() != seq) {
+                    return;
+                }
+                for (LogIndex.Hit hit : found) {
+                    hitModel.addElement(hit);
+                }
+                status.setText("'" + query + "' " + found.size() + (found.size() >= MAX_HITS ? "개 이상" : "개") + " (" + ms + "ms)");
+            });
+        }, "log-search");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // 줄 목록 - 내용은 LogIndex 에 있고, 최근에 그린 줄만 조금 캐시 (EDT 전용)
+    private final class LineModel extends AbstractListModel<String> {
+        private static final long serialVersionUID = 1L;
+        private static final int CACHE_LINES = 2048;
+        private int size;
+        private int generation;
+        private final Map<Integer, String> cache = new LinkedHashMap<Integer, String>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                return size() > CACHE_LINES;
+            }
+        };
+
+        @Override
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public String getElementAt(int i) {
+            return cache.computeIfAbsent(i, index::line);
+        }
+
+        // 인덱스가 늘어난 만큼 목록을 늘림 - 맨 아래를 보고 있었으면 계속 맨 아래를 따라감
+        void refresh() {
+            if (generation != index.generation()) {
+                generation = index.generation();
+                cache.clear();
+                if (size > 0) {
+                    int old = size;
+                    size = 0;
+                    fireIntervalRemoved(this, 0, old - 1);
+                }
+            }
+            int n = index.lineCount();
+            if (n <= size) {
+                return;
+            }
+            boolean follow = size == 0 || lines.getLastVisibleIndex() >= size - 1;
+            int old = size;
+            size = n;
+            fireIntervalAdded(this, old, n - 1);
+            if (follow) {
+                lines.ensureIndexIsVisible(n - 1);
+            }
+            if (!status.getText().startsWith("'")) {
+                status.setText(String.format("%,d줄", n));
+            }
+        }
+    }
+}
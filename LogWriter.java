@@ -0,0 +1,164 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// [추가] 클라이언트 채팅 로그 기록기 - 줄을 큐에 넣기만 하고, 실제 파일 쓰기는 전용 스레드가 함
+// - 수신 스레드는 enqueue 만 하므로 메시지가 몰려도 파일 열기/닫기 때문에 멈추지 않음
+// - 쓰기 스레드는 큐에 쌓인 줄을 한꺼번에 꺼내서 버퍼에 쓰고, 큐가 비었거나 FLUSH_INTERVAL_MS 가 지나면 flush
+// - 파일이 maxBytes 를 넘으면 chatlog.txt -> chatlog.txt.1 -> chatlog.txt.2 ... 로 밀어내고 새 파일에 씀
+// - 큐가 가득 차면 (디스크가 아주 느린 경우) 줄을 버리고 개수만 셈 - 수신 스레드를 막지 않는 쪽을 택함
+final class LogWriter {
+    static final int QUEUE_CAPACITY = 65536;
+    static final int BATCH_LINES = 1024;
+    static final long FLUSH_INTERVAL_MS = 200;
+
+    private final File file;
+    private final long maxBytes;
+    private final int maxBackups;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY); // String 또는 flush 요청(CountDownLatch)
+    private final LongAdder dropped = new LongAdder();
+    private final Thread thread;
+    private volatile boolean closed;
+
+    private Writer writer; // 쓰기 스레드 전용
+    private long written;  // 지금 파일 크기 추정 (문자 수 기준이라 실제 바이트보다 작거나 같음)
+    private long rotateRetryAt; // 돌리기에 실패했으면 이 시각까지는 다시 시도하지 않음
+
+    LogWriter(File file, long maxBytes, int maxBackups) {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.maxBackups = maxBackups;
+        this.thread = new Thread(this::run, "log-writer-" + file.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // 수신 스레드 / EDT 에서 호출 - 절대 막히지 않음
+    void append(String line) {
+        if (closed || !queue.offer(line)) {
+            dropped.increment();
+        }
+    }
+
+    // 지금까지 넣은 줄이 파일에 쓰일 때까지 기다림 (로그 보기 전에 사용)
+    boolean flush(long timeoutMs) {
+        CountDownLatch done = new CountDownLatch(1);
+        if (closed || !queue.offer(done)) {
+            return false;
+        }
+        try {
+            return done.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    // 남은 줄을 다 쓰고 파일을 닫음 (종료 훅에서 호출)
+    void close() {
+        closed = true;
+        thread.interrupt();
+        try {
+            thread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Object> batch = new ArrayList<>(BATCH_LINES);
+        long lastFlush = System.currentTimeMillis();
+        boolean dirty = false;
+        try {
+            open();
+            while (!closed || !queue.isEmpty()) {
+                Object first;
+                try {
+                    first = closed ? queue.poll() : queue.poll(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    continue; // close() 가 깨운 것 - 남은 줄을 마저 씀
+                }
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, BATCH_LINES - 1);
+                    for (Object o : batch) {
+                        if (o instanceof String) {
+                            writer.write((String) o);
+                            writer.write(System.lineSeparator());
+                            written += ((String) o).length() + 1;
+                            dirty = true;
+                            if (maxBytes > 0 && written >= maxBytes && System.currentTimeMillis() >= rotateRetryAt) {
+                                flushAndRotate(); // 몰려올 때도 파일이 maxBytes 를 크게 넘지 않도록
+                            }
+                        } else {
+                            flushAndRotate();
+                            dirty = false;
+                            lastFlush = System.currentTimeMillis();
+                            ((CountDownLatch) o).countDown();
+                        }
+                    }
+                    batch.clear();
+                }
+                long now = System.currentTimeMillis();
+                if (dirty && (queue.isEmpty() || now - lastFlush >= FLUSH_INTERVAL_MS)) {
+                    flushAndRotate();
+                    dirty = false;
+                    lastFlush = now;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (writer != null) writer.close();
+            } catch (IOException ignored) {}
+            // 못 쓴 flush 요청이 기다리지 않도록 풀어줌
+            for (Object o : queue) {
+                if (o instanceof CountDownLatch) ((CountDownLatch) o).countDown();
+            }
+        }
+    }
+
+    private void open() throws IOException {
+        writer = new BufferedWriter(new FileWriter(file, true), 64 * 1024);
+        written = file.length();
+    }
+
+    private void flushAndRotate() throws IOException {
+        writer.flush();
+        // 채널의 size() 는 interrupt 에 닫혀버리므로 파일 길이로 확인
+        written = file.length();
+        if (maxBytes > 0 && written >= maxBytes && System.currentTimeMillis() >= rotateRetryAt) {
+            writer.close();
+            try {
+                rotate();
+            } catch (IOException e) {
+                // 윈도우에서 로그 보기 창이 파일을 매핑하고 있으면 이름을 못 바꿈 - 이어서 쓰고 나중에 다시 시도
+                rotateRetryAt = System.currentTimeMillis() + 10_000;
+            }
+            open();
+        }
+    }
+
+    // chatlog.txt.(n-1) -> chatlog.txt.n ... chatlog.txt -> chatlog.txt.1 (가장 오래된 것은 지워짐)
+    private void rotate() throws IOException {
+        Path path = file.toPath();
+        for (int i = maxBackups - 1; i >= 1; i--) {
+            Path from = Paths.get(path + "." + i);
+            if (Files.exists(from)) {
+                Files.move(from, Paths.get(path + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxBackups > 0) {
+            Files.move(path, Paths.get(path + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(path);
+        }
+    }
+}
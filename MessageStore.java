@@ -0,0 +1,492 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+// [추가] 서버 메시지 기록 (append-only 로그)
+// - 디렉터리 아래에 세그먼트 파일("시작 번호.log")을 SEGMENT_SIZE 크기로 미리 잡고 메모리 매핑해서 이어 씀
+// - 세그먼트마다 희소 인덱스("시작 번호.idx") - INDEX_INTERVAL 바이트마다 (메시지 번호, 파일 위치) 하나
+//   "X 번 이후" / "최근 N개" 요청은 인덱스로 위치를 찾아 그 근처만 읽음 (파일 전체를 읽지 않음)
+// - fsync 는 flusher 스레드가 COMMIT_INTERVAL_MS 마다 (또는 GROUP_COMMIT 개가 쌓이면 바로) 모아서 한 번에 (group commit)
+//   -> 서버가 갑자기 죽으면 마지막 몇 ms 분량은 잃을 수 있음
+// - 레코드 = int 본문 길이 + int CRC32C + 본문 [long 번호, long 시각, 방, 보낸 사람, 내용] (문자열은 int 길이 + UTF-8)
+//   다시 켤 때는 마지막 인덱스 위치부터 CRC 가 맞는 레코드까지만 살리고 그 뒤 쓰레기는 지움
+// - [추가] 보관 설정(setRetention)이 있으면 크기 / 기간을 넘은 오래된 세그먼트부터 지움 (지금 쓰는 세그먼트는 남김)
+//   새 세그먼트를 시작할 때와 PRUNE_INTERVAL_MS 마다 확인
+//   (Windows 는 읽는 중인 매핑 파일을 못 지우므로 실패하면 남겨두고 다음에 켤 때 다시 지움)
+public class MessageStore {
+    static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+    static final int INDEX_INTERVAL = 4096;
+    static final long COMMIT_INTERVAL_MS = 10;
+    static final int GROUP_COMMIT = 256;
+    static final long PRUNE_INTERVAL_MS = 60_000;
+    private static final int HEADER = 8;
+    private static final int INDEX_ENTRY = 12;
+
+    // 기록된 메시지 하나 (room 이 "" 이면 전체 채팅)
+    static final class Message {
+        final long id;
+        final long time;
+        final String room;
+        final String sender;
+        final String text;
+
+        Message(long id, long time, String room, String sender, String text) {
+            this.id = id;
+            this.time = time;
+            this.room = room;
+            this.sender = sender;
+            this.text = text;
+        }
+    }
+
+    private final Path dir;
+    private final Object lock = new Object();
+    private final List<Segment> segments = new ArrayList<>(); // 시작 번호 순, 마지막 것에 씀 (lock)
+    private long nextId = 1;
+    private int pending; // 아직 fsync 안 된 레코드 수
+    private long appends;
+    private long commits;
+    private boolean closed;
+    // [추가] 보관할 최대 세그먼트 수 / 마지막 메시지가 이보다 오래된 세그먼트는 지움 (0 이면 제한 없음, lock)
+    private int maxSegments;
+    private long maxAgeMillis;
+    private long lastPrune = System.currentTimeMillis();
+
+    public MessageStore(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        List<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.log")) {
+            for (Path p : files) {
+                String name = p.getFileName().toString();
+                bases.add(Long.parseLong(name.substring(0, name.length() - ".log".length())));
+            }
+        }
+        Collections.sort(bases);
+        for (long base : bases) {
+            Segment seg = new Segment(dir, base);
+            seg.recover();
+            segments.add(seg);
+        }
+        if (segments.isEmpty()) {
+            segments.add(new Segment(dir, 1));
+        }
+        Segment last = active();
+        nextId = last.lastId > 0 ? last.lastId + 1 : last.baseId;
+
+        Thread flusher = new Thread(this::flushLoop, "history-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // 메시지 하나 기록 - 번호를 붙여서 돌려줌 (디스크에 못 쓰면 null)
+    public Message append(String room, String sender, String text) {
+        byte[] r = room.getBytes(StandardCharsets.UTF_8);
+        byte[] s = sender.getBytes(StandardCharsets.UTF_8);
+        byte[] t = text.getBytes(StandardCharsets.UTF_8);
+        int bodyLength = 16 + 12 + r.length + s.length + t.length;
+        if (HEADER + bodyLength > SEGMENT_SIZE) {
+            return null;
+        }
+        synchronized (lock) {
+            if (closed) {
+                return null;
+            }
+            try {
+                Segment seg = active();
+                if (seg.end + HEADER + bodyLength > SEGMENT_SIZE) {
+                    seg = roll();
+                }
+                long id = nextId++;
+                long time = System.currentTimeMillis();
+                ByteBuffer body = ByteBuffer.allocate(bodyLength);
+                body.putLong(id).putLong(time);
+                body.putInt(r.length).put(r).putInt(s.length).put(s).putInt(t.length).put(t);
+                seg.write(id, time, body.array());
+                appends++;
+                if (++pending >= GROUP_COMMIT) {
+                    lock.notifyAll();
+                }
+                return new Message(id, time, room, sender, text);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+    }
+
+    // [추가] 보관 설정 - maxBytes 를 넘거나 (세그먼트 단위로 올림) 마지막 메시지가 maxAgeMillis 보다 오래된 세그먼트를 지움
+    // (0 이면 그 기준은 없음, 바로 한 번 적용)
+    public void setRetention(long maxBytes, long maxAgeMillis) {
+        synchronized (lock) {
+            this.maxSegments = maxBytes > 0 ? (int) Math.max(1, (maxBytes + SEGMENT_SIZE - 1) / SEGMENT_SIZE) : 0;
+            this.maxAgeMillis = maxAgeMillis;
+            prune();
+        }
+    }
+
+    // afterId 보다 번호가 큰 메시지를 오래된 순으로 최대 limit 개 (room 만)
+    // [변경] 인덱스로 afterId 근처부터 읽고, readLast 와 같이 maxScanBytes 까지만 훑음 (메시지가 드문 방이면 찾은 데까지만)
+    //   afterId 이하이거나 다른 방 레코드는 번호 / 방 이름만 보고 건너뜀 (문자열을 만들지 않음)
+    public List<Message> readSince(String room, long afterId, int limit, long maxScanBytes) {
+        List<Segment> segs;
+        List<Integer> ends = new ArrayList<>();
+        int start;
+        synchronized (lock) {
+            int s = 0;
+            while (s + 1 < segments.size() && segments.get(s + 1).baseId <= afterId + 1) {
+                s++;
+            }
+            segs = new ArrayList<>(segments.subList(s, segments.size()));
+            for (Segment seg : segs) {
+                ends.add(seg.end);
+            }
+            start = segs.get(0).indexedPosition(afterId + 1);
+        }
+        byte[] roomBytes = room.getBytes(StandardCharsets.UTF_8);
+        List<Message> result = new ArrayList<>();
+        long scanned = 0;
+        for (int i = 0; i < segs.size() && result.size() < limit && scanned < maxScanBytes; i++) {
+            ByteBuffer data = segs.get(i).map.duplicate();
+            int pos = i == 0 ? start : 0;
+            int end = ends.get(i);
+            while (pos < end && result.size() < limit && scanned < maxScanBytes) {
+                int len = HEADER + data.getInt(pos);
+                if (data.getLong(pos + HEADER) > afterId && inRoom(data, pos, roomBytes)) {
+                    result.add(read(data, pos));
+                }
+                pos += len;
+                scanned += len;
+            }
+        }
+        return result;
+    }
+
+    // 최근 메시지 최대 limit 개 (room 만, 오래된 순) - 인덱스 구간 단위로 뒤에서부터 읽음
+    // [변경] 뒤에서부터 maxScanBytes 까지만 훑음 (메시지가 드문 방 때문에 로그 전체를 훑지 않게)
+    //   다른 방 레코드는 방 이름만 보고 건너뜀 (readSince 와 같이 문자열을 만들지 않음)
+    public List<Message> readLast(String room, int limit, long maxScanBytes) {
+        List<Segment> segs;
+        List<Integer> ends = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        List<int[]> positions = new ArrayList<>();
+        synchronized (lock) {
+            segs = new ArrayList<>(segments);
+            for (Segment seg : segs) {
+                // 인덱스 배열은 커질 때 새 배열로 바뀌고, 이미 쓴 항목은 바뀌지 않으므로 참조만 잡아둠
+                ends.add(seg.end);
+                counts.add(seg.indexCount);
+                positions.add(seg.indexPos);
+            }
+        }
+        byte[] roomBytes = room.getBytes(StandardCharsets.UTF_8);
+        LinkedList<Message> result = new LinkedList<>();
+        long scanned = 0;
+        for (int i = segs.size() - 1; i >= 0 && result.size() < limit && scanned < maxScanBytes; i--) {
+            ByteBuffer data = segs.get(i).map.duplicate();
+            int[] pos = positions.get(i);
+            int blockEnd = ends.get(i);
+            for (int k = counts.get(i) - 1; k >= 0 && result.size() < limit && scanned < maxScanBytes; k--) {
+                List<Message> block = new ArrayList<>();
+                for (int p = pos[k]; p < blockEnd; p += HEADER + data.getInt(p)) {
+                    if (inRoom(data, p, roomBytes)) {
+                        block.add(read(data, p));
+                    }
+                }
+                scanned += blockEnd - pos[k];
+                for (int j = block.size() - 1; j >= 0 && result.size() < limit; j--) {
+                    result.addFirst(block.get(j));
+                }
+                blockEnd = pos[k];
+            }
+        }
+        return result;
+    }
+
+    public long getAppendCount() {
+        synchronized (lock) {
+            return appends;
+        }
+    }
+
+    // fsync 횟수 (append 수보다 훨씬 적으면 group commit 이 잘 되고 있는 것)
+    public long getCommitCount() {
+        synchronized (lock) {
+            return commits;
+        }
+    }
+
+    // 남은 기록을 디스크에 쓰고 종료
+    public void close() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lock.notifyAll();
+            try {
+                active().force();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // [추가] 보관 기준을 넘은 세그먼트를 오래된 것부터 지움 (lock 안에서)
+    private void prune() {
+        lastPrune = System.currentTimeMillis();
+        while (segments.size() > 1) {
+            Segment oldest = segments.get(0);
+            boolean tooMany = maxSegments > 0 && segments.size() > maxSegments;
+            boolean tooOld = maxAgeMillis > 0 && lastPrune - oldest.lastTime > maxAgeMillis;
+            if (!tooMany && !tooOld) {
+                break;
+            }
+            // 읽는 쪽이 잡고 있는 매핑은 파일을 지워도 그대로 읽힘
+            segments.remove(0);
+            oldest.delete(dir);
+        }
+    }
+
+    private Segment active() {
+        return segments.get(segments.size() - 1);
+    }
+
+    // 지금 세그먼트를 마저 디스크에 쓰고 다음 번호로 새 세그먼트 시작 (lock 안에서)
+    private Segment roll() throws IOException {
+        active().force();
+        Segment seg = new Segment(dir, nextId);
+        segments.add(seg);
+        prune();
+        return seg;
+    }
+
+    private void flushLoop() {
+        while (true) {
+            Segment seg;
+            synchronized (lock) {
+                try {
+                    if (pending < GROUP_COMMIT && !closed) {
+                        lock.wait(COMMIT_INTERVAL_MS);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed) {
+                    return;
+                }
+                if ((maxSegments > 0 || maxAgeMillis > 0) && System.currentTimeMillis() - lastPrune >= PRUNE_INTERVAL_MS) {
+                    prune();
+                }
+                if (pending == 0) {
+                    continue;
+                }
+                pending = 0;
+                seg = active();
+            }
+            // fsync 는 lock 밖에서 - 그동안에도 append 는 계속 들어옴 (다음 번에 같이 씀)
+            try {
+                seg.force();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            synchronized (lock) {
+                commits++;
+            }
+        }
+    }
+
+    // pos 레코드의 방 이름이 room 인지 (문자열을 만들지 않고 바이트로 비교)
+    private static boolean inRoom(ByteBuffer data, int pos, byte[] room) {
+        int p = pos + HEADER + 16;
+        if (data.getInt(p) != room.length) {
+            return false;
+        }
+        for (int i = 0; i < room.length; i++) {
+            if (data.get(p + 4 + i) != room[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Message read(ByteBuffer data, int pos) {
+        int p = pos + HEADER;
+        long id = data.getLong(p);
+        long time = data.getLong(p + 8);
+        p += 16;
+        String[] fields = new String[3];
+        for (int i = 0; i < 3; i++) {
+            int len = data.getInt(p);
+            byte[] b = new byte[len];
+            data.get(p + 4, b);
+            fields[i] = new String(b, StandardCharsets.UTF_8);
+            p += 4 + len;
+        }
+        return new Message(id, time, fields[0], fields[1], fields[2]);
+    }
+
+    // 세그먼트 하나 (로그 + 인덱스)
+    private static final class Segment {
+        final long baseId;
+        final MappedByteBuffer map;   // position 은 건드리지 않고 절대 위치로만 읽고 씀
+        final FileChannel indexChannel;
+        long[] indexIds = new long[64];
+        int[] indexPos = new int[64];
+        int indexCount;
+        volatile int end; // 유효한 레코드의 끝 (여기부터 이어 씀)
+        long lastId;   // 마지막 레코드 번호 (없으면 0)
+        long lastTime; // [추가] 마지막 레코드 시각 (보관 기간 확인용, 없으면 0)
+        private int lastIndexed = -INDEX_INTERVAL;
+        private int flushed;
+
+        Segment(Path dir, long baseId) throws IOException {
+            this.baseId = baseId;
+            try (FileChannel log = FileChannel.open(dir.resolve(baseId + ".log"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // 매핑은 채널을 닫아도 유지됨
+                this.map = log.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+            }
+            this.indexChannel = FileChannel.open(dir.resolve(baseId + ".idx"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        void write(long id, long time, byte[] body) throws IOException {
+            CRC32C crc = new CRC32C();
+            crc.update(body);
+            int pos = end;
+            map.putInt(pos, body.length);
+            map.putInt(pos + 4, (int) crc.getValue());
+            map.put(pos + HEADER, body);
+            end = pos + HEADER + body.length;
+            lastId = id;
+            lastTime = time;
+            if (pos - lastIndexed >= INDEX_INTERVAL) {
+                addIndex(id, pos, true);
+            }
+        }
+
+        private void addIndex(long id, int pos, boolean persist) throws IOException {
+            if (indexCount == indexIds.length) {
+                indexIds = Arrays.copyOf(indexIds, indexCount * 2);
+                indexPos = Arrays.copyOf(indexPos, indexCount * 2);
+            }
+            indexIds[indexCount] = id;
+            indexPos[indexCount] = pos;
+            if (persist) {
+                ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY).putLong(id).putInt(pos);
+                entry.flip();
+                indexChannel.write(entry, (long) indexCount * INDEX_ENTRY);
+            }
+            indexCount++;
+            lastIndexed = pos;
+        }
+
+        // id 를 포함하는 (또는 그 이전의 가장 가까운) 인덱스 위치
+        int indexedPosition(long id) {
+            int lo = 0;
+            int hi = indexCount - 1;
+            int found = 0;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (indexIds[mid] <= id) {
+                    found = indexPos[mid];
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return found;
+        }
+
+        // flusher 와 roll() 이 같은 세그먼트를 동시에 쓰지 않도록 synchronized
+        synchronized void force() throws IOException {
+            int upTo = end;
+            if (upTo > flushed) {
+                map.force(flushed, upTo - flushed);
+                flushed = upTo;
+            }
+            indexChannel.force(false);
+        }
+
+        // 다시 켤 때: 인덱스를 읽고, 마지막으로 확인되는 인덱스 위치부터 CRC 가 맞는 데까지 레코드를 따라감
+        void recover() throws IOException {
+            int entries = (int) (indexChannel.size() / INDEX_ENTRY);
+            ByteBuffer idx = ByteBuffer.allocate(entries * INDEX_ENTRY);
+            while (idx.hasRemaining() && indexChannel.read(idx, idx.position()) > 0) {
+                // 끝까지 읽음
+            }
+            idx.flip();
+            for (int i = 0; i < entries; i++) {
+                addIndex(idx.getLong(), idx.getInt(), false);
+            }
+            // 인덱스가 가리키는 레코드가 깨졌으면 (비정상 종료) 그 항목은 버림
+            while (indexCount > 0 && validRecord(indexPos[indexCount - 1]) != indexIds[indexCount - 1]) {
+                indexCount--;
+            }
+            int pos = indexCount > 0 ? indexPos[indexCount - 1] : 0;
+            lastIndexed = indexCount > 0 ? pos : -INDEX_INTERVAL;
+            lastId = 0;
+            long id;
+            while ((id = validRecord(pos)) > 0) {
+                if (pos - lastIndexed >= INDEX_INTERVAL) {
+                    addIndex(id, pos, true);
+                }
+                lastId = id;
+                lastTime = map.getLong(pos + HEADER + 8);
+                pos += HEADER + map.getInt(pos);
+            }
+            end = pos;
+            flushed = pos;
+            indexChannel.truncate((long) indexCount * INDEX_ENTRY);
+            // 뒤에 남은 반쯤 쓴 레코드를 지움 (다음에 켤 때 옛 레코드를 잘못 살리지 않게)
+            for (int page = pos; page < SEGMENT_SIZE; page = (page / 4096 + 1) * 4096) {
+                int pageEnd = Math.min(SEGMENT_SIZE, (page / 4096 + 1) * 4096);
+                boolean dirty = false;
+                for (int i = page; i < pageEnd && !dirty; i++) {
+                    dirty = map.get(i) != 0;
+                }
+                if (!dirty) {
+                    break;
+                }
+                for (int i = page; i < pageEnd; i++) {
+                    map.put(i, (byte) 0);
+                }
+            }
+            map.force();
+        }
+
+        // [추가] 보관 기준을 넘어서 지움 - 실패하면 (Windows 에서 아직 매핑돼 있는 등) 남겨둠
+        void delete(Path dir) {
+            try {
+                indexChannel.close();
+                Files.deleteIfExists(dir.resolve(baseId + ".idx"));
+                Files.deleteIfExists(dir.resolve(baseId + ".log"));
+                System.out.println("history: removed segment " + baseId);
+            } catch (IOException e) {
+                System.out.println("history: could not remove segment " + baseId + ": " + e.getMessage());
+            }
+        }
+
+        // pos 에 온전한 레코드가 있으면 그 번호, 아니면 0
+        private long validRecord(int pos) {
+            if (pos < 0 || pos + HEADER > SEGMENT_SIZE) {
+                return 0;
+            }
+            int len = map.getInt(pos);
+            if (len < 16 || pos + HEADER + len > SEGMENT_SIZE) {
+                return 0;
+            }
+            byte[] body = new byte[len];
+            map.get(pos + HEADER, body);
+            CRC32C crc = new CRC32C();
+            crc.update(body);
+            return (int) crc.getValue() == map.getInt(pos + 4) ? ByteBuffer.wrap(body).getLong() : 0;
+        }
+    }
+}
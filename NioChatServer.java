@@ -0,0 +1,547 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// [추가] NIO(Selector) 기반 서버 모드
+// - accept 전용 스레드 1개 + I/O 워커 스레드 N개 (워커마다 Selector 하나)
+// - 연결 하나당 스레드를 만들지 않으므로 유휴 연결 수만 개도 버틸 수 있음
+// - 프레임 형식은 기존 writeUTF 프로토콜 그대로 (기존 ChatClient 그대로 접속 가능), UPGRADE 이후는 v2
+public class NioChatServer {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    // [추가] 연결별 수신 조각의 최대 크기 - 다 못 받은 레코드 / 프레임 하나 + 읽기 한 번
+    // (v1 ROOM_IMAGE 는 writeUTF 문자열 3개(각 최대 64KB)에 이미지가 붙으므로 그만큼 더)
+    private static final int MAX_PENDING = SessionCrypto.MAX_RECORD_SIZE + 4 + 3 * 65538 + READ_BUFFER_SIZE;
+
+    private final ChatServer server;
+    private final int port;
+    private final Worker[] workers;
+    private final AtomicInteger nextWorker = new AtomicInteger();
+
+    public NioChatServer(ChatServer server, int port, int ioThreads) throws IOException {
+        this.server = server;
+        this.port = port;
+        this.workers = new Worker[Math.max(1, ioThreads)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i);
+        }
+    }
+
+    public void start() throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), server.getAcceptBacklog()); // [변경] --backlog
+        for (Worker w : workers) {
+            w.start();
+        }
+        System.out.println("Chat server (NIO, " + workers.length + " I/O threads) started on port " + port);
+
+        // accept 는 이 스레드에서 블로킹으로 받고, 소켓은 워커들에게 돌아가며 나눠줌
+        while (true) {
+            SocketChannel channel = serverChannel.accept();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            workers[Math.floorMod(nextWorker.getAndIncrement(), workers.length)].register(channel);
+        }
+    }
+
+    // Selector 하나를 돌리는 I/O 스레드
+    class Worker extends Thread {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // 읽기 버퍼는 워커당 하나만 두고 공유 (유휴 연결은 버퍼를 들고 있지 않음)
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        // [추가] 지연 작업 (마감 시각 순) - 워커 스레드 전용
+        private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+
+        Worker(int index) throws IOException {
+            super("nio-worker-" + index);
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                Connection c = new Connection(channel, this);
+                try {
+                    c.key = channel.register(selector, SelectionKey.OP_READ, c);
+                    server.startHandshakeTimer(c); // [추가] 이름을 안 보내는 연결은 마감에 끊음
+                } catch (ClosedChannelException e) {
+                    c.close();
+                }
+            });
+        }
+
+        // 다른 스레드에서 이 워커 스레드로 작업 넘기기
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        // [추가] delayNanos 뒤에 워커 스레드에서 실행 (select 타임아웃 단위라 1ms 정도의 오차)
+        void schedule(Runnable task, long delayNanos) {
+            long deadline = System.nanoTime() + delayNanos;
+            execute(() -> timers.add(new Timer(deadline, task)));
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    Timer next = timers.peek();
+                    if (next == null) {
+                        selector.select();
+                    } else {
+                        long waitMs = TimeUnit.NANOSECONDS.toMillis(next.deadline - System.nanoTime());
+                        if (waitMs > 0) {
+                            selector.select(waitMs);
+                        } else {
+                            selector.selectNow();
+                        }
+                    }
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    long now = System.nanoTime();
+                    while (!timers.isEmpty() && timers.peek().deadline - now <= 0) {
+                        timers.poll().task.run();
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection c = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                c.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                c.flush();
+                            }
+                        } catch (IOException | CancelledKeyException e) {
+                            c.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    static final class Timer implements Comparable<Timer> {
+        final long deadline;
+        final Runnable task;
+
+        Timer(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        public int compareTo(Timer o) {
+            return Long.compare(deadline, o.deadline);
+        }
+    }
+
+    // 연결 하나 (ClientHandler 의 NIO 버전)
+    class Connection extends ChatServer.Client {
+        private final SocketChannel channel;
+        private final Worker worker;
+        private SelectionKey key;
+        private ByteBuffer pending; // 아직 프레임이 완성되지 않은 수신 조각 (없으면 null)
+        private ByteBuffer plain = ByteBuffer.allocate(0); // [추가] 복호화했지만 아직 처리 안 한 평문 (읽기 모드)
+        private final OutboundQueue outQueue = server.newOutboundQueue();
+        private boolean readPaused; // [추가] 바이트 제한에 걸려서 OP_READ 를 잠시 뺀 상태 (워커 스레드 전용)
+        private String claiming;    // [추가] 주인 노드에게 선점을 물어보는 중인 닉네임 - 답이 올 때까지 읽지 않음 (워커 스레드 전용)
+        private OutboundQueue.Batch writing; // 소켓 버퍼가 차서 일부만 보낸 묶음 (워커 스레드 전용)
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private volatile String userName;
+        private volatile boolean closed;
+
+        Connection(SocketChannel channel, Worker worker) {
+            this.channel = channel;
+            this.worker = worker;
+            this.flood = server.newFloodGuard();
+        }
+
+        void onReadable() throws IOException {
+            ByteBuffer buf = worker.readBuffer;
+            buf.clear();
+            int n = channel.read(buf);
+            if (n < 0) {
+                close();
+                return;
+            }
+            server.metrics.bytesIn(n);
+            lastReadNanos = System.nanoTime();
+            // [추가] 바이트 제한 - 빚이 생기면 갚을 때까지 이 연결은 읽지 않음 (이미 받은 것은 아래에서 처리)
+            long wait = flood.chargeBytes(n, lastReadNanos);
+            if (wait > 0) {
+                readPaused = true;
+                updateInterest();
+                worker.schedule(this::resumeReading, wait);
+            }
+            buf.flip();
+            onInput(buf);
+        }
+
+        // [변경] 받은 바이트 처리 - 완성된 프레임은 처리하고 남은 조각은 pending 에 보관
+        private void onInput(ByteBuffer buf) throws IOException {
+            ByteBuffer data = pending != null ? (pending = append(pending, buf)) : buf;
+
+            if (!inputEncrypted) {
+                readFrames(data);
+            }
+            if (inputEncrypted && !closed) {
+                // [추가] UPGRADE 이후 바이트는 암호 레코드 - 완성된 레코드를 평문 버퍼에 풀고 그 안의 프레임을 처리
+                int len;
+                while ((len = SessionCrypto.recordLength(data)) >= 0) {
+                    ByteBuffer record = data.slice();
+                    record.limit(len).position(4);
+                    data.position(data.position() + len);
+                    openRecord(record);
+                }
+                readFrames(plain);
+                if (!plain.hasRemaining()) {
+                    plain = plain.capacity() > READ_BUFFER_SIZE ? ByteBuffer.allocate(0) : plain.clear().limit(0);
+                }
+            }
+
+            // 남은 조각만 연결별 버퍼에 보관
+            if (!data.hasRemaining()) {
+                pending = null;
+            } else if (data == buf) {
+                pending = append(null, buf);
+            }
+        }
+
+        private void resumeReading() {
+            readPaused = false;
+            if (!closed) {
+                updateInterest();
+            }
+        }
+
+        // [추가] 관심 이벤트 - 읽기는 멈춘 동안만 빼고, 쓰기는 보내다 만 묶음이 있을 때만
+        private void updateInterest() {
+            key.interestOps((readPaused || claiming != null ? 0 : SelectionKey.OP_READ) | (writing != null ? SelectionKey.OP_WRITE : 0));
+        }
+
+        // 평문 버퍼 끝에 레코드 하나를 풀어 붙임
+        private void openRecord(ByteBuffer record) throws IOException {
+            int need = record.remaining() - SessionCrypto.TAG_BYTES;
+            if (plain.capacity() - plain.limit() < need) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(plain.remaining() + need, Math.min(plain.capacity() * 2, SessionCrypto.MAX_RECORD_SIZE)));
+                bigger.put(plain).flip();
+                plain = bigger;
+            }
+            int start = plain.position();
+            plain.position(plain.limit()).limit(plain.capacity());
+            crypto.opener.open(record, plain);
+            plain.limit(plain.position()).position(start);
+        }
+
+        // 완성된 프레임은 모두 처리 (gcm 으로 바뀌는 UPGRADE 를 만나면 거기서 멈춤)
+        private void readFrames(ByteBuffer data) throws IOException {
+            while (!closed && claiming == null) {
+                if (inputV2) {
+                    // [추가] v2 - 길이가 앞에 있으므로 복사 없이 수신 버퍼를 잘라서 바로 처리
+                    int len = Protocol.frameLength(data);
+                    if (len < 0) {
+                        break;
+                    }
+                    ByteBuffer frame = data.slice();
+                    frame.limit(len);
+                    data.position(data.position() + len);
+                    Protocol.Reader r = Protocol.Reader.ofFrame(frame);
+                    server.handlePacket(this, r.readType(), r);
+                    if (inputEncrypted && data != plain) {
+                        return;
+                    }
+                    continue;
+                }
+                // 첫 프레임은 사용자 이름(UTF 하나), 그 다음부터는 일반 패킷
+                int len = userName == null ? utfLength(data, data.position()) : frameLength(data);
+                if (len < 0) {
+                    break;
+                }
+                byte[] frame = new byte[len];
+                data.get(frame);
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+                if (userName == null) {
+                    onHandshake(in.readUTF());
+                } else {
+                    server.handlePacket(this, in.readUTF(), Protocol.v1(in));
+                    if (inputEncrypted) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        // [변경] 클러스터 모드에서 주인 노드의 답을 기다려야 하면 워커를 막지 않음
+        // 답이 올 때까지 이 연결은 읽지 않고 (이미 받은 CAPS 등은 pending 에 남김), 답이 오면 워커에서 이어서 처리
+        private void onHandshake(String name) throws IOException {
+            CompletableFuture<Boolean> claim = server.claimNameAsync(name, this);
+            if (claim.isDone()) {
+                finishHandshake(name, claim.join());
+                return;
+            }
+            claiming = name;
+            updateInterest();
+            claim.thenAccept(ok -> worker.execute(() -> {
+                claiming = null;
+                if (closed) {
+                    if (ok) {
+                        server.releaseName(name, this); // 기다리는 동안 끊김 (이름 받기 마감 포함)
+                    }
+                    return;
+                }
+                try {
+                    finishHandshake(name, ok);
+                    if (!closed) {
+                        updateInterest();
+                        onInput(ByteBuffer.allocate(0));
+                    }
+                } catch (IOException | CancelledKeyException e) {
+                    close();
+                }
+            }));
+        }
+
+        private void finishHandshake(String name, boolean ok) throws IOException {
+            if (!ok) {
+                // [추가] 닉네임 중복 - 안내만 보내고 종료 (첫 응답이라 소켓 버퍼는 비어 있음)
+                channel.write(Frame.system("[알림] 이미 사용 중인 닉네임입니다: " + name).buffers(1));
+                close();
+                return;
+            }
+            userName = name;
+            System.out.println(userName + " connected from " + channel.socket().getRemoteSocketAddress());
+            server.joined(this); // [변경] 세션을 이어받는 중이면 입장 알림 없이 CAPS 를 기다림
+        }
+
+        void encryptAfterUpgrade(SessionCrypto.Sealer sealer) {
+            outQueue.encryptAfterUpgrade(sealer);
+        }
+
+        // 보낼 프레임을 큐에 넣고, 워커 스레드에 flush 예약
+        public void send(Frame frame) {
+            if (!firstDelivery(frame)) {
+                return; // [추가] 세션을 이어받는 중에 옛 자리로도 온 프레임
+            }
+            if (!outQueue.offer(frame)) {
+                // DISCONNECT 정책 - 못 따라오는 접속자는 워커 스레드에서 끊음
+                System.out.println(userName + " is too slow, disconnecting.");
+                server.metrics.slowDisconnect();
+                worker.execute(this::close);
+                return;
+            }
+            if (closed) {
+                return; // 닫힌 큐에 넣은 것은 세션으로 넘어감 (OutboundQueue.close)
+            }
+            // 같은 워커가 읽기 처리 중에 보낸 것이면, 한 묶음이 찼을 때 바로 씀
+            // (읽기 한 번에 프레임 수천 개가 들어오면 flush 차례가 오기 전에 큐가 넘칠 수 있음)
+            if (Thread.currentThread() == worker && outQueue.getDepth() >= OutboundQueue.MAX_BATCH_FRAMES) {
+                flush();
+                return;
+            }
+            // [변경] 처리량 우선 설정이면 batchBytes 가 찰 때까지 최대 flushDelay 만큼 모았다가 보냄
+            long delay = server.getFlushDelayNanos();
+            boolean full = delay > 0 && outQueue.getQueuedBytes() >= server.getBatchBytes();
+            if (flushScheduled.compareAndSet(false, true)) {
+                if (delay == 0 || full) {
+                    worker.execute(this::flush);
+                } else {
+                    worker.schedule(this::flush, delay);
+                }
+            } else if (full) {
+                worker.execute(this::flush);
+            }
+        }
+
+        // 워커 스레드에서만 호출
+        void flush() {
+            flushScheduled.set(false);
+            if (closed) {
+                return;
+            }
+            try {
+                // [변경] 쌓인 프레임을 묶어서 gathering write 한 번으로
+                while (writing != null || (writing = outQueue.pollBatch(server.getBatchBytes())) != null) {
+                    long n = channel.write(writing.buffers);
+                    if (writing.hasRemaining()) {
+                        // 소켓 버퍼가 가득 참 - 쓰기 가능해지면 이어서 보냄
+                        server.recordWrite(this, 1, n, null);
+                        updateInterest();
+                        return;
+                    }
+                    server.recordWrite(this, 1, n, writing);
+                    writing = null;
+                }
+                updateInterest();
+            } catch (IOException e) {
+                // [변경] 쓰기 실패는 지표에 남김
+                server.metrics.writeFailed();
+                System.out.println(userName + " write failed: " + e.getMessage());
+                close();
+            } catch (CancelledKeyException e) {
+                close();
+            }
+        }
+
+        // [추가] 다른 스레드에서 부르므로 워커 스레드에서 닫음
+        void disconnect() {
+            worker.execute(this::close);
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            if (rejected && writing == null) {
+                // [추가] 닉네임 거절 안내는 보내고 닫음 (첫 응답 몇 개라 소켓 버퍼에 다 들어감, 못 들어가면 버림)
+                rejected = false;
+                flush();
+                if (closed) {
+                    return;
+                }
+            }
+            closed = true;
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+            // [변경] 보내다 만 묶음 + 큐에 남은 프레임은 세션이 있으면 다시 붙을 때까지 보관 (ChatServer.disconnected)
+            List<Frame> unsent = new ArrayList<>();
+            if (writing != null) {
+                unsent.addAll(Arrays.asList(writing.sent));
+            }
+            unsent.addAll(outQueue.close(ChatServer.lateFrames(this)));
+            writing = null;
+
+            if (userName != null) {
+                System.out.println(userName + " disconnected." + (outQueue.getDroppedCount() > 0 ? " (dropped " + outQueue.getDroppedCount() + " frames)" : ""));
+                server.disconnected(this, unsent);
+            } else {
+                server.handshakeDone(this); // 이름을 받기 전에 끊김
+            }
+        }
+
+        public String getUserName() {
+            return userName;
+        }
+
+        public int getQueueDepth() {
+            return outQueue.getDepth();
+        }
+
+        public long getDroppedCount() {
+            return outQueue.getDroppedCount();
+        }
+    }
+
+    // ---- 프레임 유틸 ----
+
+    // 클라이언트 -> 서버 패킷의 필드 구성
+    // (U: writeUTF 문자열, I: int, L: long, B: int 길이 + 바이트 (최대 MAX_IMAGE_SIZE), C: B 와 같지만 최대 MAX_CHUNK_SIZE)
+    static String layout(String type) {
+        switch (type) {
+            case "TEXT": return "U";
+            case "IMAGE": return "UB";
+            case "WHISPER": return "UU";
+            case "CAPS": return "U";
+            case "FILE_BEGIN": return "UUL";
+            case "FILE_CHUNK": return "ULC";
+            case "FILE_END": return "U";
+            case "ROOM_FILE_BEGIN": return "UUUL";
+            case "JOIN_ROOM": return "U";
+            case "LEAVE_ROOM": return "U";
+            case "ROOM_TEXT": return "UU";
+            case "ROOM_IMAGE": return "UUB";
+            case "HISTORY": return "ULI";
+            case "IMAGE_GET": return "U";
+            default: return ""; // 모르는 타입은 스레드 모드와 똑같이 타입만 읽고 무시
+        }
+    }
+
+    // position 부터 완성된 패킷 하나가 버퍼에 있으면 그 바이트 수, 아직 모자라면 -1
+    static int frameLength(ByteBuffer b) throws IOException {
+        int start = b.position();
+        int typeLen = utfLength(b, start);
+        if (typeLen < 0) {
+            return -1;
+        }
+        byte[] typeBytes = new byte[typeLen - 2];
+        for (int i = 0; i < typeBytes.length; i++) {
+            typeBytes[i] = b.get(start + 2 + i);
+        }
+        String type = new String(typeBytes, StandardCharsets.UTF_8);
+
+        long p = start + typeLen;
+        for (char field : layout(type).toCharArray()) {
+            if (field == 'U') {
+                int len = utfLength(b, (int) p);
+                if (len < 0) {
+                    return -1;
+                }
+                p += len;
+            } else if (field == 'I') {
+                p += 4;
+            } else if (field == 'L') {
+                p += 8;
+            } else {
+                if (p + 4 > b.limit()) {
+                    return -1;
+                }
+                int len = b.getInt((int) p);
+                // 다 모으기 전에 크기부터 확인 (거대한 길이로 버퍼를 키우지 못하게)
+                // [변경] 이미지(B)도 MAX_IMAGE_SIZE 까지만
+                if (len < 0 || len > (field == 'C' ? ChatServer.MAX_CHUNK_SIZE : ChatServer.MAX_IMAGE_SIZE)) {
+                    throw new IOException("bad length: " + len);
+                }
+                p += 4L + len;
+            }
+            if (p > b.limit()) {
+                return -1;
+            }
+        }
+        return (int) (p - start);
+    }
+
+    // writeUTF 로 쓴 문자열 하나의 전체 길이 (2바이트 길이 + 본문), 모자라면 -1
+    static int utfLength(ByteBuffer b, int pos) {
+        if (pos + 2 > b.limit()) {
+            return -1;
+        }
+        int len = 2 + (b.getShort(pos) & 0xffff);
+        return pos + len > b.limit() ? -1 : len;
+    }
+
+    // 읽기 모드 버퍼 pending 뒤에 more 를 이어붙인 (읽기 모드) 버퍼 반환
+    static ByteBuffer append(ByteBuffer pending, ByteBuffer more) throws IOException {
+        if (pending == null) {
+            ByteBuffer b = ByteBuffer.allocate(Math.max(256, more.remaining()));
+            b.put(more).flip();
+            return b;
+        }
+        pending.compact();
+        if (pending.remaining() < more.remaining()) {
+            // [변경] 두 배로 늘리되 MAX_PENDING 을 넘기지 않음 (길이는 frameLength / recordLength 가 먼저 확인)
+            int need = pending.position() + more.remaining();
+            if (need > MAX_PENDING) {
+                throw new IOException("receive buffer overflow: " + need);
+            }
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(Math.min(pending.capacity() * 2, MAX_PENDING), need));
+            pending.flip();
+            bigger.put(pending);
+            pending = bigger;
+        }
+        pending.put(more).flip();
+        return pending;
+    }
+}
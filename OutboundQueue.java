@@ -0,0 +1,292 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.*;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+// [추가] 접속자별 송신 큐 (크기 제한 + 느린 수신자 처리 정책)
+// - broadcast 하는 쪽은 큐에 넣기만 하고 바로 다음 사람으로 넘어감
+// - 실제 소켓 쓰기는 접속자별 writer(스레드 모드) 또는 I/O 워커(NIO 모드)가 담당
+// - writer 는 쌓인 프레임을 pollBatch 로 여러 개 모아서 gathering write 한 번으로 보냄
+// - 프레임은 꺼낼 때 이 연결의 프로토콜 버전(v1/v2)으로 인코딩 - v2 전환 시점이 큐 순서와 정확히 맞음
+// [추가] gcm 을 합의했으면 v2 전환 다음 묶음부터 묶음 하나를 암호 레코드 하나로 만들어 보냄 (SessionCrypto)
+public class OutboundQueue {
+    // 한 번의 write 에 묶는 최대 프레임 수
+    static final int MAX_BATCH_FRAMES = 64;
+
+    // 큐가 꽉 찼을 때 처리 방법
+    enum Policy {
+        DROP_OLDEST, // 가장 오래된 프레임을 버리고 새 프레임을 넣음
+        DISCONNECT,  // 못 따라오는 접속자는 연결을 끊음
+        COALESCE;    // 밀린 프레임을 전부 버리고 "N개 건너뜀" 알림 하나로 대체
+
+        static Policy parse(String s) {
+            return valueOf(s.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private final int capacity;
+    private final Policy policy;
+    private final IntFunction<Frame> skippedNotice; // COALESCE 용 알림 프레임 생성
+    private final LongAdder lockWaitNanos; // [추가] offer 에서 락을 기다린 시간 (서버 전체 합계, null 이면 안 잼)
+    private final ArrayDeque<Frame> queue = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private boolean closed;
+    private boolean finishing; // [추가] 남은 것만 보내고 끝냄 (finish)
+    private Consumer<Frame> afterClose; // [추가] 닫힌 뒤에 들어온 프레임을 넘길 곳 (null 이면 버림)
+    private long queuedBytes;
+    private int version = Protocol.V1; // 이 연결로 보내는 인코딩 (writer 가 upgrade 프레임을 꺼내면 V2 / V2_DEFLATE)
+    private SessionCrypto.Sealer pendingSealer; // upgrade 프레임 다음부터 쓸 암호화
+    private SessionCrypto.Sealer sealer;        // writer 전용 - pollBatch 안에서만 바뀜
+    private volatile int depth;
+    private volatile long dropped;
+
+    public OutboundQueue(int capacity, Policy policy, IntFunction<Frame> skippedNotice) {
+        this(capacity, policy, skippedNotice, null);
+    }
+
+    public OutboundQueue(int capacity, Policy policy, IntFunction<Frame> skippedNotice, LongAdder lockWaitNanos) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.skippedNotice = skippedNotice;
+        this.lockWaitNanos = lockWaitNanos;
+    }
+
+    // 프레임 추가. false 면 DISCONNECT 정책에 걸린 것이므로 호출한 쪽에서 연결을 끊어야 함
+    // [변경] DROP_OLDEST / COALESCE 도 버릴 수 있는 프레임이 하나도 없으면 false
+    public boolean offer(Frame frame) {
+        // [변경] 바로 못 잡았을 때만 시각을 잼 (writer 가 pollBatch 중이면 broadcast 쪽이 여기서 기다림)
+        if (!lock.tryLock()) {
+            long t0 = System.nanoTime();
+            lock.lock();
+            if (lockWaitNanos != null) {
+                lockWaitNanos.add(System.nanoTime() - t0);
+            }
+        }
+        Consumer<Frame> late;
+        try {
+            late = afterClose;
+            if (!closed) {
+                return enqueue(frame);
+            }
+        } finally {
+            lock.unlock();
+        }
+        // 락 밖에서 넘김 (받는 쪽이 다른 큐에 넣을 수 있으므로)
+        if (late != null) {
+            late.accept(frame);
+        }
+        return true;
+    }
+
+    // 락을 잡고 부름
+    private boolean enqueue(Frame frame) {
+        if (queue.size() >= capacity) {
+            switch (policy) {
+                case DISCONNECT:
+                    return closeFull();
+                case DROP_OLDEST:
+                    // [변경] 버리면 안 되는 프레임(Frame.isPinned)은 건너뛰고 그다음 것을 버림
+                    boolean removed = false;
+                    Iterator<Frame> it = queue.iterator();
+                    while (it.hasNext() && !removed) {
+                        Frame oldest = it.next();
+                        if (!oldest.isPinned()) {
+                            queuedBytes -= oldest.length(version);
+                            it.remove();
+                            dropped++;
+                            removed = true;
+                        }
+                    }
+                    // [추가] 전부 버리면 안 되는 프레임이면 자리를 낼 수 없음 - 큐가 한없이 커지지 않도록 DISCONNECT 처럼 끊음
+                    if (!removed) {
+                        return closeFull();
+                    }
+                    break;
+                case COALESCE:
+                    List<Frame> pinned = new ArrayList<>();
+                    for (Frame f : queue) {
+                        if (f.isPinned()) {
+                            pinned.add(f);
+                        }
+                    }
+                    int skipped = queue.size() - pinned.size();
+                    // [추가] DROP_OLDEST 와 같이 - 합칠 프레임이 없으면 끊음
+                    if (skipped == 0) {
+                        return closeFull();
+                    }
+                    clear();
+                    pinned.forEach(this::add);
+                    dropped += skipped;
+                    add(skippedNotice.apply(skipped));
+                    break;
+            }
+        }
+        add(frame);
+        notEmpty.signal();
+        return true;
+    }
+
+    // 꽉 차서 끊음 - 한 번만 false 를 돌려주도록 큐를 닫아둠 (락을 잡고 부름)
+    private boolean closeFull() {
+        dropped += queue.size() + 1;
+        clear();
+        closed = true;
+        notEmpty.signalAll();
+        return false;
+    }
+
+    // writer 스레드용: 프레임이 생길 때까지 대기. 큐가 닫히면 false ([변경] finish 뒤에는 다 보내면 false)
+    // delayNanos > 0 이면 (처리량 우선) 쌓인 바이트가 minBytes 가 되거나 delayNanos 가 지날 때까지 조금 더 모음
+    public boolean awaitFrames(long delayNanos, int minBytes) throws InterruptedException {
+        lock.lock();
+        try {
+            while (queue.isEmpty() && !closed && !finishing) {
+                notEmpty.await(1, TimeUnit.SECONDS);
+            }
+            long remaining = delayNanos;
+            while (!closed && !finishing && queuedBytes < minBytes && remaining > 0) {
+                remaining = notEmpty.awaitNanos(remaining);
+            }
+            return !closed && !queue.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // [추가] 다음 upgrade 프레임(CAPS 응답)을 보낸 뒤로 암호화 - 그 프레임을 큐에 넣기 전에 불러야 함
+    public void encryptAfterUpgrade(SessionCrypto.Sealer sealer) {
+        lock.lock();
+        try {
+            pendingSealer = sealer;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 지금 꺼낼 수 있는 프레임을 maxBytes 까지 (최소 1개, 최대 MAX_BATCH_FRAMES 개) 모아서 반환. 없으면 null
+    // [변경] 암호화 중이면 묶음 전체를 레코드 하나로 (레코드 버퍼는 다음 pollBatch 까지 유효)
+    public Batch pollBatch(int maxBytes) throws IOException {
+        SessionCrypto.Sealer sealWith;
+        List<ByteBuffer> buffers = new ArrayList<>();
+        List<Frame> sent = new ArrayList<>();
+        lock.lock();
+        try {
+            if (closed || queue.isEmpty()) {
+                return null;
+            }
+            sealWith = sealer;
+            // [추가] 암호화 중이면 묶음 하나가 레코드 하나 - 받는 쪽 레코드 한도(SessionCrypto.MAX_RECORD_SIZE) 안으로
+            long limit = sealWith != null ? Math.min(maxBytes, Protocol.MAX_FRAME_SIZE) : maxBytes;
+            long bytes = 0;
+            while (!queue.isEmpty() && sent.size() < MAX_BATCH_FRAMES
+                    && (sent.isEmpty() || bytes + queue.peekFirst().length(version) <= limit)) {
+                Frame f = queue.pollFirst();
+                int len = f.length(version);
+                queuedBytes -= len;
+                if (len > 0) { // 이 버전으로는 보낼 게 없는 프레임은 건너뜀
+                    Collections.addAll(buffers, f.buffers(version));
+                    bytes += len;
+                    sent.add(f);
+                }
+                if (f.upgradeTo() != 0) {
+                    // 이 프레임까지 v1, 다음부터 v2 - 남은 프레임 크기를 v2 기준으로 다시 셈
+                    version = f.upgradeTo();
+                    sealer = pendingSealer;
+                    queuedBytes = 0;
+                    for (Frame rest : queue) {
+                        queuedBytes += rest.length(version);
+                    }
+                    break;
+                }
+            }
+            depth = queue.size();
+        } finally {
+            lock.unlock();
+        }
+        if (buffers.isEmpty()) {
+            return null;
+        }
+        ByteBuffer[] out = buffers.toArray(new ByteBuffer[0]);
+        // 암호화는 락 밖에서 (그동안 broadcast 쪽 offer 가 막히지 않도록)
+        return new Batch(sealWith != null ? new ByteBuffer[] {sealWith.seal(out)} : out, sent.toArray(new Frame[0]));
+    }
+
+    // 한 번의 gathering write 로 보낼 프레임 묶음
+    static final class Batch {
+        final ByteBuffer[] buffers;
+        final int frames;
+        final Frame[] sent; // [추가] 묶음에 든 프레임 (타입별 송신 통계용)
+
+        Batch(ByteBuffer[] buffers, Frame[] sent) {
+            this.buffers = buffers;
+            this.frames = sent.length;
+            this.sent = sent;
+        }
+
+        boolean hasRemaining() {
+            return buffers[buffers.length - 1].hasRemaining();
+        }
+    }
+
+    private void add(Frame frame) {
+        queue.addLast(frame);
+        queuedBytes += frame.length(version);
+        depth = queue.size();
+    }
+
+    private void clear() {
+        queue.clear();
+        queuedBytes = 0;
+        depth = 0;
+    }
+
+    // [추가] 남은 프레임까지만 보내고 끝냄 - writer 는 큐가 비면 awaitFrames 에서 false 로 빠져나옴
+    public void finish() {
+        lock.lock();
+        try {
+            finishing = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 연결 종료 - 남은 프레임은 버리고 대기 중인 writer 를 깨움
+    // [변경] 버린 프레임을 순서대로 돌려줌 (다시 붙을 수 있는 세션이면 ClientSession 이 이어서 보관)
+    // 그 뒤로 들어오는 프레임은 late 로 넘김 (null 이면 버림)
+    public List<Frame> close(Consumer<Frame> late) {
+        lock.lock();
+        try {
+            List<Frame> rest = new ArrayList<>(queue);
+            closed = true;
+            afterClose = late;
+            clear();
+            notEmpty.signalAll();
+            return rest;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public long getQueuedBytes() {
+        lock.lock();
+        try {
+            return queuedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped;
+    }
+}
@@ -0,0 +1,75 @@
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// [추가] 입장 / 퇴장 알림 묶기 - 한꺼번에 들어오거나 나갈 때 (서버 재시작 뒤 재접속 등) 알림을 한 줄로 합침
+// - 알림 한 줄은 모든 접속자에게 가므로 N 명이 몰려 들어오면 N x N 프레임 - windowMillis 동안 모아서 보내면 (창 수) x N
+// - 같은 창 안에서 나갔다 다시 들어온 (또는 들어왔다 바로 나간) 사람은 알리지 않음
+// - 닉네임은 MAX_NAMES 명까지 적고 나머지는 "외 N명"
+// - 번호 <-> 닉네임 (USER / USER_LEFT) 은 v2 접속자가 바로 알아야 하므로 묶지 않음 (ChatServer.announceJoin)
+final class PresenceNotices {
+    static final int MAX_NAMES = 5;
+
+    private final ChatServer server;
+    private final ScheduledExecutorService timer;
+    private final long windowMillis; // 0 이면 묶지 않고 바로 보냄
+    // 닉네임 -> true 입장 / false 퇴장 (들어온 순서대로)
+    private final Map<String, Boolean> pending = new LinkedHashMap<>();
+    private boolean scheduled;
+
+    PresenceNotices(ChatServer server, ScheduledExecutorService timer, long windowMillis) {
+        this.server = server;
+        this.timer = timer;
+        this.windowMillis = windowMillis;
+    }
+
+    void joined(String name) {
+        add(name, true);
+    }
+
+    void left(String name) {
+        add(name, false);
+    }
+
+    private void add(String name, boolean join) {
+        if (windowMillis <= 0) {
+            server.broadcastSystem(message(List.of(name), join));
+            return;
+        }
+        synchronized (this) {
+            Boolean before = pending.remove(name);
+            if (before == null || before == join) {
+                pending.put(name, join);
+            } // 반대 것이 이미 있으면 서로 지움
+            if (!scheduled) {
+                scheduled = true;
+                timer.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void flush() {
+        List<String> joins = new ArrayList<>();
+        List<String> leaves = new ArrayList<>();
+        synchronized (this) {
+            scheduled = false;
+            for (Map.Entry<String, Boolean> e : pending.entrySet()) {
+                (e.getValue() ? joins : leaves).add(e.getKey());
+            }
+            pending.clear();
+        }
+        if (!leaves.isEmpty()) {
+            server.broadcastSystem(message(leaves, false));
+        }
+        if (!joins.isEmpty()) {
+            server.broadcastSystem(message(joins, true));
+        }
+    }
+
+    // 한 명이면 예전과 같은 문장
+    static String message(List<String> names, boolean join) {
+        String who = String.join(", ", names.subList(0, Math.min(names.size(), MAX_NAMES)));
+        who += names.size() > MAX_NAMES ? "님 외 " + (names.size() - MAX_NAMES) + "명이 " : "님이 ";
+        return "[알림] " + who + (join ? "입장" : "퇴장") + "하셨습니다.";
+    }
+}
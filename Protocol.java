@@ -0,0 +1,402 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.*;
+
+// [추가] 프로토콜 v2 - CAPS 로 "v2" 를 합의한 연결만 사용 (예전 클라이언트/서버는 계속 v1)
+// - 프레임 = varint 길이 + 1바이트 opcode + 본문 (길이를 먼저 알 수 있어서 모르는 타입도 건너뛸 수 있음)
+// - 문자열은 varint 바이트 수 + UTF-8 (writeUTF 의 수정 UTF-8 / 64KB 제한 없음)
+// - 정수(길이, 오프셋, 크기)는 varint, 보낸 사람은 닉네임 대신 서버가 붙인 번호 (번호 -> 닉네임은 USER 프레임으로 알려줌)
+// 전환 순서
+//   1. 클라이언트가 CAPS 에 "v2" 를 넣어서 보냄
+//   2. 서버가 "v2" 가 들어간 CAPS 로 응답 - 이 프레임 다음부터 서버 -> 클라이언트는 v2
+//   3. 클라이언트가 UPGRADE 를 마지막 v1 프레임으로 보냄 - 그 다음부터 클라이언트 -> 서버도 v2
+// 필드 순서는 v1 과 같고 인코딩만 다르므로, 패킷 처리 코드는 Input / Output 만 바꿔 끼워서 같이 씀
+// [추가] 압축 - CAPS 에 "deflate" 도 합의하면 (v2 일 때만) 텍스트 프레임을 Deflate 로 압축
+// - 압축된 프레임 = varint 길이 + (opcode | 0x80) + varint 원래 본문 길이 + 압축된 본문
+// - 메시지마다 따로 압축 (같은 프레임을 여러 수신자가 공유하므로 연결별 압축 상태를 두지 않음)
+//   대신 채팅에 자주 나오는 문자열로 만든 DICTIONARY 를 미리 깔아서 짧은 메시지도 줄어들게 함
+// - 본문이 COMPRESS_MIN_BYTES 보다 작거나 압축해도 안 줄어들면 그냥 보냄
+final class Protocol {
+    // v2 프레임 하나의 최대 크기 (큰 파일은 청크 전송을 쓰므로 이미지 한 장 정도면 충분)
+    // [변경] 이미지 최대 크기 + 헤더(타입, 방 이름, 파일 이름 등) 여유 - 서버가 받지 않을 크기까지 할당하지 않도록
+    static final int FRAME_OVERHEAD = 64 * 1024;
+    static final int MAX_FRAME_SIZE = ChatServer.MAX_IMAGE_SIZE + FRAME_OVERHEAD;
+    // [추가] 상대가 보낸 길이만 보고 한 번에 할당하지 않음 - 이 크기부터 실제로 받은 만큼 두 배씩 늘림
+    static final int GROW_STEP = 64 * 1024;
+
+    // 송신 인코딩 (OutboundQueue / Frame 에서 사용)
+    static final int V1 = 1;
+    static final int V2 = 2;
+    static final int V2_DEFLATE = 3;
+
+    static final int COMPRESS_MIN_BYTES = 32;
+    private static final int COMPRESSED = 0x80;
+    private static final Set<String> COMPRESSIBLE = Set.of("TEXT", "WHISPER", "SYSTEM", "ROOM_TEXT", "CHAT", "HISTORY");
+
+    // 미리 깔아두는 사전 - 양쪽이 똑같아야 하므로 바꾸려면 CAPS 이름도 바꿔야 함
+    // (Deflate 는 가까운 거리를 더 짧게 표현하므로 자주 나오는 문자열일수록 뒤에 둠)
+    static final byte[] DICTIONARY = String.join("",
+            "hello hi thanks ok lol bye good morning night ",
+            "ㅠㅠ ㅎㅎ 네 아니요 좋아요 감사합니다 고마워 잘가 안녕 반가워요 ",
+            "방 목록: 방에 들어갈 수 없습니다: 먼저 방에 들어가야 합니다: ",
+            "이 클라이언트 버전에서는 받을 수 없습니다 님이 파일을 보냈습니다: ",
+            "[알림] 수신이 밀려 메시지 개를 건너뛰었습니다. [알림] 이미 사용 중인 닉네임입니다: ",
+            "님을 찾을 수 없습니다. 방에서 나왔습니다. 님이 방에서 나갔습니다. 님이 방에 들어왔습니다. ",
+            "ㅋㅋㅋㅋ 안녕하세요 [알림] 님이 퇴장하셨습니다. [알림] 님이 입장하셨습니다."
+    ).getBytes(StandardCharsets.UTF_8);
+
+    // Deflater / Inflater 는 네이티브 메모리를 크게 잡으므로 스레드마다 두지 않고 돌려씀
+    private static final Queue<Deflater> DEFLATERS = new ConcurrentLinkedQueue<>();
+    private static final Queue<Inflater> INFLATERS = new ConcurrentLinkedQueue<>();
+
+    // opcode = 배열 인덱스 (0 은 사용 안 함) - 새 타입은 끝에만 추가
+    private static final String[] TYPES = {
+            "", "TEXT", "IMAGE", "WHISPER", "SYSTEM", "CAPS",
+            "FILE_BEGIN", "FILE_CHUNK", "FILE_END", "ROOM_FILE_BEGIN",
+            "JOIN_ROOM", "LEAVE_ROOM", "LIST_ROOMS", "ROOM_TEXT", "ROOM_IMAGE", "ROOM_LIST",
+            "USER", "USER_LEFT", "CHAT", "HISTORY", "HISTORY_END", "PING", "PONG",
+            // [추가] 서버끼리만 (ClusterLink) - 클라이언트는 받을 일 없음
+            "NODE_HELLO", "NODE_CLAIM", "NODE_CLAIMED", "NODE_JOIN", "NODE_LEAVE",
+            "RELAY_TEXT", "RELAY_SYSTEM", "RELAY_WHISPER",
+            // [추가] 이미지 해시 참조 (CAPS "imageref", ImageCache 참고)
+            "IMAGE_REF", "ROOM_IMAGE_REF", "IMAGE_GET", "IMAGE_BLOB",
+            // [추가] 세션 이어받기 (CAPS "resume", ClientSession 참고) / 스스로 나감 (세션을 남기지 않음)
+            "SESSION", "QUIT"
+    };
+    private static final Map<String, Integer> OPCODES = new HashMap<>();
+
+    static {
+        for (int i = 1; i < TYPES.length; i++) {
+            OPCODES.put(TYPES[i], i);
+        }
+    }
+
+    private Protocol() {}
+
+    // 모르는 opcode 면 "" (처리하는 쪽에서 무시)
+    static String type(int opcode) {
+        return opcode > 0 && opcode < TYPES.length ? TYPES[opcode] : "";
+    }
+
+    // ---- 읽기 / 쓰기 공통 인터페이스 ----
+
+    // 패킷 필드 읽기 (v1: DataInput 그대로, v2: Reader)
+    interface Input {
+        String readString() throws IOException;
+        int readInt() throws IOException;
+        long readLong() throws IOException;
+        void readFully(byte[] b, int off, int len) throws IOException;
+
+        default void readFully(byte[] b) throws IOException {
+            readFully(b, 0, b.length);
+        }
+    }
+
+    // 패킷 필드 쓰기 (v1: DataOutput 그대로, v2: Writer)
+    interface Output {
+        void writeType(String type) throws IOException;
+        void writeString(String s) throws IOException;
+        // 보낸 사람 - v1 은 닉네임, v2 는 번호
+        void writeSender(String name, int id) throws IOException;
+        void writeInt(int v) throws IOException;
+        void writeLong(long v) throws IOException;
+    }
+
+    static Input v1(DataInput in) {
+        return new Input() {
+            public String readString() throws IOException {
+                return in.readUTF();
+            }
+
+            public int readInt() throws IOException {
+                return in.readInt();
+            }
+
+            public long readLong() throws IOException {
+                return in.readLong();
+            }
+
+            public void readFully(byte[] b, int off, int len) throws IOException {
+                in.readFully(b, off, len);
+            }
+        };
+    }
+
+    static Output v1(DataOutput out) {
+        return new Output() {
+            public void writeType(String type) throws IOException {
+                out.writeUTF(type);
+            }
+
+            public void writeString(String s) throws IOException {
+                out.writeUTF(s);
+            }
+
+            public void writeSender(String name, int id) throws IOException {
+                out.writeUTF(name);
+            }
+
+            public void writeInt(int v) throws IOException {
+                out.writeInt(v);
+            }
+
+            public void writeLong(long v) throws IOException {
+                out.writeLong(v);
+            }
+        };
+    }
+
+    // ---- v2 ----
+
+    // v2 프레임 하나 만들기 - 본문을 모은 뒤 toFrame() 에서 길이를 앞에 붙임
+    // (이미지/청크 바이트는 복사하지 않고 toFrame(payloadLength) 다음에 따로 씀)
+    static final class Writer implements Output {
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+        private boolean compressible;
+
+        public void writeType(String type) throws IOException {
+            Integer opcode = OPCODES.get(type);
+            if (opcode == null) {
+                throw new IOException("no v2 opcode for " + type);
+            }
+            body.write(opcode);
+            compressible = COMPRESSIBLE.contains(type);
+        }
+
+        public void writeString(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(body, b.length);
+            body.write(b, 0, b.length);
+        }
+
+        public void writeSender(String name, int id) {
+            writeVarLong(body, id);
+        }
+
+        public void writeInt(int v) {
+            writeVarLong(body, v & 0xffffffffL);
+        }
+
+        public void writeLong(long v) {
+            writeVarLong(body, v);
+        }
+
+        // 길이 + 본문 (뒤에 payloadLength 바이트가 더 붙는 것으로 계산)
+        byte[] toFrame(int payloadLength) {
+            return toFrame(payloadLength, false);
+        }
+
+        // [추가] deflate 면 텍스트 프레임은 압축해서 더 작을 때만 압축본으로
+        byte[] toFrame(int payloadLength, boolean deflate) {
+            byte[] b = body.toByteArray();
+            if (deflate && compressible && payloadLength == 0 && b.length - 1 >= COMPRESS_MIN_BYTES) {
+                byte[] z = Protocol.deflate(b, 1, b.length - 1);
+                if (z != null) {
+                    ByteArrayOutputStream packed = new ByteArrayOutputStream(z.length + 8);
+                    packed.write(b[0] | COMPRESSED);
+                    writeVarLong(packed, b.length - 1);
+                    packed.write(z, 0, z.length);
+                    if (packed.size() < b.length) {
+                        b = packed.toByteArray();
+                    }
+                }
+            }
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(b.length + 5);
+            writeVarLong(frame, b.length + (long) payloadLength);
+            frame.write(b, 0, b.length);
+            return frame.toByteArray();
+        }
+    }
+
+    // v2 프레임 하나 읽기 (프레임 전체가 이미 메모리에 있음)
+    static final class Reader implements Input {
+        private ByteBuffer buf; // 압축된 프레임이면 readType() 에서 푼 본문으로 바뀜
+
+        Reader(ByteBuffer body) {
+            this.buf = body;
+        }
+
+        // 길이가 앞에 붙은 프레임 (NIO 수신 버퍼에서 잘라낸 것)
+        static Reader ofFrame(ByteBuffer frame) throws IOException {
+            Reader r = new Reader(frame);
+            r.readLong();
+            return r;
+        }
+
+        String readType() throws IOException {
+            need(1);
+            int opcode = buf.get() & 0xff;
+            if ((opcode & COMPRESSED) != 0) {
+                int len = readInt();
+                if (len < 0 || len > MAX_FRAME_SIZE) {
+                    throw new IOException("bad compressed length: " + len);
+                }
+                buf = ByteBuffer.wrap(inflate(buf, len));
+                opcode &= ~COMPRESSED;
+            }
+            return type(opcode);
+        }
+
+        public String readString() throws IOException {
+            int len = readInt();
+            need(len);
+            byte[] b = new byte[len];
+            buf.get(b);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+
+        public int readInt() throws IOException {
+            long v = readLong();
+            if (v > 0xffffffffL) {
+                throw new IOException("varint too large: " + v);
+            }
+            return (int) v;
+        }
+
+        public long readLong() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                need(1);
+                byte b = buf.get();
+                v |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return v;
+                }
+            }
+            throw new IOException("malformed varint");
+        }
+
+        public void readFully(byte[] b, int off, int len) throws IOException {
+            need(len);
+            buf.get(b, off, len);
+        }
+
+        private void need(int n) throws EOFException {
+            if (n < 0 || buf.remaining() < n) {
+                throw new EOFException("truncated v2 frame");
+            }
+        }
+    }
+
+    // 스트림에서 v2 프레임 하나를 통째로 읽음 (스레드 모드 서버 / 클라이언트 수신 스레드)
+    static Reader readFrame(DataInput in) throws IOException {
+        long len = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (shift >= 35) {
+                throw new IOException("malformed frame length");
+            }
+            int b = in.readUnsignedByte();
+            len |= (long) (b & 0x7f) << shift;
+            if (b < 0x80) {
+                break;
+            }
+        }
+        if (len > MAX_FRAME_SIZE) {
+            throw new IOException("frame too large: " + len);
+        }
+        return new Reader(ByteBuffer.wrap(readGrowing(in, (int) len)));
+    }
+
+    // [추가] len 바이트를 읽음 - 버퍼는 GROW_STEP 부터 받은 만큼 두 배씩 (길이만 크게 보내고 본문은 안 보내는 상대 방지)
+    static byte[] readGrowing(DataInput in, int len) throws IOException {
+        byte[] b = new byte[Math.min(len, GROW_STEP)];
+        int n = 0;
+        while (true) {
+            in.readFully(b, n, b.length - n);
+            n = b.length;
+            if (n == len) {
+                return b;
+            }
+            b = Arrays.copyOf(b, (int) Math.min(len, 2L * n));
+        }
+    }
+
+    // position 부터 완성된 v2 프레임 하나가 버퍼에 있으면 (길이 포함) 바이트 수, 아직 모자라면 -1 (NIO 서버)
+    static int frameLength(ByteBuffer b) throws IOException {
+        int p = b.position();
+        long len = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (p >= b.limit()) {
+                return -1;
+            }
+            if (shift >= 35) {
+                throw new IOException("malformed frame length");
+            }
+            byte x = b.get(p++);
+            len |= (long) (x & 0x7f) << shift;
+            if (x >= 0) {
+                break;
+            }
+        }
+        // 다 모으기 전에 크기부터 확인 (거대한 길이로 버퍼를 키우지 못하게)
+        if (len > MAX_FRAME_SIZE) {
+            throw new IOException("frame too large: " + len);
+        }
+        long end = p + len;
+        return end > b.limit() ? -1 : (int) (end - b.position());
+    }
+
+    // 압축 결과가 원본보다 크면 null
+    static byte[] deflate(byte[] b, int off, int len) {
+        Deflater d = DEFLATERS.poll();
+        if (d == null) {
+            d = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        try {
+            d.setDictionary(DICTIONARY);
+            d.setInput(b, off, len);
+            d.finish();
+            byte[] out = new byte[len];
+            int n = d.deflate(out);
+            return d.finished() ? Arrays.copyOf(out, n) : null;
+        } finally {
+            d.reset();
+            DEFLATERS.offer(d);
+        }
+    }
+
+    // 압축을 풀어서 정확히 len 바이트가 나와야 함 (그보다 크게 부풀리는 프레임은 거부)
+    static byte[] inflate(ByteBuffer in, int len) throws IOException {
+        Inflater inf = INFLATERS.poll();
+        if (inf == null) {
+            inf = new Inflater(true);
+        }
+        try {
+            inf.setDictionary(DICTIONARY);
+            inf.setInput(in);
+            // [변경] 풀린 만큼만 늘림 (작은 프레임이 큰 원래 길이를 적어 보내도 미리 할당하지 않음)
+            byte[] out = new byte[Math.min(len, GROW_STEP)];
+            int n = 0;
+            while (n < len && !inf.finished()) {
+                if (n == out.length) {
+                    out = Arrays.copyOf(out, (int) Math.min(len, 2L * n));
+                }
+                int k = inf.inflate(out, n, out.length - n);
+                if (k == 0 && (inf.needsInput() || inf.needsDictionary())) {
+                    break;
+                }
+                n += k;
+            }
+            if (n != len || (!inf.finished() && inf.inflate(new byte[1]) > 0)) {
+                throw new IOException("bad compressed frame");
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new IOException("bad compressed frame", e);
+        } finally {
+            inf.reset();
+            INFLATERS.offer(inf);
+        }
+    }
+
+    static void writeVarLong(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7fL) != 0) {
+            out.write((int) (v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+}
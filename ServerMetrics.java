@@ -0,0 +1,425 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// [추가] 서버 지표 모음 - 주요 경로에서는 LongAdder 에 더하기만 함 (락 없음, 스레드끼리 경합 적음)
+// - 들어온 패킷 / 나간 프레임 수 (종류별), 주고받은 바이트, 방송 팬아웃 지연 히스토그램
+// - 송신 큐 락 대기 시간, 접속자별 큐 길이, 버린 프레임, 쓰기 실패, 느려서 끊은 수, 멈춰서 끊은 수 (IdleReaper)
+// - start() 하면 JMX 에 등록하고 1초마다 초당 값을 계산, port > 0 이면 127.0.0.1:port/metrics 로 텍스트 출력
+// (ChatServer 를 여러 개 만드는 jmh/BenchFixture 는 start() 를 부르지 않으므로 등록 이름이 겹치지 않음)
+final class ServerMetrics implements ServerMetricsMXBean {
+    static final String OBJECT_NAME = "chat:type=ServerMetrics";
+    private static final long SAMPLE_MS = 1000;
+    // /metrics 에 큐 길이를 보여줄 접속자 수 (긴 순서)
+    private static final int TOP_QUEUES = 20;
+
+    private final ChatServer server;
+    private final ConcurrentHashMap<String, LongAdder> packetsIn = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> framesOut = new ConcurrentHashMap<>();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    // OutboundQueue.offer 가 락을 기다린 시간 (ChatServer.newOutboundQueue 가 큐마다 넘겨줌)
+    final LongAdder queueLockWaitNanos = new LongAdder();
+    private final LongAdder failedWrites = new LongAdder();
+    private final LongAdder slowDisconnects = new LongAdder();
+    private final LongAdder reaped = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder imageBytesSaved = new LongAdder();
+    private final LongAdder resumedSessions = new LongAdder();
+    private final LongAdder handshakeTimeouts = new LongAdder();
+    private final LongAdder droppedByClosed = new LongAdder(); // 이미 나간 접속자가 버린 프레임
+    private final LatencyHistogram fanout = new LatencyHistogram();
+
+    // 1초마다 찍는 스냅샷 - 초당 값은 last - previous
+    private volatile Sample previous = new Sample();
+    private volatile Sample last = previous;
+
+    ServerMetrics(ChatServer server) {
+        this.server = server;
+    }
+
+    // ---- 주요 경로에서 부르는 것들 ----
+
+    void packetIn(String type) {
+        count(packetsIn, type, 1);
+    }
+
+    void bytesIn(long n) {
+        bytesIn.add(n);
+    }
+
+    // 묶음 하나를 (일부라도) 보냄 - done 은 다 보낸 묶음 (아직 남았으면 null)
+    void written(long bytes, OutboundQueue.Batch done) {
+        bytesOut.add(bytes);
+        if (done != null) {
+            for (Frame f : done.sent) {
+                count(framesOut, f.type(), 1);
+            }
+        }
+    }
+
+    void fanout(long nanos) {
+        fanout.record(nanos);
+    }
+
+    void writeFailed() {
+        failedWrites.increment();
+    }
+
+    void slowDisconnect() {
+        slowDisconnects.increment();
+    }
+
+    void reaped() {
+        reaped.increment();
+    }
+
+    void rateLimited() {
+        rateLimited.increment();
+    }
+
+    void imageRef(long savedBytes) {
+        imageBytesSaved.add(savedBytes);
+    }
+
+    void sessionResumed() {
+        resumedSessions.increment();
+    }
+
+    void handshakeTimedOut() {
+        handshakeTimeouts.increment();
+    }
+
+    void clientClosed(ChatServer.Client c) {
+        droppedByClosed.add(c.getDroppedCount());
+    }
+
+    // 스레드 모드 수신 스트림에 끼워서 읽은 바이트를 셈
+    // [변경] 접속자의 마지막 수신 시각도 갱신 (큰 패킷을 천천히 받는 중에도 IdleReaper 가 끊지 않도록 read 마다)
+    InputStream countIn(InputStream in, ChatServer.Client c) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    bytesIn.increment();
+                    c.lastReadNanos = System.nanoTime();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    bytesIn.add(n);
+                    c.lastReadNanos = System.nanoTime();
+                }
+                return n;
+            }
+        };
+    }
+
+    private static void count(ConcurrentHashMap<String, LongAdder> map, String type, long n) {
+        LongAdder adder = map.get(type);
+        if (adder == null) {
+            adder = map.computeIfAbsent(type, t -> new LongAdder());
+        }
+        adder.add(n);
+    }
+
+    // ---- 시작 (main 에서만) ----
+
+    void start(int httpPort) throws IOException {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            System.out.println("JMX registration failed: " + e.getMessage());
+        }
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-sampler");
+            t.setDaemon(true);
+            return t;
+        });
+        sampler.scheduleAtFixedRate(() -> {
+            previous = last;
+            last = new Sample();
+        }, SAMPLE_MS, SAMPLE_MS, TimeUnit.MILLISECONDS);
+
+        if (httpPort > 0) {
+            // 밖에서 못 보도록 loopback 에만 염
+            HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), httpPort), 0);
+            http.createContext("/metrics", exchange -> {
+                byte[] body = render().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            http.setExecutor(sampler); // 요청이 드물어서 샘플러 스레드 하나로 충분
+            http.start();
+            System.out.println("Metrics on http://127.0.0.1:" + httpPort + "/metrics");
+        }
+    }
+
+    // 지금 값 스냅샷
+    private final class Sample {
+        final long nanos = System.nanoTime();
+        final Map<String, Long> in = snapshot(packetsIn);
+        final Map<String, Long> out = snapshot(framesOut);
+        final long bytesIn = ServerMetrics.this.bytesIn.sum();
+        final long bytesOut = ServerMetrics.this.bytesOut.sum();
+    }
+
+    private static Map<String, Long> snapshot(Map<String, LongAdder> map) {
+        Map<String, Long> copy = new TreeMap<>();
+        map.forEach((type, adder) -> copy.put(type, adder.sum()));
+        return copy;
+    }
+
+    private double perSecond(long now, long before) {
+        Sample a = previous;
+        Sample b = last;
+        return b.nanos == a.nanos ? 0 : (now - before) * 1e9 / (b.nanos - a.nanos);
+    }
+
+    private Map<String, Double> perSecondByType(boolean in) {
+        Sample a = previous;
+        Sample b = last;
+        Map<String, Double> rates = new TreeMap<>();
+        (in ? b.in : b.out).forEach((type, n) -> {
+            long before = (in ? a.in : a.out).getOrDefault(type, 0L);
+            rates.put(type, b.nanos == a.nanos ? 0 : (n - before) * 1e9 / (b.nanos - a.nanos));
+        });
+        return rates;
+    }
+
+    private static long sum(Map<String, Long> map) {
+        long total = 0;
+        for (long n : map.values()) {
+            total += n;
+        }
+        return total;
+    }
+
+    // ---- ServerMetricsMXBean ----
+
+    public int getConnectedClients() {
+        return server.getClientCount();
+    }
+
+    public long getMessagesIn() {
+        return sum(getMessagesInByType());
+    }
+
+    public long getMessagesOut() {
+        return sum(getMessagesOutByType());
+    }
+
+    public double getMessagesInPerSecond() {
+        return perSecond(sum(last.in), sum(previous.in));
+    }
+
+    public double getMessagesOutPerSecond() {
+        return perSecond(sum(last.out), sum(previous.out));
+    }
+
+    public Map<String, Long> getMessagesInByType() {
+        return snapshot(packetsIn);
+    }
+
+    public Map<String, Long> getMessagesOutByType() {
+        return snapshot(framesOut);
+    }
+
+    public Map<String, Double> getMessagesInPerSecondByType() {
+        return perSecondByType(true);
+    }
+
+    public Map<String, Double> getMessagesOutPerSecondByType() {
+        return perSecondByType(false);
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public double getBytesInPerSecond() {
+        return perSecond(last.bytesIn, previous.bytesIn);
+    }
+
+    public double getBytesOutPerSecond() {
+        return perSecond(last.bytesOut, previous.bytesOut);
+    }
+
+    public long getFanoutCount() {
+        return fanout.count();
+    }
+
+    public double getFanoutP50Micros() {
+        return fanout.percentile(50) / 1e3;
+    }
+
+    public double getFanoutP99Micros() {
+        return fanout.percentile(99) / 1e3;
+    }
+
+    public double getFanoutP999Micros() {
+        return fanout.percentile(99.9) / 1e3;
+    }
+
+    public double getFanoutMaxMicros() {
+        return fanout.max() / 1e3;
+    }
+
+    public double getQueueLockWaitMillis() {
+        return queueLockWaitNanos.sum() / 1e6;
+    }
+
+    public int getTotalQueueDepth() {
+        return server.getTotalQueueDepth();
+    }
+
+    public int getMaxQueueDepth() {
+        int max = 0;
+        for (ChatServer.Client c : server.getClients()) {
+            max = Math.max(max, c.getQueueDepth());
+        }
+        return max;
+    }
+
+    public long getDroppedFrames() {
+        return droppedByClosed.sum() + server.getTotalDropped();
+    }
+
+    public long getFailedWrites() {
+        return failedWrites.sum();
+    }
+
+    public long getSlowDisconnects() {
+        return slowDisconnects.sum();
+    }
+
+    public long getReapedConnections() {
+        return reaped.sum();
+    }
+
+    public long getRateLimitedMessages() {
+        return rateLimited.sum();
+    }
+
+    public long getImageBytesSaved() {
+        return imageBytesSaved.sum();
+    }
+
+    public int getCachedImages() {
+        return server.getImageCache().count();
+    }
+
+    public long getResumedSessions() {
+        return resumedSessions.sum();
+    }
+
+    public long getHandshakeTimeouts() {
+        return handshakeTimeouts.sum();
+    }
+
+    public int getParkedSessions() {
+        int n = 0;
+        for (ChatServer.Client c : server.getClients()) {
+            if (c instanceof ClientSession.Parked) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    public long getWriteCalls() {
+        return server.getWriteCalls();
+    }
+
+    public double getSyscallsPerMessage() {
+        return server.getSyscallsPerMessage();
+    }
+
+    // ---- /metrics 텍스트 (한 줄에 "이름 값" 또는 "이름{라벨} 값") ----
+
+    String render() {
+        StringBuilder sb = new StringBuilder();
+        line(sb, "chat_connected_clients", getConnectedClients());
+        getMessagesInByType().forEach((type, n) -> line(sb, "chat_messages_in_total{type=\"" + type + "\"}", n));
+        getMessagesOutByType().forEach((type, n) -> line(sb, "chat_messages_out_total{type=\"" + type + "\"}", n));
+        getMessagesInPerSecondByType().forEach((type, r) -> line(sb, "chat_messages_in_per_second{type=\"" + type + "\"}", r));
+        getMessagesOutPerSecondByType().forEach((type, r) -> line(sb, "chat_messages_out_per_second{type=\"" + type + "\"}", r));
+        line(sb, "chat_messages_in_per_second", getMessagesInPerSecond());
+        line(sb, "chat_messages_out_per_second", getMessagesOutPerSecond());
+        line(sb, "chat_bytes_in_total", getBytesIn());
+        line(sb, "chat_bytes_out_total", getBytesOut());
+        line(sb, "chat_bytes_in_per_second", getBytesInPerSecond());
+        line(sb, "chat_bytes_out_per_second", getBytesOutPerSecond());
+        line(sb, "chat_fanout_count", getFanoutCount());
+        line(sb, "chat_fanout_micros{quantile=\"0.5\"}", getFanoutP50Micros());
+        line(sb, "chat_fanout_micros{quantile=\"0.99\"}", getFanoutP99Micros());
+        line(sb, "chat_fanout_micros{quantile=\"0.999\"}", getFanoutP999Micros());
+        line(sb, "chat_fanout_micros_max", getFanoutMaxMicros());
+        line(sb, "chat_queue_lock_wait_millis_total", getQueueLockWaitMillis());
+        line(sb, "chat_queue_depth_total", getTotalQueueDepth());
+        line(sb, "chat_queue_depth_max", getMaxQueueDepth());
+        line(sb, "chat_dropped_frames_total", getDroppedFrames());
+        line(sb, "chat_failed_writes_total", getFailedWrites());
+        line(sb, "chat_slow_disconnects_total", getSlowDisconnects());
+        line(sb, "chat_reaped_connections_total", getReapedConnections());
+        line(sb, "chat_rate_limited_messages_total", getRateLimitedMessages());
+        line(sb, "chat_image_bytes_saved_total", getImageBytesSaved());
+        line(sb, "chat_cached_images", getCachedImages());
+        line(sb, "chat_resumed_sessions_total", getResumedSessions());
+        line(sb, "chat_parked_sessions", getParkedSessions());
+        line(sb, "chat_handshake_timeouts_total", getHandshakeTimeouts());
+        line(sb, "chat_write_calls_total", getWriteCalls());
+        line(sb, "chat_syscalls_per_message", getSyscallsPerMessage());
+        ClusterLink cluster = server.getCluster();
+        if (cluster != null) {
+            // [추가] 노드끼리 주고받은 프레임 / flush 수 (batches 가 frames 보다 훨씬 적을수록 묶음 효과가 큼)
+            line(sb, "chat_cluster_frames_sent_total", cluster.getFramesSent());
+            line(sb, "chat_cluster_frames_received_total", cluster.getFramesReceived());
+            line(sb, "chat_cluster_batches_total", cluster.getBatches());
+            line(sb, "chat_cluster_dropped_total", cluster.getDropped());
+            line(sb, "chat_cluster_remote_users", cluster.getRemoteUsers().size());
+        }
+
+        // 큐가 긴 접속자 TOP_QUEUES 명 (정렬 중에 값이 바뀌지 않도록 길이를 먼저 읽어둠)
+        List<Map.Entry<String, Integer>> busiest = new ArrayList<>();
+        for (ChatServer.Client c : server.getClients()) {
+            int depth = c.getQueueDepth();
+            if (depth > 0) {
+                busiest.add(Map.entry(String.valueOf(c.getUserName()), depth));
+            }
+        }
+        busiest.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        for (Map.Entry<String, Integer> e : busiest.subList(0, Math.min(TOP_QUEUES, busiest.size()))) {
+            line(sb, "chat_client_queue_depth{user=\"" + e.getKey() + "\"}", e.getValue());
+        }
+        return sb.toString();
+    }
+
+    private static void line(StringBuilder sb, String name, long value) {
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void line(StringBuilder sb, String name, double value) {
+        sb.append(name).append(' ').append(String.format(Locale.ROOT, "%.3f", value)).append('\n');
+    }
+}
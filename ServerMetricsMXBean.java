@@ -0,0 +1,52 @@
+import java.util.Map;
+
+// [추가] JMX 로 보이는 서버 지표 (jconsole / VisualVM 의 MBeans 탭, 이름 "chat:type=ServerMetrics")
+// - 초당 값은 1초마다 찍는 스냅샷 두 개의 차이
+// - 팬아웃 지연은 방송 한 번(모든 수신자 큐에 넣기까지)에 걸린 시간, 마이크로초
+public interface ServerMetricsMXBean {
+    int getConnectedClients();
+
+    long getMessagesIn();
+    long getMessagesOut();
+    double getMessagesInPerSecond();
+    double getMessagesOutPerSecond();
+    // 패킷 종류별 ("TEXT", "WHISPER" ...)
+    Map<String, Long> getMessagesInByType();
+    Map<String, Long> getMessagesOutByType();
+    Map<String, Double> getMessagesInPerSecondByType();
+    Map<String, Double> getMessagesOutPerSecondByType();
+
+    long getBytesIn();
+    long getBytesOut();
+    double getBytesInPerSecond();
+    double getBytesOutPerSecond();
+
+    long getFanoutCount();
+    double getFanoutP50Micros();
+    double getFanoutP99Micros();
+    double getFanoutP999Micros();
+    double getFanoutMaxMicros();
+
+    // 송신 큐 락을 기다린 시간 합계 (밀리초)
+    double getQueueLockWaitMillis();
+    int getTotalQueueDepth();
+    int getMaxQueueDepth();
+
+    long getDroppedFrames();
+    long getFailedWrites();
+    long getSlowDisconnects();
+    // [추가] 응답이 없거나 write 가 멈춰서 IdleReaper 가 끊은 수
+    long getReapedConnections();
+    // [추가] 보내기 제한(FloodGuard)에 걸려서 버린 메시지 수
+    long getRateLimitedMessages();
+    // [추가] 이미지 대신 IMAGE_REF(해시)를 보내서 아낀 바이트 / 서버 이미지 보관소에 있는 이미지 수
+    long getImageBytesSaved();
+    int getCachedImages();
+    // [추가] 끊겼다가 세션을 이어받은 수 / 지금 끊긴 채로 기다리는 세션 수
+    long getResumedSessions();
+    int getParkedSessions();
+    // [추가] 이름을 보내지 않아서 끊은 연결 수
+    long getHandshakeTimeouts();
+    long getWriteCalls();
+    double getSyscallsPerMessage();
+}
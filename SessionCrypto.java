@@ -0,0 +1,457 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.*;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import javax.crypto.*;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+// [추가] 연결 암호화 (CAPS "gcm")
+// - 이름 다음에 보내는 CAPS 에 "gcm=<X25519 공개키>" 를 넣고, 서버도 CAPS 응답에 자기 공개키를 넣어 돌려줌
+// - 양쪽이 ECDH 로 같은 비밀값을 만들고, HKDF(SHA-256) 로 방향별 AES-256 키와 IV 를 나눔 (연결마다 새 키)
+// - v2 전환 지점(서버는 CAPS 응답 다음, 클라이언트는 UPGRADE 다음)부터 모든 바이트를 레코드로 묶어 AES-GCM 으로 암호화
+//   레코드: [int 암호문 길이][암호문 + 16바이트 태그], nonce 는 방향별 IV XOR 레코드 번호 (재사용 없음)
+// - 서버는 송신 묶음(pollBatch) 하나를 레코드 하나로, 클라이언트는 flush 한 번을 레코드 하나로 보냄
+// - Cipher 와 입출력 버퍼는 연결마다 하나씩 만들어 계속 재사용 (Sealer 는 writer 하나, Opener 는 reader 하나만 사용)
+// [추가] 서버 인증 - X25519 키는 연결마다 새로 만들어서 누구 키인지 알 수 없으므로, 이것만으로는 엿듣기(수동 공격)만 막고
+//   중간에서 양쪽과 따로 키를 교환하는 중간자 공격은 못 막음
+// - 서버는 오래 쓰는 Ed25519 키(서버 키 파일)로 양쪽 임시 공개키에 서명해서 CAPS 응답에 같이 보냄 ("gcmid=<서버 키>", "gcmsig=<서명>")
+// - 클라이언트는 서명을 확인하고 서버 키 지문을 known_servers.txt 에 호스트별로 고정함 (처음 본 서버는 저장 - SSH 와 같은 방식)
+//   지문이 다르거나, 고정해 둔 서버가 서명 없이 (또는 gcm 없이) 응답하면 접속을 끊음
+// - 처음 접속할 때는 비교할 게 없으므로 서버 시작할 때 출력되는 지문과 클라이언트 화면의 지문을 눈으로 확인해야 함
+final class SessionCrypto {
+    static final int TAG_BYTES = 16;
+    // [변경] 레코드 하나는 v2 프레임 하나 크기까지 (서버 묶음도 이 안에서 자름) + 길이 varint / 태그
+    static final int MAX_RECORD_SIZE = Protocol.MAX_FRAME_SIZE + 16 + TAG_BYTES;
+
+    private SessionCrypto() {}
+
+    static KeyPair newKeyPair() throws IOException {
+        try {
+            return KeyPairGenerator.getInstance("X25519").generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("X25519 를 쓸 수 없음", e);
+        }
+    }
+
+    // CAPS 에 넣을 공개키 문자열 (쉼표가 없는 Base64)
+    static String encode(PublicKey key) {
+        return Base64.getEncoder().encodeToString(key.getEncoded());
+    }
+
+    // 내 키쌍과 상대 공개키로 이 연결의 키를 만듦 (client: 클라이언트 쪽이면 true)
+    static Session session(KeyPair mine, String peerKey, boolean client) throws IOException {
+        try {
+            PublicKey peer = KeyFactory.getInstance("X25519")
+                    .generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(peerKey)));
+            KeyAgreement agreement = KeyAgreement.getInstance("X25519");
+            agreement.init(mine.getPrivate());
+            agreement.doPhase(peer, true);
+            byte[] shared = agreement.generateSecret();
+
+            // salt = SHA-256(클라이언트 공개키 || 서버 공개키) - 양쪽이 같은 순서로 만듦
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(client ? mine.getPublic().getEncoded() : peer.getEncoded());
+            sha.update(client ? peer.getEncoded() : mine.getPublic().getEncoded());
+            byte[] prk = hmac(sha.digest(), shared);
+
+            Direction c2s = new Direction(expand(prk, "c2s key", 32), expand(prk, "c2s iv", 12));
+            Direction s2c = new Direction(expand(prk, "s2c key", 32), expand(prk, "s2c iv", 12));
+            return client ? new Session(new Sealer(c2s), new Opener(s2c)) : new Session(new Sealer(s2c), new Opener(c2s));
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new IOException("잘못된 gcm 공개키", e);
+        }
+    }
+
+    // HKDF-Expand (결과가 32바이트 이하라 블록 하나면 됨)
+    private static byte[] expand(byte[] prk, String label, int length) throws GeneralSecurityException {
+        byte[] info = (label + "\1").getBytes(StandardCharsets.US_ASCII);
+        return Arrays.copyOf(hmac(prk, info), length);
+    }
+
+    private static byte[] hmac(byte[] key, byte[] data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(data);
+    }
+
+    // [추가] 서버 키 파일을 읽음 - 없으면 새로 만들어서 저장 (1줄: 공개키, 2줄: 개인키, Base64 / 주인만 읽을 수 있게)
+    static KeyPair loadIdentity(Path file) throws IOException {
+        try {
+            if (Files.exists(file)) {
+                List<String> lines = Files.readAllLines(file, StandardCharsets.US_ASCII);
+                if (lines.size() < 2) {
+                    throw new IOException("잘못된 서버 키 파일: " + file);
+                }
+                KeyFactory factory = KeyFactory.getInstance("Ed25519");
+                PublicKey pub = factory.generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(lines.get(0).trim())));
+                PrivateKey priv = factory.generatePrivate(new PKCS8EncodedKeySpec(Base64.getDecoder().decode(lines.get(1).trim())));
+                return new KeyPair(pub, priv);
+            }
+            // 같은 폴더에서 서버 여러 개가 한꺼번에 뜰 수 있으므로 (ClusterLoadTest 등) 임시 파일에 다 쓴 뒤 이름을 바꾸고,
+            // 그사이 다른 서버가 먼저 만들었으면 그 키를 씀
+            KeyPair keys = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+            Path dir = file.toAbsolutePath().getParent();
+            Path tmp = dir.getFileSystem().supportedFileAttributeViews().contains("posix")
+                    ? Files.createTempFile(dir, file.getFileName().toString(), ".tmp",
+                            PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")))
+                    : Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+            try {
+                Files.write(tmp, List.of(encode(keys.getPublic()), Base64.getEncoder().encodeToString(keys.getPrivate().getEncoded())),
+                        StandardCharsets.US_ASCII);
+                Files.move(tmp, file);
+                return keys;
+            } catch (FileAlreadyExistsException e) {
+                return loadIdentity(file);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new IOException("서버 키를 읽을 수 없음: " + file, e);
+        }
+    }
+
+    // [추가] 서버 키 지문 - "SHA256:" + Base64 (서버는 시작할 때 출력, 클라이언트는 화면에 표시하고 고정)
+    static String fingerprint(String identityKey) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(Base64.getDecoder().decode(identityKey));
+            return "SHA256:" + Base64.getEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // [추가] 서버 - 이 연결의 임시 공개키 두 개에 서명 (클라이언트 키가 들어가므로 다른 연결에서 받은 서명은 다시 못 씀)
+    static String sign(PrivateKey identity, String clientKey, String serverKey) throws IOException {
+        try {
+            Signature signature = Signature.getInstance("Ed25519");
+            signature.initSign(identity);
+            signature.update(transcript(clientKey, serverKey));
+            return Base64.getEncoder().encodeToString(signature.sign());
+        } catch (GeneralSecurityException e) {
+            throw new IOException("서명 실패", e);
+        }
+    }
+
+    // [추가] 클라이언트 - 서버 키로 한 서명이 맞는지
+    static boolean verify(String identityKey, String sig, String clientKey, String serverKey) {
+        try {
+            PublicKey key = KeyFactory.getInstance("Ed25519")
+                    .generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(identityKey)));
+            Signature signature = Signature.getInstance("Ed25519");
+            signature.initVerify(key);
+            signature.update(transcript(clientKey, serverKey));
+            return signature.verify(Base64.getDecoder().decode(sig));
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static byte[] transcript(String clientKey, String serverKey) {
+        return ("chat-gcm\n" + clientKey + "\n" + serverKey).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // [추가] 클라이언트가 고정해 둔 서버 키 지문 (한 줄에 "호스트:포트 지문")
+    static final class KnownServers {
+        private final Path file;
+
+        KnownServers(Path file) {
+            this.file = file;
+        }
+
+        Path getFile() {
+            return file;
+        }
+
+        // 고정된 지문 (없으면 null)
+        synchronized String get(String server) throws IOException {
+            if (!Files.exists(file)) {
+                return null;
+            }
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length == 2 && parts[0].equals(server)) {
+                    return parts[1];
+                }
+            }
+            return null;
+        }
+
+        synchronized void put(String server, String fingerprint) throws IOException {
+            Files.write(file, List.of(server + " " + fingerprint), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    // [int 길이][암호문] 레코드 하나의 전체 길이, 아직 다 안 왔으면 -1
+    static int recordLength(ByteBuffer buf) throws IOException {
+        if (buf.remaining() < 4) {
+            return -1;
+        }
+        int len = buf.getInt(buf.position());
+        if (len < TAG_BYTES || len > MAX_RECORD_SIZE) {
+            throw new IOException("잘못된 레코드 길이: " + len);
+        }
+        return buf.remaining() < 4 + len ? -1 : 4 + len;
+    }
+
+    static final class Session {
+        final Sealer sealer;
+        final Opener opener;
+
+        Session(Sealer sealer, Opener opener) {
+            this.sealer = sealer;
+            this.opener = opener;
+        }
+    }
+
+    // 한 방향의 키 + IV + 레코드 번호
+    private static final class Direction {
+        final SecretKeySpec key;
+        final byte[] iv;
+        final byte[] nonce = new byte[12];
+        long counter;
+
+        Direction(byte[] key, byte[] iv) {
+            this.key = new SecretKeySpec(key, "AES");
+            this.iv = iv;
+        }
+
+        GCMParameterSpec next() {
+            System.arraycopy(iv, 0, nonce, 0, 12);
+            long n = counter++;
+            for (int i = 0; i < 8; i++) {
+                nonce[11 - i] ^= (byte) (n >>> (8 * i));
+            }
+            return new GCMParameterSpec(TAG_BYTES * 8, nonce);
+        }
+    }
+
+    // 암호화 - 결과 버퍼는 다음 seal 까지 재사용하므로 그 전에 다 보내야 함
+    // 조각들은 먼저 평문 배열 하나에 모은 뒤 배열 API 로 한 번에 암호화
+    // (Frame 버퍼는 읽기 전용이라 ByteBuffer 로 바로 넘기면 Cipher 가 조각마다 임시 배열을 만들어서 몇 배 느림)
+    static final class Sealer {
+        private final Direction dir;
+        private final Cipher cipher;
+        private byte[] plain = new byte[64 * 1024];
+        private ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+
+        Sealer(Direction dir) throws GeneralSecurityException {
+            this.dir = dir;
+            this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        }
+
+        ByteBuffer seal(ByteBuffer... parts) throws IOException {
+            int len = 0;
+            for (ByteBuffer p : parts) {
+                len += p.remaining();
+            }
+            if (len + TAG_BYTES > MAX_RECORD_SIZE) {
+                throw new IOException("레코드가 너무 큼: " + len);
+            }
+            if (plain.length < len) {
+                plain = new byte[Math.max(len, plain.length * 2)];
+            }
+            if (out.capacity() < 4 + len + TAG_BYTES) {
+                out = ByteBuffer.allocate(Math.max(4 + len + TAG_BYTES, out.capacity() * 2));
+            }
+            int off = 0;
+            for (ByteBuffer p : parts) {
+                int n = p.remaining();
+                p.get(plain, off, n);
+                off += n;
+            }
+            out.clear();
+            out.putInt(len + TAG_BYTES);
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, dir.key, dir.next());
+                int n = cipher.doFinal(plain, 0, len, out.array(), out.arrayOffset() + 4);
+                out.position(4 + n);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("암호화 실패", e);
+            }
+            out.flip();
+            return out;
+        }
+    }
+
+    // 복호화 - 태그가 맞지 않으면 (변조 / 키 불일치) IOException
+    static final class Opener {
+        private final Direction dir;
+        private final Cipher cipher;
+        private byte[] copy = new byte[0]; // 배열이 없는 버퍼(NIO 수신 버퍼 등)로 온 레코드를 옮겨 담는 곳
+
+        Opener(Direction dir) throws GeneralSecurityException {
+            this.dir = dir;
+            this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        }
+
+        // record: 길이 뒤의 암호문, out: 평문을 이어 쓸 힙 버퍼 (암호문 - 16바이트 만큼 남아 있어야 함)
+        void open(ByteBuffer record, ByteBuffer out) throws IOException {
+            int len = record.remaining();
+            byte[] in;
+            int inOff;
+            if (record.hasArray()) {
+                in = record.array();
+                inOff = record.arrayOffset() + record.position();
+            } else {
+                if (copy.length < len) {
+                    copy = new byte[Math.max(len, copy.length * 2)];
+                }
+                record.duplicate().get(copy, 0, len);
+                in = copy;
+                inOff = 0;
+            }
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, dir.key, dir.next());
+                int n = cipher.doFinal(in, inOff, len, out.array(), out.arrayOffset() + out.position());
+                out.position(out.position() + n);
+                record.position(record.limit());
+            } catch (GeneralSecurityException e) {
+                throw new IOException("복호화 실패", e);
+            }
+        }
+    }
+
+    // 블로킹 송신 스트림 - start() 전에는 그대로 통과, 그 뒤로는 flush 한 번마다 레코드 하나
+    static final class RecordOutputStream extends FilterOutputStream {
+        private Sealer sealer;
+        private byte[] buf = new byte[8 * 1024];
+        private int count;
+
+        RecordOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        void start(Sealer sealer) throws IOException {
+            out.flush();
+            this.sealer = sealer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (sealer == null) {
+                out.write(b);
+                return;
+            }
+            ensure(1);
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (sealer == null) {
+                out.write(b, off, len);
+                return;
+            }
+            ensure(len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (sealer != null && count > 0) {
+                ByteBuffer record = sealer.seal(ByteBuffer.wrap(buf, 0, count));
+                out.write(record.array(), record.arrayOffset() + record.position(), record.remaining());
+                count = 0;
+            }
+            out.flush();
+        }
+
+        private void ensure(int more) {
+            if (count + more > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(count + more, buf.length * 2));
+            }
+        }
+    }
+
+    // 블로킹 수신 스트림 - start() 전에는 그대로 통과, 그 뒤로는 레코드를 하나씩 풀어서 줌
+    static final class RecordInputStream extends FilterInputStream {
+        private final DataInputStream raw;
+        private Opener opener;
+        private byte[] record = new byte[8 * 1024];
+        private ByteBuffer plain = ByteBuffer.allocate(0);
+
+        RecordInputStream(InputStream in) {
+            super(in);
+            this.raw = new DataInputStream(in);
+        }
+
+        void start(Opener opener) {
+            this.opener = opener;
+        }
+
+        boolean started() {
+            return opener != null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (opener == null) {
+                return in.read();
+            }
+            return fill() ? plain.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (opener == null) {
+                return in.read(b, off, len);
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, plain.remaining());
+            plain.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return opener == null ? in.available() : plain.remaining();
+        }
+
+        // 평문이 남아 있지 않으면 다음 레코드를 읽어서 풂. 스트림 끝이면 false
+        private boolean fill() throws IOException {
+            while (!plain.hasRemaining()) {
+                int len;
+                try {
+                    len = raw.readInt();
+                } catch (EOFException e) {
+                    return false;
+                }
+                if (len < TAG_BYTES || len > MAX_RECORD_SIZE) {
+                    throw new IOException("잘못된 레코드 길이: " + len);
+                }
+                // [변경] 레코드 버퍼는 실제로 받은 만큼 늘림 (평문 버퍼는 레코드를 다 받은 뒤에 맞춤)
+                int n = 0;
+                while (n < len) {
+                    if (n == record.length) {
+                        record = Arrays.copyOf(record, Math.min(len, Math.max(Protocol.GROW_STEP, 2 * n)));
+                    }
+                    int k = Math.min(record.length, len) - n;
+                    raw.readFully(record, n, k);
+                    n += k;
+                }
+                if (plain.capacity() < len - TAG_BYTES) {
+                    plain = ByteBuffer.allocate(Math.max(len - TAG_BYTES, plain.capacity() * 2));
+                }
+                plain.clear();
+                opener.open(ByteBuffer.wrap(record, 0, len), plain);
+                plain.flip();
+            }
+            return true;
+        }
+    }
+}
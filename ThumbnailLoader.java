@@ -0,0 +1,135 @@
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+// [추가] 채팅창 이미지 미리보기 - 디코딩은 백그라운드 스레드에서, 화면에는 작은 썸네일만
+// - 받은 이미지마다 EDT 에서 new ImageIcon + 모달 창을 띄우지 않도록 (큰 이미지는 UI 가 멈추고, 여러 장이면 창이 쌓임)
+// - 썸네일은 원본을 다 풀지 않고 ImageReader 의 subsampling 으로 줄여 읽은 뒤 MAX_SIZE 안에 맞춤
+// - 썸네일은 파일 경로 기준 LRU 로 CACHE_SIZE 개까지 보관 (ImageStore 덕분에 같은 이미지는 같은 파일)
+// - 원본 크기는 썸네일을 클릭했을 때만 읽어서 모달이 아닌 창으로 보여줌
+final class ThumbnailLoader {
+    static final int MAX_SIZE = 160;
+    static final int CACHE_SIZE = 200;
+
+    private final ExecutorService pool;
+    // 경로 -> 썸네일 (디코딩 중인 것도 같은 future 를 기다림, 못 읽는 파일이면 null 로 완료)
+    private final Map<Path, CompletableFuture<ImageIcon>> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, CompletableFuture<ImageIcon>> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    ThumbnailLoader(int threads) {
+        this.pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "thumbnail");
+            t.setDaemon(true);
+            t.setPriority(Thread.NORM_PRIORITY - 1); // 화면 그리기보다 뒤로
+            return t;
+        });
+    }
+
+    // EDT - 채팅창에 넣을 미리보기 (처음에는 글자만, 썸네일이 준비되면 그림으로 바뀜)
+    JLabel label(Path file, String title) {
+        JLabel label = new JLabel("[이미지 불러오는 중] " + file.getFileName());
+        label.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        label.setToolTipText("클릭하면 원본 크기로 봅니다");
+        label.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                openFull(label, file, title);
+            }
+        });
+        thumbnail(file).thenAccept(icon -> SwingUtilities.invokeLater(() -> {
+            if (icon != null) {
+                label.setText(null);
+                label.setIcon(icon);
+            } else {
+                label.setText("[미리보기 없음] " + file.getFileName());
+            }
+            label.revalidate();
+        }));
+        return label;
+    }
+
+    private CompletableFuture<ImageIcon> thumbnail(Path file) {
+        synchronized (cache) {
+            return cache.computeIfAbsent(file, f -> CompletableFuture.supplyAsync(() -> decodeThumbnail(f), pool));
+        }
+    }
+
+    // 백그라운드 - 원본이 MAX_SIZE 의 몇 배인지 보고 그만큼 건너뛰며 읽은 뒤 마지막으로 부드럽게 줄임
+    private static ImageIcon decodeThumbnail(Path file) {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int w = reader.getWidth(0);
+                int h = reader.getHeight(0);
+                int step = Math.max(1, Math.max(w, h) / (MAX_SIZE * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return new ImageIcon(scale(reader.read(0, param)));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            return null; // 깨진 이미지 / 이미지가 아닌 파일
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage src) {
+        double ratio = Math.min(1.0, (double) MAX_SIZE / Math.max(src.getWidth(), src.getHeight()));
+        int w = Math.max(1, (int) Math.round(src.getWidth() * ratio));
+        int h = Math.max(1, (int) Math.round(src.getHeight() * ratio));
+        BufferedImage dst = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = dst.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(src, 0, 0, w, h, null);
+        g.dispose();
+        return dst;
+    }
+
+    // 클릭했을 때만 원본을 읽음 (읽는 것은 백그라운드, 창은 EDT 에서 - 모달이 아니라 여러 장을 열어도 막히지 않음)
+    private void openFull(Component owner, Path file, String title) {
+        pool.execute(() -> {
+            BufferedImage image;
+            try {
+                image = ImageIO.read(file.toFile());
+            } catch (IOException e) {
+                image = null;
+            }
+            BufferedImage full = image;
+            SwingUtilities.invokeLater(() -> {
+                if (full == null) {
+                    JOptionPane.showMessageDialog(owner, "이미지를 열 수 없습니다: " + file, "이미지", JOptionPane.WARNING_MESSAGE);
+                    return;
+                }
+                JDialog dialog = new JDialog(SwingUtilities.getWindowAncestor(owner), "이미지 from " + title);
+                JScrollPane sp = new JScrollPane(new JLabel(new ImageIcon(full)));
+                sp.setPreferredSize(new Dimension(Math.min(full.getWidth() + 20, 900), Math.min(full.getHeight() + 20, 700)));
+                dialog.setContentPane(sp);
+                dialog.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+                dialog.pack();
+                dialog.setLocationRelativeTo(owner);
+                dialog.setVisible(true);
+            });
+        });
+    }
+}
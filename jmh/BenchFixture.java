@@ -0,0 +1,246 @@
+import bench.Fixture;
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// [추가] jmh/bench 벤치마크들이 쓰는 앱 쪽 준비물 (bench.Fixture 구현)
+// - startServer   : 소켓 없이 메모리 안에서 서버 주요 경로 (FanoutBenchmark, ImageBenchmark)
+// - startDecoder  : 클라이언트 수신 스레드가 하는 일 (DecodeBenchmark)
+// - startDelivery : 별도 JVM 서버에 실제 소켓으로 붙은 접속자들 (DeliveryBenchmark)
+// - startCipher   : 연결 하나의 AES-GCM 세션 양쪽 (CipherBenchmark)
+public class BenchFixture implements Fixture {
+    private static final String XOR_KEY = "secret1234"; // ChatClient 와 같은 키
+    private static final char[] XOR_CHARS = XOR_KEY.toCharArray();
+    private static final String MESSAGE = "오늘 회의는 3시에 합니다. 자료 확인 부탁드려요";
+
+    // 메모리 서버 - 접속자는 실제 송신 큐(OutboundQueue)를 가진 가짜 Client 라서 큐에 넣는 비용까지 잼
+    // v2 면 CAPS 응답(upgrade 프레임)을 먼저 넣고 꺼내서 그 뒤로는 큐가 v2 / v2+deflate 로 인코딩함
+    // 기록 저장소 없음 - TEXT 그대로 전달
+    private ChatServer server;
+    private final List<MemoryClient> clients = new ArrayList<>();
+    private final String encrypted = xor(MESSAGE);
+
+    // 수신 경로 - readUTF -> XOR 복호화 -> 16진 로그 / 일반 로그를 LogWriter 에 넣기 (ChatClient.receiveChat 과 같은 순서)
+    private byte[] wire;
+    private int frames;
+    private File logDir;
+    private LogWriter chatLog;
+    private LogWriter encLog;
+
+    // 실제 소켓 - 서버는 LatencyLoadTest 와 같이 별도 JVM 으로 띄우고 (기록 저장 없이), 접속자마다 v1 수신 스레드 하나
+    // (연결 수가 많으면 ulimit -n 을 먼저 올려야 함)
+    private static final String DELIVERY_PREFIX = "d=";
+    private Process serverProcess;
+    private final List<Socket> sockets = new ArrayList<>();
+    private final List<DataOutputStream> outs = new ArrayList<>();
+    private volatile String expected;
+    private volatile CountDownLatch pending;
+    private long sent;
+
+    // GCM - Cipher / 버퍼는 연결에서처럼 재사용
+    private SessionCrypto.Session sealSide;
+    private SessionCrypto.Session openSide;
+    private ByteBuffer plain = ByteBuffer.allocate(0);
+
+    public void startServer(int n, String protocol) throws IOException {
+        server = new ChatServer(0);
+        String accepted = protocol.replace('+', ',');
+        for (int i = 0; i < n; i++) {
+            MemoryClient c = new MemoryClient("user" + i, server.newOutboundQueue());
+            server.claimName(c.name, c);
+            if (!"v1".equals(accepted)) {
+                c.caps.addAll(Arrays.asList(accepted.split(",")));
+                c.send(Frame.caps(accepted));
+            }
+            server.addClient(c);
+            clients.add(c);
+        }
+        drain(); // upgrade / 입장 알림
+    }
+
+    public void broadcastText(int from) {
+        server.broadcastText(clients.get(from), encrypted);
+    }
+
+    public void sendWhisper(int from, int to) {
+        server.sendWhisper(clients.get(from), clients.get(to).name, encrypted);
+    }
+
+    public void broadcastImage(int from, byte[] data) {
+        server.broadcastImage(clients.get(from), "photo.png", data);
+    }
+
+    public void drain() throws IOException {
+        for (MemoryClient c : clients) {
+            while (c.queue.pollBatch(1 << 20) != null) {
+                // 버림
+            }
+        }
+    }
+
+    public void startDecoder(int frames) throws IOException {
+        this.frames = frames;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < frames; i++) {
+            for (ByteBuffer b : Frame.text("user" + (i % 100), i % 100 + 1, xor(MESSAGE + " " + i)).buffers(1)) {
+                byte[] part = new byte[b.remaining()];
+                b.get(part);
+                bytes.write(part);
+            }
+        }
+        wire = bytes.toByteArray();
+        logDir = java.nio.file.Files.createTempDirectory("decode-bench").toFile();
+        chatLog = new LogWriter(new File(logDir, "chatlog.txt"), 10 * 1024 * 1024, 5);
+        encLog = new LogWriter(new File(logDir, "chatlog_enc.txt"), 10 * 1024 * 1024, 5);
+    }
+
+    public void receive() throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(wire));
+        Protocol.Input packet = Protocol.v1(in);
+        for (int i = 0; i < frames; i++) {
+            in.readUTF(); // "TEXT"
+            String sender = packet.readString();
+            String encryptedMsg = packet.readString();
+            encLog.append(sender + ": " + toHexString(encryptedMsg.getBytes(StandardCharsets.ISO_8859_1)));
+            chatLog.append(sender + ": " + xor(encryptedMsg));
+        }
+    }
+
+    public void startDelivery(String mode, int n) throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        serverProcess = LatencyLoadTest.startServer(mode, port);
+        for (int i = 0; i < n; i++) {
+            Socket socket = new Socket("127.0.0.1", port);
+            socket.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF("load" + i);
+            out.flush();
+            sockets.add(socket);
+            outs.add(out);
+            LatencyLoadTest.startReader(socket, msg -> {
+                CountDownLatch done = pending;
+                if (done != null && msg.equals(expected)) {
+                    done.countDown();
+                }
+            });
+        }
+        // 입장 알림이 다 빠질 때까지 잠시 대기
+        Thread.sleep(2000);
+    }
+
+    public void deliver() throws Exception {
+        String msg = DELIVERY_PREFIX + sent;
+        expected = msg;
+        CountDownLatch done = new CountDownLatch(outs.size());
+        pending = done;
+        DataOutputStream out = outs.get((int) (sent++ % outs.size()));
+        out.writeUTF("TEXT");
+        out.writeUTF(msg);
+        out.flush();
+        if (!done.await(10, TimeUnit.SECONDS)) {
+            throw new IOException("not delivered to " + done.getCount() + " of " + outs.size() + " clients");
+        }
+    }
+
+    public void startCipher() throws IOException {
+        KeyPair c = SessionCrypto.newKeyPair();
+        KeyPair s = SessionCrypto.newKeyPair();
+        sealSide = SessionCrypto.session(c, SessionCrypto.encode(s.getPublic()), true);
+        openSide = SessionCrypto.session(s, SessionCrypto.encode(c.getPublic()), false);
+    }
+
+    public Object sealAndOpen(String message) throws IOException {
+        ByteBuffer record = sealSide.sealer.seal(ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)));
+        record.position(4);
+        int need = record.remaining() - SessionCrypto.TAG_BYTES;
+        if (plain.capacity() < need) {
+            plain = ByteBuffer.allocate(need);
+        }
+        plain.clear();
+        openSide.opener.open(record, plain);
+        return plain;
+    }
+
+    public void close() throws Exception {
+        if (chatLog != null) {
+            chatLog.close();
+            encLog.close();
+            for (File f : logDir.listFiles()) {
+                f.delete();
+            }
+            logDir.delete();
+        }
+        for (Socket s : sockets) {
+            try {
+                s.close();
+            } catch (IOException ignored) {}
+        }
+        if (serverProcess != null) {
+            serverProcess.destroy();
+            serverProcess.waitFor();
+        }
+    }
+
+    // 소켓 대신 송신 큐만 가진 접속자
+    private static final class MemoryClient extends ChatServer.Client {
+        final String name;
+        final OutboundQueue queue;
+
+        MemoryClient(String name, OutboundQueue queue) {
+            this.name = name;
+            this.queue = queue;
+        }
+
+        String getUserName() {
+            return name;
+        }
+
+        void send(Frame frame) {
+            queue.offer(frame);
+        }
+
+        void encryptAfterUpgrade(SessionCrypto.Sealer sealer) {
+            queue.encryptAfterUpgrade(sealer);
+        }
+
+        int getQueueDepth() {
+            return queue.getDepth();
+        }
+
+        long getDroppedCount() {
+            return queue.getDroppedCount();
+        }
+
+        void disconnect() {
+            // 소켓 없음
+        }
+    }
+
+    // ChatClient.xorMessage 와 같은 방식
+    private static String xor(String message) {
+        char[] chars = message.toCharArray();
+        int k = 0;
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] ^= XOR_CHARS[k];
+            if (++k == XOR_CHARS.length) k = 0;
+        }
+        return new String(chars);
+    }
+
+    // ChatClient.toHexString 과 같은 방식
+    private static String toHexString(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,74 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// [추가] 메시지 암호화 비용 비교 (메시지 길이별)
+// - xorOld : 예전 ChatClient.xorMessage (StringBuilder 에 char 하나씩 append)
+// - xorNew : 지금 ChatClient.xorMessage (char 배열에서 바로 XOR)
+// - gcm    : SessionCrypto 의 AES-256-GCM 레코드 암호화 + 복호화 (Cipher / 버퍼 재사용, UTF-8 인코딩 포함)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CipherBenchmark {
+    private static final String XOR_KEY = "secret1234"; // ChatClient 와 같은 키
+    private static final char[] XOR_CHARS = XOR_KEY.toCharArray();
+
+    @Param({"16", "256", "4096", "65536"})
+    public int chars;
+
+    private String message;
+    private Fixture cipher;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        message = sample(chars);
+        cipher = Fixture.create();
+        cipher.startCipher();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        cipher.close();
+    }
+
+    @Benchmark
+    public String xorOld() {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < message.length(); i++) {
+            char c = (char) (message.charAt(i) ^ XOR_KEY.charAt(i % XOR_KEY.length()));
+            result.append(c);
+        }
+        return result.toString();
+    }
+
+    @Benchmark
+    public String xorNew() {
+        char[] chars = message.toCharArray();
+        int k = 0;
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] ^= XOR_CHARS[k];
+            if (++k == XOR_CHARS.length) k = 0;
+        }
+        return new String(chars);
+    }
+
+    @Benchmark
+    public Object gcm() throws IOException {
+        return cipher.sealAndOpen(message);
+    }
+
+    // 한글 / 영문이 섞인 채팅 내용
+    private static String sample(int len) {
+        String base = "안녕하세요 hello 오늘 회의는 3시에 합니다. ok ㅋㅋ ";
+        StringBuilder sb = new StringBuilder(len);
+        while (sb.length() < len) {
+            sb.append(base);
+        }
+        return sb.substring(0, len);
+    }
+}
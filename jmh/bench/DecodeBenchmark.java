@@ -0,0 +1,36 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// [추가] 클라이언트 수신 경로 - 받은 v1 TEXT 프레임 하나를 읽고 복호화해서 로그 두 개에 넣기까지
+// 디스크에 쓰는 건 LogWriter 스레드 몫이라 들어 있지 않음 (못 따라가면 LogWriter 가 버림)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+    static final int FRAMES = 4096;
+
+    private Fixture decoder;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        decoder = Fixture.create();
+        decoder.startDecoder(FRAMES);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        decoder.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void receive() throws IOException {
+        decoder.receive();
+    }
+}
@@ -0,0 +1,40 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// [추가] 실제 소켓으로 채팅 하나가 접속자 전원에게 닿기까지 걸린 시간 (loopback, LatencyLoadTest 의 JMH 판)
+// - SampleTime 이라 p50 / p90 / p99 / p99.9 / 최대를 같이 출력
+// - 서버는 mode 별로 별도 JVM (기록 저장 없이), 접속자마다 수신 스레드 하나 - 10000 명이면 ulimit -n 을 먼저 올려야 함
+// 한 번에 하나씩 보내고 다 받을 때까지 기다리므로 부하를 걸어 둔 상태의 지연은 LatencyLoadTest --rate 로 봄
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeliveryBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int clients;
+
+    @Param({"thread", "nio"})
+    public String mode;
+
+    private Fixture delivery;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        delivery = Fixture.create();
+        delivery.startDelivery(mode, clients);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        delivery.close();
+    }
+
+    @Benchmark
+    public void deliver() throws Exception {
+        delivery.deliver();
+    }
+}
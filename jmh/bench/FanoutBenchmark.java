@@ -0,0 +1,64 @@
+package bench;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// [추가] 방송 / 귓속말 한 번의 비용 - 소켓 없이 메모리 안에서
+// - broadcastText : 접속자 전원의 큐에 넣고, writer 가 하듯 프로토콜별로 인코딩해서 꺼내기까지
+// - sendWhisper   : 닉네임으로 찾아서 한 명에게 넣고 꺼내기까지
+// 큐(기본 1024)가 넘치지 않도록 BATCH 번 보낸 뒤 한 번에 비움 (결과는 보내기 한 번 기준)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanoutBenchmark {
+    static final int BATCH = 256;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int clients;
+
+    @Param({"v1", "v2", "v2+deflate"})
+    public String protocol;
+
+    private Fixture server;
+    private final int[] targets = new int[4096];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = Fixture.create();
+        server.startServer(clients, protocol);
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = random.nextInt(clients);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void broadcastText() throws IOException {
+        for (int i = 0; i < BATCH; i++) {
+            server.broadcastText(next++ % clients);
+        }
+        server.drain();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void sendWhisper() throws IOException {
+        for (int i = 0; i < BATCH; i++) {
+            server.sendWhisper(next % clients, targets[next & (targets.length - 1)]);
+            next++;
+        }
+        server.drain();
+    }
+}
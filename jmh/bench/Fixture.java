@@ -0,0 +1,44 @@
+package bench;
+
+import java.io.IOException;
+
+// [추가] 벤치마크가 쓰는 앱 쪽 준비물 - 구현은 jmh/BenchFixture 하나
+// 앱 클래스는 이름 없는 패키지라서 bench 패키지에서 바로 쓸 수 없음 (JMH 는 이름 없는 패키지의 벤치마크를 받지 않음)
+// 벤치마크는 State 마다 create() 로 하나씩 만들어서 필요한 start... 하나만 부르고 끝나면 close()
+public interface Fixture {
+    // 이름 없는 패키지의 클래스는 import 할 수 없으므로 여기서 한 번만 이름으로 불러옴
+    static Fixture create() {
+        try {
+            return (Fixture) Class.forName("BenchFixture").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("BenchFixture is not on the class path (mvn -B -Pjmh package)", e);
+        }
+    }
+
+    // 소켓 대신 송신 큐만 가진 접속자 n 명이 있는 서버
+    // protocol: v1 / v2 / v2+deflate - 접속자마다 그 인코딩으로 큐에서 꺼냄
+    void startServer(int clients, String protocol) throws IOException;
+    void broadcastText(int from);
+    void sendWhisper(int from, int to);
+    void broadcastImage(int from, byte[] data);
+    // writer 가 하는 일 - 쌓인 프레임을 인코딩된 버퍼로 꺼내기만 하고 버림
+    void drain() throws IOException;
+
+    // 클라이언트 수신 경로 - 서버가 보내는 v1 TEXT 프레임 frames 개를 미리 만들어 둠
+    void startDecoder(int frames) throws IOException;
+    // 프레임 전부를 ChatClient 와 같은 순서로 읽고 로그에 넣음
+    void receive() throws IOException;
+
+    // 별도 JVM 서버 + 실제 소켓 접속자 n 명
+    void startDelivery(String mode, int clients) throws Exception;
+    // 한 명이 TEXT 를 보내고 접속자 전원이 받을 때까지 기다림
+    void deliver() throws Exception;
+
+    // 연결 하나의 AES-GCM 세션 양쪽
+    void startCipher() throws IOException;
+    // 클라이언트 쪽에서 암호화한 레코드를 서버 쪽에서 복호화 (UTF-8 인코딩 포함) - 평문 버퍼를 돌려줌
+    Object sealAndOpen(String message) throws IOException;
+
+    // start... 로 만든 것 정리 (소켓, 서버 JVM, 로그 파일)
+    void close() throws Exception;
+}
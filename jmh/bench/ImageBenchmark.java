@@ -0,0 +1,50 @@
+package bench;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// [추가] 이미지 방송 한 번의 비용 - 접속자 수 x 이미지 크기
+// 프레임은 한 번만 인코딩해서 공유하므로 크기보다는 접속자 수에 따라 늘어나야 함
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageBenchmark {
+    static final int BATCH = 16;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int clients;
+
+    @Param({"1", "64", "1024"})
+    public int imageKb;
+
+    private Fixture server;
+    private byte[] data;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = Fixture.create();
+        server.startServer(clients, "v2");
+        data = new byte[imageKb * 1024];
+        new Random(42).nextBytes(data);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void broadcastImage() throws IOException {
+        for (int i = 0; i < BATCH; i++) {
+            server.broadcastImage(next++ % clients, data);
+        }
+        server.drain();
+    }
+}